@@ -26,6 +26,9 @@ import androidx.multidex.MultiDex;
 import androidx.multidex.MultiDexApplication;
 
 import io.phonk.gui.connectionInfo.EventManager;
+import io.phonk.runner.apprunner.interpreter.StandbyRuntime;
+import io.phonk.runner.base.services.StandbyReceiver;
+import io.phonk.runner.base.utils.AndroidUtils;
 
 public class App extends MultiDexApplication {
 
@@ -50,5 +53,10 @@ public class App extends MultiDexApplication {
 
         eventManager = new EventManager(getApplicationContext());
 
+        // scripts run in their own process, keep it running with a warm javascript runtime
+        String processName = AndroidUtils.getProcessName(this);
+        if (processName.endsWith(":AppRunner")) StandbyRuntime.warmUp();
+        else if (processName.equals(getPackageName())) StandbyReceiver.wakeUp(this);
+
     }
 }
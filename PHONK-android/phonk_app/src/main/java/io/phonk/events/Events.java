@@ -105,14 +105,42 @@ public class Events {
 
     public static class ExecuteCodeEvent {
         private final String code;
+        private final boolean hotSwap;
 
         public ExecuteCodeEvent(String code) {
+            this(code, false);
+        }
+
+        public ExecuteCodeEvent(String code, boolean hotSwap) {
             this.code = code;
+            this.hotSwap = hotSwap;
         }
 
         public String getCode() {
             return code;
         }
+
+        public boolean isHotSwap() {
+            return hotSwap;
+        }
+    }
+
+    public static class ProfilerEvent {
+        private final String action;
+        private final float interval;
+
+        public ProfilerEvent(String action, float interval) {
+            this.action = action;
+            this.interval = interval;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public float getInterval() {
+            return interval;
+        }
     }
 
     public static class LogEvent {
@@ -41,6 +41,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import fi.iki.elonen.NanoHTTPD;
@@ -152,6 +153,9 @@ public class PhonkHttpServer extends NanoHTTPD {
     "/api/project/list/"
     "/api/project/stop_all"
     "/api/project/execute_code"
+    "/api/project/hot_swap"
+    "/api/project/profiler_start?interval=2"
+    "/api/project/profiler_stop"
 
     // project dependent actions
     0   1      2   3   4   5    6
@@ -218,7 +222,8 @@ public class PhonkHttpServer extends NanoHTTPD {
                     MLog.d(TAG, "listing projects 2");
                     break;
                 }
-                case "execute_code": {
+                case "execute_code":
+                case "hot_swap": {
                     // MLog.d(TAG, "run code");
 
                     // POST DATA
@@ -230,7 +235,9 @@ public class PhonkHttpServer extends NanoHTTPD {
 
                         json = map.get("postData");
                         NEOProject neo = gson.fromJson(json, NEOProject.class);
-                        EventBus.getDefault().post(new Events.ExecuteCodeEvent(neo.code));
+                        // hot swap only updates the functions that changed in the running script
+                        boolean hotSwap = uriSplitted[COMMAND].equals("hot_swap");
+                        EventBus.getDefault().post(new Events.ExecuteCodeEvent(neo.code, hotSwap));
 
                         res = newFixedLengthResponse("OK");
                     } catch (IOException e) {
@@ -252,6 +259,26 @@ public class PhonkHttpServer extends NanoHTTPD {
                      */
                     break;
                 }
+                case "profiler_start": {
+                    // the reports are streamed to the WebIDE through the websocket
+                    float interval = 2;
+                    List<String> intervalParam = session.getParameters().get("interval");
+                    if (intervalParam != null && !intervalParam.isEmpty()) {
+                        try {
+                            interval = Float.parseFloat(intervalParam.get(0));
+                        } catch (NumberFormatException e) {
+                            return newFixedLengthResponse("NOP");
+                        }
+                    }
+                    EventBus.getDefault().post(new Events.ProfilerEvent("start", interval));
+                    res = newFixedLengthResponse("OK");
+                    break;
+                }
+                case "profiler_stop": {
+                    EventBus.getDefault().post(new Events.ProfilerEvent("stop", 0));
+                    res = newFixedLengthResponse("OK");
+                    break;
+                }
                 case "views_list_types": {
                     ArrayList<String> arrayList = new ArrayList();
                     arrayList.add("button");
@@ -155,13 +155,25 @@ public class PhonkServerService extends Service {
     final BroadcastReceiver logBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            MLog.d(TAG, intent.getAction());
+            String[] actions = intent.getStringArrayExtra("actions");
+            String[] times = intent.getStringArrayExtra("times");
+            String[] data = intent.getStringArrayExtra("data");
+            if (actions == null || times == null || data == null) return;
+
+            // each broadcast carries a batch of lines that goes to the WebIDE in a single frame
+            ArrayList<HashMap> logs = new ArrayList<>(actions.length);
+            for (int i = 0; i < actions.length; i++) {
+                HashMap log = new HashMap();
+                log.put("action", actions[i]);
+                log.put("time", times[i]);
+                log.put("data", data[i]);
+                logs.add(log);
+            }
 
             HashMap hashMap = new HashMap();
             hashMap.put("module", "console");
-            hashMap.put("action", intent.getStringExtra("action"));
-            hashMap.put("time", intent.getStringExtra("time"));
-            hashMap.put("data", intent.getStringExtra("data"));
+            hashMap.put("action", "batch");
+            hashMap.put("logs", logs);
             String jsonObject = gson.toJson(hashMap);
 
             phonkWebsockets.send(jsonObject);
@@ -183,6 +195,16 @@ public class PhonkServerService extends Service {
             phonkWebsockets.send(jsonObject);
         }
     };
+    final BroadcastReceiver profilerBroadcastReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String report = intent.getStringExtra("report");
+            if (report == null) return;
+
+            // the report is already json, no need to parse it again
+            phonkWebsockets.send("{\"module\":\"profiler\",\"action\":\"report\",\"report\":" + report + "}");
+        }
+    };
     private Project mProjectRunning;
     final BroadcastReceiver stopActivitiyBroadcastReceiver = new BroadcastReceiver() {
         @Override
@@ -386,6 +408,11 @@ public class PhonkServerService extends Service {
         IntentFilter filterWebEditorSend = new IntentFilter();
         filterWebEditorSend.addAction("io.phonk.intent.WEBEDITOR_SEND");
         registerReceiver(webEditorBroadcastReceiver, filterWebEditorSend);
+
+        // register profiler broadcast
+        IntentFilter filterProfiler = new IntentFilter();
+        filterProfiler.addAction("io.phonk.intent.PROFILER");
+        registerReceiver(profilerBroadcastReceiver, filterProfiler);
         MLog.d(TAG, "registering receiver");
 
         // register a broadcast to receive the notification commands
@@ -427,6 +454,7 @@ public class PhonkServerService extends Service {
         unregisterReceiver(mNotificationReceiver);
         unregisterReceiver(logBroadcastReceiver);
         unregisterReceiver(webEditorBroadcastReceiver);
+        unregisterReceiver(profilerBroadcastReceiver);
         unregisterReceiver(stopActivitiyBroadcastReceiver);
         unregisterReceiver(viewsUpdateBroadcastReceiver);
 
@@ -541,6 +569,15 @@ public class PhonkServerService extends Service {
     public void onEventMainThread(Events.ExecuteCodeEvent e) {
         Intent i = new Intent("io.phonk.runner.intent.EXECUTE_CODE");
         i.putExtra("code", e.getCode());
+        i.putExtra("hotSwap", e.isHotSwap());
+        sendBroadcast(i);
+    }
+
+    @Subscribe
+    public void onEventMainThread(Events.ProfilerEvent e) {
+        Intent i = new Intent("io.phonk.runner.intent.PROFILER");
+        i.putExtra("action", e.getAction());
+        i.putExtra("interval", e.getInterval());
         sendBroadcast(i);
     }
 
@@ -54,10 +54,12 @@ import androidx.fragment.app.FragmentTransaction;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
 
 import java.util.ArrayList;
 import java.util.Map;
 
+import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.AppRunnerHelper;
 import io.phonk.runner.apprunner.AppRunnerSettings;
 import io.phonk.runner.apprunner.api.PDevice;
@@ -94,6 +96,11 @@ public class AppRunnerActivity extends BaseActivity {
         public void onReceive(Context context, Intent intent) {
             String code = intent.getStringExtra("code");
 
+            if (intent.getBooleanExtra("hotSwap", false)) {
+                mAppRunnerFragment.getAppRunner().hotSwap(code);
+                return;
+            }
+
             mAppRunnerFragment.getAppRunner().interp.eval(code);
 
             if (mAppRunnerFragment.liveCoding != null) {
@@ -101,6 +108,22 @@ public class AppRunnerActivity extends BaseActivity {
             }
         }
     };
+    final BroadcastReceiver profilerBroadcastReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            AppRunner appRunner = mAppRunnerFragment != null ? mAppRunnerFragment.getAppRunner() : null;
+            if (appRunner == null) return;
+
+            if ("start".equals(intent.getStringExtra("action"))) {
+                appRunner.startProfiler(
+                        intent.getFloatExtra("interval", 2),
+                        intent.getIntExtra("reportInterval", 1000)
+                );
+            } else {
+                appRunner.stopProfiler();
+            }
+        }
+    };
     /*
      * Events
      */
@@ -300,6 +323,7 @@ public class AppRunnerActivity extends BaseActivity {
         if (isNFCInitialized) mAdapter.disableForegroundDispatch(this);
         unregisterReceiver(stopActivitiyBroadcastReceiver);
         unregisterReceiver(executeCodeActivitiyBroadcastReceiver);
+        unregisterReceiver(profilerBroadcastReceiver);
     }
 
     @Override
@@ -312,6 +336,7 @@ public class AppRunnerActivity extends BaseActivity {
         // broadcast to start/stop the activity
         startStopActivityBroadcastReceiver();
         executeCodeActivityBroadcastReceiver();
+        profilerBroadcastReceiver();
     }
 
     /**
@@ -332,6 +357,15 @@ public class AppRunnerActivity extends BaseActivity {
         registerReceiver(executeCodeActivitiyBroadcastReceiver, filterSend);
     }
 
+    /**
+     * Receiving orders to start and stop the profiler from the WebIDE
+     */
+    public void profilerBroadcastReceiver() {
+        IntentFilter filterSend = new IntentFilter();
+        filterSend.addAction("io.phonk.runner.intent.PROFILER");
+        registerReceiver(profilerBroadcastReceiver, filterSend);
+    }
+
     public void registerEventBus() {
         if (!eventBusRegistered) {
             EventBus.getDefault().register(this);
@@ -356,7 +390,11 @@ public class AppRunnerActivity extends BaseActivity {
     }
 
     private void addDebugFragment() {
-        mDebugFragment = DebugFragment.newInstance();
+        addDebugFragment(DebugFragment.newInstance());
+    }
+
+    private void addDebugFragment(DebugFragment debugFragment) {
+        mDebugFragment = debugFragment;
         FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
         FrameLayout fl = findViewById(R.id.debug_fragment);
         ft.add(fl.getId(), mDebugFragment, String.valueOf(fl.getId()));
@@ -563,23 +601,30 @@ public class AppRunnerActivity extends BaseActivity {
     /**
      * Activity dependent events
      */
-    @Subscribe
-    public void onEventMainThread(Events.LogEvent e) {
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onEventMainThread(Events.LogBatchEvent e) {
         Intent i = new Intent("io.phonk.intent.CONSOLE");
 
-        String action = e.getAction();
-        String time = e.getTime();
-        String data = e.getData();
-
-        i.putExtra("action", action);
-        i.putExtra("time", time);
-        i.putExtra("data", data);
+        i.putExtra("actions", e.getActions());
+        i.putExtra("times", e.getTimes());
+        i.putExtra("data", e.getData());
         sendBroadcast(i);
 
-        if ((action == "log_error" || action == "log_permission_error") && !debugFramentIsVisible) addDebugFragment();
-        else if (action == "show") addDebugFragment();
-        else if (action == "hide") removeDebugFragment();
+        for (Events.LogEvent log : e.getLogs()) {
+            String action = log.getAction();
+
+            // the new console registers after this batch was delivered so it gets it from here
+            if ((action == "log_error" || action == "log_permission_error") && !debugFramentIsVisible) addDebugFragment(DebugFragment.newInstance(e.getLogs()));
+            else if (action == "show") addDebugFragment();
+            else if (action == "hide") removeDebugFragment();
+        }
     }
 
+    @Subscribe
+    public void onEventMainThread(Events.ProfilerEvent e) {
+        Intent i = new Intent("io.phonk.intent.PROFILER");
+        i.putExtra("report", e.getReport());
+        sendBroadcast(i);
+    }
 
 }
@@ -46,6 +46,9 @@ import androidx.core.app.NotificationCompat;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
+import java.util.HashMap;
 
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.AppRunnerHelper;
@@ -69,9 +72,25 @@ public class AppRunnerService extends Service {
         public void onReceive(Context context, Intent intent) {
             String code = intent.getStringExtra("code");
 
+            if (intent.getBooleanExtra("hotSwap", false)) mAppRunner.hotSwap(code);
             // mAppRunner.interp.eval(code);
         }
     };
+    final BroadcastReceiver profilerBroadcastReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mAppRunner == null) return;
+
+            if ("start".equals(intent.getStringExtra("action"))) {
+                mAppRunner.startProfiler(
+                        intent.getFloatExtra("interval", 2),
+                        intent.getIntExtra("reportInterval", 1000)
+                );
+            } else {
+                mAppRunner.stopProfiler();
+            }
+        }
+    };
     private final String TAG = AppRunnerService.class.getSimpleName();
     private final boolean mOverlayIsEnabled = false;
     private final String mNotificationChannelId = "phonk_script";
@@ -127,9 +146,12 @@ public class AppRunnerService extends Service {
 
         mAppRunner = new AppRunner(this);
         mAppRunner.hasUserInterface = false;
-        mAppRunner.initDefaultObjects(AppRunnerHelper.createSettings());
-        mAppRunner.pApp.folder = intent.getStringExtra(Project.FOLDER);
-        mAppRunner.pApp.name = intent.getStringExtra(Project.NAME);
+        String folder = intent.getStringExtra(Project.FOLDER);
+        String name = intent.getStringExtra(Project.NAME);
+        // the project settings decide things like script_thread before the objects are created
+        mAppRunner.initDefaultObjects(new HashMap<>(AppRunnerHelper.readProjectProperties(this, new Project(folder, name))));
+        mAppRunner.pApp.folder = folder;
+        mAppRunner.pApp.name = name;
         mAppRunner.pDevice.deviceId = intent.getStringExtra(Project.DEVICE_ID);
 
         mAppRunner.loadProject(mAppRunner.pApp.folder, mAppRunner.pApp.name);
@@ -172,6 +194,7 @@ public class AppRunnerService extends Service {
         // start / stop service
         startStopActivityBroadcastReceiver();
         executeCodeActivityBroadcastReceiver();
+        profilerBroadcastReceiver();
 
         // catch errors and send them to the WebIDE or the app console
         AppRunnerInterpreter.InterpreterInfo appRunnerCb = (resultType, message) -> mAppRunner.pConsole.p_error(
@@ -238,6 +261,15 @@ public class AppRunnerService extends Service {
         registerReceiver(executeCodeActivitiyBroadcastReceiver, filterSend);
     }
 
+    /**
+     * Receiving orders to start and stop the profiler from the WebIDE
+     */
+    public void profilerBroadcastReceiver() {
+        IntentFilter filterSend = new IntentFilter();
+        filterSend.addAction("io.phonk.runner.intent.PROFILER");
+        registerReceiver(profilerBroadcastReceiver, filterSend);
+    }
+
     private void createNotification(final int notificationId, String scriptFolder, String scriptName) {
 
 
@@ -287,6 +319,7 @@ public class AppRunnerService extends Service {
         sendBroadcast(i);
         unregisterReceiver(stopActivitiyBroadcastReceiver);
         unregisterReceiver(executeCodeActivitiyBroadcastReceiver);
+        unregisterReceiver(profilerBroadcastReceiver);
         mNotificationManager.cancel(mNotificationId);
         unregisterEventBus();
         mAppRunner.byebye();
@@ -311,17 +344,21 @@ public class AppRunnerService extends Service {
     /**
      * Activity dependent events
      */
-    @Subscribe
-    public void onEventMainThread(Events.LogEvent e) {
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onEventMainThread(Events.LogBatchEvent e) {
         Intent i = new Intent("io.phonk.intent.CONSOLE");
 
-        String action = e.getAction();
-        String data = e.getData();
-
-        i.putExtra("action", action);
-        i.putExtra("data", data);
+        i.putExtra("actions", e.getActions());
+        i.putExtra("times", e.getTimes());
+        i.putExtra("data", e.getData());
         sendBroadcast(i);
     }
 
+    @Subscribe
+    public void onEventMainThread(Events.ProfilerEvent e) {
+        Intent i = new Intent("io.phonk.intent.PROFILER");
+        i.putExtra("report", e.getReport());
+        sendBroadcast(i);
+    }
 
 }
@@ -23,7 +23,9 @@
 package io.phonk.runner.apprunner;
 
 import android.content.Context;
+import android.os.Looper;
 
+import org.greenrobot.eventbus.EventBus;
 import org.mozilla.javascript.Scriptable;
 
 import java.io.File;
@@ -44,8 +46,12 @@ import io.phonk.runner.apprunner.api.PSensors;
 import io.phonk.runner.apprunner.api.PUI;
 import io.phonk.runner.apprunner.api.PUtil;
 import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.api.other.IoExecutor;
+import io.phonk.runner.apprunner.api.other.LoopScheduler;
 import io.phonk.runner.apprunner.api.other.WhatIsRunning;
 import io.phonk.runner.apprunner.interpreter.AppRunnerInterpreter;
+import io.phonk.runner.apprunner.interpreter.ScriptThread;
+import io.phonk.runner.base.events.Events;
 import io.phonk.runner.base.models.Project;
 import io.phonk.runner.base.network.NetworkUtils;
 import io.phonk.runner.base.utils.MLog;
@@ -54,6 +60,10 @@ public class AppRunner {
 
     private static final String TAG = AppRunner.class.getSimpleName();
     public final WhatIsRunning whatIsRunning;
+    // loopers and delays of this script
+    public final LoopScheduler loopScheduler;
+    // async file operations of the script
+    public final IoExecutor ioExecutor;
     public final boolean mIsProjectLoaded = false;
     private final Context mContext;
     public boolean hasUserInterface = false;
@@ -79,12 +89,22 @@ public class AppRunner {
     //Project properties
     private Project mProject;
     private String mScript;
+    // only used when the project runs the interpreter in its own thread
+    private ScriptThread mScriptThread;
+    // the standard objects are shared between launches unless the project opts out
+    private boolean mSharedScope = true;
 
     public AppRunner(Context context) {
         this.mContext = context;
         whatIsRunning = new WhatIsRunning();
+        loopScheduler = new LoopScheduler();
+        ioExecutor = new IoExecutor();
+        whatIsRunning.add(ioExecutor);
     }
 
+    /**
+     * Same as the fragment variant for runners without ui such as services, settings like script_thread apply too
+     */
     public AppRunner initDefaultObjects(HashMap<String, Object> settings) {
         initDefaultObjects(null, settings);
 
@@ -94,6 +114,16 @@ public class AppRunner {
     public AppRunner initDefaultObjects(AppRunnerFragment appRunnerFragment, Map<String, Object> mScriptSettings) {
         hasUserInterface = true;
 
+        // the script thread has to exist before the objects so their callbacks are posted to it
+        if (mScriptSettings != null && Boolean.TRUE.equals(mScriptSettings.get("script_thread"))) {
+            startScriptThread();
+        }
+
+        // projects that modify the built-in objects need their own copy of them
+        if (mScriptSettings != null && Boolean.FALSE.equals(mScriptSettings.get("shared_scope"))) {
+            mSharedScope = false;
+        }
+
         // instantiate the objects that can be accessed from the interpreter
 
         // the reason to call initForParentFragment is because the class depends on the fragment ui.
@@ -162,6 +192,7 @@ public class AppRunner {
         // run the script
         if (null != mScript) {
             evaluate(mScript, mProject.getName());
+            if (interp != null) interp.setHotSwapSource(mScript, mProject.getName());
         }
         // can accept intent code if no project is loaded
         if (!mIsProjectLoaded) {
@@ -181,6 +212,17 @@ public class AppRunner {
         if (interp != null) interp.eval(script, projectName);
     }
 
+    /**
+     * Live coding, only the functions that changed are updated and the rest of the script keeps running
+     */
+    public void hotSwap(String script) {
+        if (interp == null) return;
+        interp.hotSwap(script, result -> {
+            if (result.error != null) pConsole.p_error(AppRunnerInterpreter.RESULT_ERROR, result.toString());
+            else pConsole.log(result.toString());
+        });
+    }
+
     public Scriptable newArray() {
         return interp.newNativeArray();
     }
@@ -194,9 +236,56 @@ public class AppRunner {
         if (!finished) {
             finished = true;
             whatIsRunning.stopAll();
+            loopScheduler.__stop();
+            if (interp != null) interp.stopProfiler();
+            if (mScriptThread != null && interp != null) interp.stop();
         }
     }
 
+    /**
+     * Runs the interpreter and the script callbacks in a dedicated thread with its own event queue.
+     * Script functions called from other threads (widgets, sensors...) are queued there, and scripts use
+     * ui.run(...) to touch Android views directly
+     */
+    public AppRunner startScriptThread() {
+        if (mScriptThread == null) {
+            mScriptThread = new ScriptThread("phonk-script").start();
+            loopScheduler.setScriptLooper(mScriptThread.getLooper());
+        }
+
+        return this;
+    }
+
+    /**
+     * Profiles the script, the reports are posted as ProfilerEvent so they can reach the WebIDE
+     */
+    public void startProfiler(float intervalMs, int reportIntervalMs) {
+        if (interp == null) return;
+        interp.startProfiler(intervalMs, reportIntervalMs, report -> {
+            EventBus.getDefault().post(new Events.ProfilerEvent(report.toString()));
+        });
+    }
+
+    public void stopProfiler() {
+        if (interp != null) interp.stopProfiler();
+    }
+
+    public boolean usesSharedScope() {
+        return mSharedScope;
+    }
+
+    public ScriptThread getScriptThread() {
+        return mScriptThread;
+    }
+
+    /**
+     * Looper where the script callbacks have to be posted
+     */
+    public Looper getScriptLooper() {
+        if (mScriptThread != null) return mScriptThread.getLooper();
+        return Looper.getMainLooper();
+    }
+
     public Project getProject() {
         return mProject;
     }
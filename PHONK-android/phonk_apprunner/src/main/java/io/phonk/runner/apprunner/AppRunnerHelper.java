@@ -95,6 +95,9 @@ public class AppRunnerHelper {
         if (!map.containsKey("contact")) map.put("contact", "");
         if (!map.containsKey("url")) map.put("url", "");
         if (!map.containsKey("execute_on_save")) map.put("execute_on_save", "");
+        if (!map.containsKey("hot_swap_on_save")) map.put("hot_swap_on_save", false);
+        if (!map.containsKey("script_thread")) map.put("script_thread", false);
+        if (!map.containsKey("shared_scope")) map.put("shared_scope", true);
     }
 
     public static HashMap<String, Object> createSettings() {
@@ -46,6 +46,11 @@ public class AppRunnerSettings {
     public static int animGeneralSpeed = 500;
     public static int SERVER_PORT;
 
+    // rhino optimization level, -1 is the interpreter. Higher levels are opt-in since they generate bytecode
+    public static int SCRIPT_OPTIMIZATION_LEVEL = -1;
+    // number of compiled scripts kept in memory
+    public static int SCRIPT_CACHE_SIZE = 16;
+
     public String id;
 
     public static String getFolderPath(String folder) {
@@ -38,6 +38,8 @@ import android.graphics.Color;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.MediaStore;
 import android.provider.MediaStore.MediaColumns;
 
@@ -61,6 +63,7 @@ import io.phonk.runner.apprunner.api.common.ReturnInterface;
 import io.phonk.runner.apprunner.api.common.ReturnObject;
 import io.phonk.runner.apprunner.api.other.PEvents;
 import io.phonk.runner.apprunner.api.other.PLiveCodingFeedback;
+import io.phonk.runner.apprunner.interpreter.AppRunnerInterpreter;
 import io.phonk.runner.base.models.Project;
 import io.phonk.runner.base.utils.ExecuteCmd;
 import io.phonk.runner.base.utils.FileIO;
@@ -78,6 +81,7 @@ public class PApp extends ProtoBase {
     public String folder;
     public String name;
     public ReturnObject intentData;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     public PApp(AppRunner appRunner) {
         super(appRunner);
@@ -231,6 +235,7 @@ public class PApp extends ProtoBase {
 
     /**
      * Runs a function on the main loop. This is normally not needed but might be required when combined with Threads
+     * (ui.run does the same for scripts running in their own thread)
      *
      * @param callback
      * @advanced
@@ -238,7 +243,7 @@ public class PApp extends ProtoBase {
      */
     @PhonkMethod
     public void runOnMainLoop(final ReturnInterface callback) {
-        this.mHandler.post(() -> callback.event(null));
+        mMainHandler.post(() -> AppRunnerInterpreter.runInPlace(() -> callback.event(null)));
     }
 
     /**
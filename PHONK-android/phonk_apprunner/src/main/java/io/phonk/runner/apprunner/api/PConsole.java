@@ -22,8 +22,6 @@
 
 package io.phonk.runner.apprunner.api;
 
-import org.greenrobot.eventbus.EventBus;
-
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -31,8 +29,9 @@ import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apidoc.annotation.PhonkObject;
 import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.api.other.ConsoleBatcher;
 import io.phonk.runner.apprunner.interpreter.AppRunnerInterpreter;
-import io.phonk.runner.base.events.Events;
 import io.phonk.runner.base.utils.MLog;
 import io.phonk.runner.base.utils.StrUtils;
 
@@ -41,6 +40,8 @@ public class PConsole extends ProtoBase {
 
     private final boolean showTime = false;
     private final SimpleDateFormat s = new SimpleDateFormat("hh:mm:ss");
+    // lines are sent to the WebIDE and the app console in batches, one per tick
+    private final ConsoleBatcher mBatcher = new ConsoleBatcher();
 
     public PConsole(AppRunner appRunner) {
         super(appRunner);
@@ -79,7 +80,7 @@ public class PConsole extends ProtoBase {
     }
 
     private void send(String action, String data) {
-        EventBus.getDefault().postSticky(new Events.LogEvent(action, getCurrentTime(), data));
+        mBatcher.add(action, data);
     }
 
     @PhonkMethod
@@ -236,12 +237,82 @@ public class PConsole extends ProtoBase {
         return this;
     }
 
+    /**
+     * Changes how often the console lines are sent, all the lines logged during this time are sent together
+     *
+     * @param ms
+     * @status TODO_EXAMPLE
+     */
+    @PhonkMethod(description = "time in milliseconds between console updates", example = "")
+    @PhonkMethodParam(params = {"milliseconds"})
+    public PConsole batchTime(int ms) {
+        mBatcher.tick(ms);
+        return this;
+    }
+
+    /**
+     * Maximum number of lines per second that are shown, the rest are dropped and counted
+     *
+     * @param linesPerSecond
+     * @status TODO_EXAMPLE
+     */
+    @PhonkMethod(description = "maximum number of lines per second", example = "")
+    @PhonkMethodParam(params = {"linesPerSecond"})
+    public PConsole limit(int linesPerSecond) {
+        mBatcher.limit(linesPerSecond);
+        return this;
+    }
+
+    /**
+     * Maximum number of lines waiting to be sent
+     *
+     * @param lines
+     * @status TODO_EXAMPLE
+     */
+    @PhonkMethod(description = "maximum number of lines waiting to be sent", example = "")
+    @PhonkMethodParam(params = {"lines"})
+    public PConsole queueSize(int lines) {
+        mBatcher.capacity(lines);
+        return this;
+    }
+
+    /**
+     * When enabled no line is dropped and everything is sent when the script stops
+     *
+     * @param b
+     * @status TODO_EXAMPLE
+     */
+    @PhonkMethod(description = "never drop console lines", example = "")
+    @PhonkMethodParam(params = {"boolean"})
+    public PConsole lossless(boolean b) {
+        mBatcher.lossless(b);
+        return this;
+    }
+
+    /**
+     * Returns the console counters
+     *
+     * @return
+     * @status TODO_EXAMPLE
+     */
+    @PhonkMethod(description = "returns the number of queued, sent and dropped lines", example = "")
+    public ReturnObject stats() {
+        ReturnObject ret = new ReturnObject();
+        ret.put("queued", mBatcher.getQueued());
+        ret.put("sent", mBatcher.getSent());
+        ret.put("batches", mBatcher.getBatches());
+        ret.put("pending", mBatcher.size());
+        ret.put("droppedRate", mBatcher.getDroppedRate());
+        ret.put("droppedOverflow", mBatcher.getDroppedOverflow());
+        return ret;
+    }
+
     public void adbLog(String tag, String msg) {
         MLog.d(tag, msg);
     }
 
     public void __stop() {
-
+        mBatcher.stop();
     }
 }
 
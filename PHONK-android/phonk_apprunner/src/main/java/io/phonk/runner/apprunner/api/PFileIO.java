@@ -26,13 +26,13 @@ import android.graphics.Bitmap;
 import android.graphics.Typeface;
 import android.os.FileObserver;
 
-import net.lingala.zip4j.exception.ZipException;
-
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
@@ -40,7 +40,12 @@ import io.phonk.runner.apidoc.annotation.PhonkObject;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.common.ReturnInterface;
 import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.api.other.DataRecordingReader;
+import io.phonk.runner.apprunner.api.other.IoExecutor;
+import io.phonk.runner.apprunner.api.other.PDataRecorder;
+import io.phonk.runner.apprunner.api.other.PFileReader;
 import io.phonk.runner.apprunner.api.other.PSqLite;
+import io.phonk.runner.apprunner.api.other.PTimeSeries;
 import io.phonk.runner.apprunner.api.other.WhatIsRunningInterface;
 import io.phonk.runner.apprunner.interpreter.PhonkNativeArray;
 import io.phonk.runner.base.utils.FileIO;
@@ -76,13 +81,12 @@ public class PFileIO extends ProtoBase {
     }
 
     public void deleteAsync(final String name, final ReturnInterface callback) {
-        Thread t = new Thread(() -> {
+        execute(IoExecutor.PRIORITY_NORMAL, name, callback, () -> {
             delete(name);
             ReturnObject ret = new ReturnObject();
             ret.put("file", name);
-            returnValues(ret, callback);
+            return ret;
         });
-        t.start();
     }
 
     @PhonkMethod(description = "Delete a filename", example = "")
@@ -92,9 +96,111 @@ public class PFileIO extends ProtoBase {
     }
 
     private void returnValues(final ReturnObject ret, final ReturnInterface callback) {
+        if (callback == null) return;
         mHandler.post(() -> callback.event(ret));
     }
 
+    // runs in the io threads of the AppRunner, the operations on the same file run in order
+    private void execute(int priority, String fileName, ReturnInterface callback, Callable<ReturnObject> work) {
+        getAppRunner().ioExecutor.execute(new FileTask(priority, fileName, callback, work));
+    }
+
+    private String[] fullPaths(String[] fileNames) {
+        String[] paths = new String[fileNames.length];
+        for (int i = 0; i < fileNames.length; i++) {
+            paths[i] = fileNames[i] == null ? null : getAppRunner().getProject().getFullPathForFile(fileNames[i]);
+        }
+        return paths;
+    }
+
+    // where move and copy leave the file, to is a directory
+    private static String destinationOf(String name, String to) {
+        return to + File.separator + new File(name).getName();
+    }
+
+    private class FileTask extends IoExecutor.Task {
+        final ArrayList<ReturnInterface> mCallbacks = new ArrayList<>();
+        private final Callable<ReturnObject> mWork;
+
+        FileTask(int priority, String fileName, ReturnInterface callback, Callable<ReturnObject> work) {
+            this(priority, new String[]{fileName}, callback, work);
+        }
+
+        // the operation waits for every file it reads or writes
+        FileTask(int priority, String[] fileNames, ReturnInterface callback, Callable<ReturnObject> work) {
+            super(priority, fullPaths(fileNames));
+            if (callback != null) mCallbacks.add(callback);
+            mWork = work;
+        }
+
+        @Override
+        protected void execute() {
+            ReturnObject ret;
+            try {
+                ret = mWork.call();
+            } catch (Exception e) {
+                ret = new ReturnObject();
+                ret.put("status", false);
+                ret.put("error", e.toString());
+            }
+            for (ReturnInterface callback : mCallbacks) returnValues(ret, callback);
+        }
+
+        @Override
+        protected void cancelled(String reason) {
+            // nobody is listening once the script is stopped
+            if (IoExecutor.CANCELLED_STOPPED.equals(reason)) return;
+
+            ReturnObject ret = new ReturnObject();
+            ret.put("status", false);
+            ret.put("error", reason);
+            for (ReturnInterface callback : mCallbacks) returnValues(ret, callback);
+        }
+    }
+
+    // saves and appends waiting for the same file are written together
+    private class WriteTask extends FileTask {
+        private final boolean mAppend;
+        private final String mFileName;
+        private final StringBuilder mContent;
+
+        WriteTask(String fileName, String content, boolean append, ReturnInterface callback) {
+            super(IoExecutor.PRIORITY_NORMAL, fileName, callback, null);
+            mFileName = fileName;
+            mContent = new StringBuilder(content);
+            mAppend = append;
+        }
+
+        @Override
+        protected void execute() {
+            ReturnObject ret = new ReturnObject();
+            ret.put("file", mFileName);
+            try {
+                FileIO.writeString(getAppRunner().getProject().getFullPathForFile(mFileName), mContent.toString(), mAppend);
+            } catch (IOException e) {
+                ret.put("status", false);
+                ret.put("error", e.toString());
+            }
+            for (ReturnInterface callback : mCallbacks) returnValues(ret, callback);
+        }
+
+        @Override
+        protected boolean merge(IoExecutor.Task newer) {
+            if (!(newer instanceof WriteTask) || ((WriteTask) newer).mAppend != mAppend) return false;
+
+            WriteTask write = (WriteTask) newer;
+            if (!mAppend) mContent.setLength(0);
+            mContent.append(write.mContent);
+            mCallbacks.addAll(write.mCallbacks);
+            return true;
+        }
+    }
+
+    @PhonkMethod(description = "Queued, running and completed async file operations", example = "")
+    public ReturnObject ioStats() {
+        return getAppRunner().ioExecutor.stats();
+    }
+
     @PhonkMethod(description = "Get 1 is is a file, 2 if is a directory and -1 if the file doesnt exists", example = "")
     @PhonkMethodParam(params = {"fileName"})
     public String type(String name) {
@@ -110,45 +216,59 @@ public class PFileIO extends ProtoBase {
     }
 
     public void moveAsync(final String name, final String to, final ReturnInterface callback) {
-        Thread t = new Thread(() -> {
-            move(name, to);
+        String[] files = {name, destinationOf(name, to)};
+        getAppRunner().ioExecutor.execute(new FileTask(IoExecutor.PRIORITY_NORMAL, files, callback, () -> {
+            moveOrThrow(name, to);
             ReturnObject ret = new ReturnObject();
             ret.put("file", name);
-            returnValues(ret, callback);
-        });
-        t.start();
+            return ret;
+        }));
     }
 
     @PhonkMethod(description = "Move a file to a directory", example = "")
     @PhonkMethodParam(params = {"name", "destination"})
     public void move(String name, String to) {
-        File fromFile = new File(getAppRunner().getProject().getFullPathForFile(name));
-        File dir = new File(getAppRunner().getProject().getFullPathForFile(to));
-
-        dir.mkdirs();
         try {
-            FileUtils.moveFileToDirectory(fromFile, dir, false);
+            moveOrThrow(name, to);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    @PhonkMethod(description = "Copy a file or directory", example = "")
-    @PhonkMethodParam(params = {"name", "destination"})
-    public void copy(String name, String to) {
-        File file = new File(getAppRunner().getProject().getFullPathForFile(name));
+    private void moveOrThrow(String name, String to) throws IOException {
+        File fromFile = new File(getAppRunner().getProject().getFullPathForFile(name));
         File dir = new File(getAppRunner().getProject().getFullPathForFile(to));
+
         dir.mkdirs();
+        FileUtils.moveFileToDirectory(fromFile, dir, false);
+    }
 
+    @PhonkMethod(description = "Copy a file or directory", example = "")
+    @PhonkMethodParam(params = {"name", "destination"})
+    public void copy(String name, String to) {
         try {
-            FileUtils.copyFileToDirectory(file, dir);
+            copyOrThrow(name, to);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public void copyAsync(String from, String to, ReturnInterface callback) {
+    private void copyOrThrow(String name, String to) throws IOException {
+        File file = new File(getAppRunner().getProject().getFullPathForFile(name));
+        File dir = new File(getAppRunner().getProject().getFullPathForFile(to));
+        dir.mkdirs();
 
+        FileUtils.copyFileToDirectory(file, dir);
+    }
+
+    public void copyAsync(final String from, final String to, final ReturnInterface callback) {
+        String[] files = {from, destinationOf(from, to)};
+        getAppRunner().ioExecutor.execute(new FileTask(IoExecutor.PRIORITY_LOW, files, callback, () -> {
+            copyOrThrow(from, to);
+            ReturnObject ret = new ReturnObject();
+            ret.put("file", from);
+            return ret;
+        }));
     }
 
     @PhonkMethod(description = "Rename a file or directory", example = "")
@@ -162,13 +282,7 @@ public class PFileIO extends ProtoBase {
     }
 
     public void saveTextToFileAsync(final String lines, final String fileName, final ReturnInterface callback) {
-        Thread t = new Thread(() -> {
-            saveTextToFile(lines, fileName);
-            ReturnObject ret = new ReturnObject();
-            ret.put("file", fileName);
-            returnValues(ret, callback);
-        });
-        t.start();
+        getAppRunner().ioExecutor.execute(new WriteTask(fileName, lines, false, callback));
     }
 
     @PhonkMethod(description = "Save an array with text into a file", example = "")
@@ -180,10 +294,7 @@ public class PFileIO extends ProtoBase {
     @PhonkMethod(description = "Append an array of text into a file", example = "")
     @PhonkMethodParam(params = {"fileName", "lines[]"})
     public void appendTextToFileAsync(final String line, final String fileName, final ReturnInterface callback) {
-        Thread t = new Thread(() -> {
-            appendTextToFile(line, fileName);
-            returnValues(null, callback);
-        });
+        getAppRunner().ioExecutor.execute(new WriteTask(fileName, line, true, callback));
     }
 
     @PhonkMethod(description = "Append an array of text into a file", example = "")
@@ -193,14 +304,13 @@ public class PFileIO extends ProtoBase {
     }
 
     public void loadTextFromFileAsync(final String fileName, final ReturnInterface callback) {
-        Thread t = new Thread(() -> {
+        execute(IoExecutor.PRIORITY_HIGH, fileName, callback, () -> {
             String content = loadTextFromFile(fileName);
-            final ReturnObject ret = new ReturnObject();
+            ReturnObject ret = new ReturnObject();
             ret.put("file", fileName);
             ret.put("content", content);
-            returnValues(ret, callback);
+            return ret;
         });
-        t.start();
     }
 
     @PhonkMethod(description = "Load the Strings of a text file into an array", example = "")
@@ -209,6 +319,24 @@ public class PFileIO extends ProtoBase {
         return FileIO.loadStringFromFile(getAppRunner().getProject().getFullPathForFile(fileName));
     }
 
+    @PhonkMethod(description = "Load the bytes of a file", example = "")
+    @PhonkMethodParam(params = {"fileName"})
+    public byte[] loadBytesFromFile(String fileName) {
+        return FileIO.loadBytesFromFile(getAppRunner().getProject().getFullPathForFile(fileName));
+    }
+
+    @PhonkMethod(description = "Opens a file to read it line by line or in chunks without loading it whole", example = "")
+    @PhonkMethodParam(params = {"fileName"})
+    public PFileReader openReader(String fileName) throws IOException {
+        return openReader(fileName, "UTF-8");
+    }
+
+    @PhonkMethod(description = "Opens a file to read it line by line or in chunks with the given charset", example = "")
+    @PhonkMethodParam(params = {"fileName", "charset"})
+    public PFileReader openReader(String fileName, String charset) throws IOException {
+        return new PFileReader(getAppRunner(), getAppRunner().getProject().getFullPathForFile(fileName), charset);
+    }
+
     @PhonkMethod(description = "Loads a font", example = "")
     @PhonkMethodParam(params = {"fontFile"})
     public Typeface loadFont(String fontName) {
@@ -216,11 +344,12 @@ public class PFileIO extends ProtoBase {
     }
 
     public void loadImageAsync(final String path, final ReturnInterface callback) {
-        Thread t = new Thread(() -> {
-            loadImage(path);
-            returnValues(null, callback);
+        execute(IoExecutor.PRIORITY_HIGH, path, callback, () -> {
+            ReturnObject ret = new ReturnObject();
+            ret.put("file", path);
+            ret.put("image", loadImage(path));
+            return ret;
         });
-        t.start();
     }
 
     @PhonkMethod(description = "Loads a bitmap", example = "")
@@ -258,10 +387,45 @@ public class PFileIO extends ProtoBase {
         return new PSqLite(getAppRunner(), db);
     }
 
+    @PhonkMethod(description = "Open a time series database with rollups and retention", example = "")
+    @PhonkMethodParam(params = {"filename"})
+    public PTimeSeries openTimeSeries(String db) {
+        return new PTimeSeries(getAppRunner(), db);
+    }
+
+    @PhonkMethod(description = "Records rows of numbers into compact binary files, the name gets the date and the .prec extension", example = "")
+    @PhonkMethodParam(params = {"name", "columns[]"})
+    public PDataRecorder recorder(String name, String[] columns) {
+        return new PDataRecorder(getAppRunner(), getAppRunner().getProject().getFullPathForFile(name), columns);
+    }
+
+    @PhonkMethod(description = "Columns, rows and if a recording was closed properly", example = "")
+    @PhonkMethodParam(params = {"fileName"})
+    public ReturnObject recordingInfo(String fileName) throws IOException {
+        return new DataRecordingReader(new File(getAppRunner().getProject().getFullPathForFile(fileName))).info();
+    }
+
+    @PhonkMethod(description = "Exports a recording to csv or json depending on the extension of the output", example = "")
+    @PhonkMethodParam(params = {"fileName", "output"})
+    public void exportRecording(String fileName, String output) throws IOException {
+        DataRecordingReader reader = new DataRecordingReader(new File(getAppRunner().getProject().getFullPathForFile(fileName)));
+        reader.export(new File(getAppRunner().getProject().getFullPathForFile(output)));
+    }
+
+    public void exportRecordingAsync(final String fileName, final String output, final ReturnInterface callback) {
+        execute(IoExecutor.PRIORITY_LOW, output, callback, () -> {
+            exportRecording(fileName, output);
+            ReturnObject ret = new ReturnObject();
+            ret.put("file", output);
+            ret.put("status", true);
+            return ret;
+        });
+    }
+
     @PhonkMethod(description = "Zip a file/folder into a zip", example = "")
     @PhonkMethodParam(params = {"folder", "filename"})
     public void zip(final String fOrigin, final String fDestiny, final ReturnInterface callback) {
-        Thread t = new Thread(() -> {
+        execute(IoExecutor.PRIORITY_LOW, fDestiny, callback, () -> {
             try {
                 FileIO.zipFolder(
                         getAppRunner().getProject().getFullPathForFile(fOrigin),
@@ -271,26 +435,20 @@ public class PFileIO extends ProtoBase {
                 e.printStackTrace();
             }
 
-            returnValues(null, callback);
+            return null;
         });
-        t.start();
     }
 
     @PhonkMethod(description = "Unzip a file into a folder", example = "")
     @PhonkMethodParam(params = {"zipFile", "folder"})
     public void unzip(final String src, final String dst, final ReturnInterface callback) {
-        Thread t = new Thread(() -> {
-            try {
-                FileIO.unZipFile(
-                        getAppRunner().getProject().getFullPathForFile(src),
-                        getAppRunner().getProject().getFullPathForFile(dst)
-                );
-                returnValues(null, callback);
-            } catch (ZipException e) {
-                e.printStackTrace();
-            }
+        execute(IoExecutor.PRIORITY_LOW, dst, callback, () -> {
+            FileIO.unZipFile(
+                    getAppRunner().getProject().getFullPathForFile(src),
+                    getAppRunner().getProject().getFullPathForFile(dst)
+            );
+            return null;
         });
-        t.start();
     }
 
     public void saveImage(Bitmap finalBitmap, String fileName, String type, int quality) {
@@ -214,7 +214,7 @@ public class PNetwork extends ProtoBase {
     @PhonkMethodParam(params = {"port", "function(jsonData)"})
     public OSC.Server createOSCServer(String port) {
         OSC osc = new OSC();
-        OSC.Server server = new OSC.Server();
+        OSC.Server server = new OSC.Server(mHandler);
 
         server.start(port);
         getAppRunner().whatIsRunning.add(server);
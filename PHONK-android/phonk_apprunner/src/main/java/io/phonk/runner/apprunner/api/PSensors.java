@@ -23,6 +23,7 @@
 package io.phonk.runner.apprunner.api;
 
 import io.phonk.runner.apidoc.annotation.PhonkField;
+import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apidoc.annotation.PhonkObject;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.common.ReturnObject;
@@ -39,6 +40,7 @@ import io.phonk.runner.apprunner.api.sensors.PMagneticField;
 import io.phonk.runner.apprunner.api.sensors.POrientation;
 import io.phonk.runner.apprunner.api.sensors.PProximity;
 import io.phonk.runner.apprunner.api.sensors.PRotationVector;
+import io.phonk.runner.apprunner.api.sensors.PSensorCapture;
 import io.phonk.runner.apprunner.api.sensors.PStep;
 
 
@@ -113,6 +115,11 @@ public class PSensors extends ProtoBase {
         return r;
     }
 
+    @PhonkMethod(description = "Captures several sensors together and delivers frames aligned to the same timestamp", example = "")
+    public PSensorCapture capture() {
+        return new PSensorCapture(getAppRunner());
+    }
+
     @Override
     public void __stop() {
 
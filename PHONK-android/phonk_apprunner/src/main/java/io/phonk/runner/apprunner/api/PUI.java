@@ -55,6 +55,7 @@ import io.phonk.runner.apprunner.api.widgets.PToolbar;
 import io.phonk.runner.apprunner.api.widgets.PViewMethodsInterface;
 import io.phonk.runner.apprunner.api.widgets.StylePropertiesProxy;
 import io.phonk.runner.apprunner.api.widgets.WidgetHelper;
+import io.phonk.runner.apprunner.interpreter.AppRunnerInterpreter;
 import io.phonk.runner.apprunner.interpreter.PhonkNativeArray;
 import io.phonk.runner.base.utils.AndroidUtils;
 import io.phonk.runner.base.utils.MLog;
@@ -183,9 +184,11 @@ public class PUI extends PViewsArea {
     @Override
     public void statusBarColor(int color) {
         if (mActivity != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            Window window = this.mActivity.getWindow();
-            window.addFlags(WindowManager.LayoutParams.FLAG_DRAWS_SYSTEM_BAR_BACKGROUNDS);
-            window.setStatusBarColor(color);
+            onMainLoop(() -> {
+                Window window = this.mActivity.getWindow();
+                window.addFlags(WindowManager.LayoutParams.FLAG_DRAWS_SYSTEM_BAR_BACKGROUNDS);
+                window.setStatusBarColor(color);
+            });
         }
     }
 
@@ -193,6 +196,19 @@ public class PUI extends PViewsArea {
     public void __stop() {
     }
 
+    /**
+     * Runs a function in the main thread where the views live. Only needed when the script runs in its own
+     * thread (script_thread in app.conf) and touches Android views directly, the ui methods already do it
+     *
+     * @param callback
+     * @advanced
+     * @status TODO_EXAMPLE
+     */
+    @PhonkMethod
+    public void run(final ReturnInterface callback) {
+        onMainLoop(() -> AppRunnerInterpreter.runInPlace(() -> callback.event(null)));
+    }
+
     @PhonkMethod
     public PViewsArea addArea(Object x, Object y, Object w, Object h) {
         PViewsArea pViewsArea = new PViewsArea(mAppRunner);
@@ -218,20 +234,22 @@ public class PUI extends PViewsArea {
     }
 
     public void screenMode(String mode) {
-        switch (mode) {
-            case "fullscreen":
-                getActivity().setFullScreen();
-                break;
+        onMainLoop(() -> {
+            switch (mode) {
+                case "fullscreen":
+                    getActivity().setFullScreen();
+                    break;
 
-            case "immersive":
-                getActivity().setImmersive();
-                break;
+                case "immersive":
+                    getActivity().setImmersive();
+                    break;
 
-            default:
-                getActivity().setNormal();
-        }
+                default:
+                    getActivity().setNormal();
+            }
 
-        updateScreenSizes();
+            updateScreenSizes();
+        });
     }
 
     public void updateScreenSizes() {
@@ -240,15 +258,17 @@ public class PUI extends PViewsArea {
     }
 
     public void screenOrientation(String mode) {
-        if (mode.equals("landscape")) {
-            getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
-        } else if (mode.equals("portrait")) {
-            getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
-        } else {
-            getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_SENSOR);
-        }
+        onMainLoop(() -> {
+            if (mode.equals("landscape")) {
+                getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
+            } else if (mode.equals("portrait")) {
+                getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
+            } else {
+                getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_SENSOR);
+            }
 
-        updateScreenSizes();
+            updateScreenSizes();
+        });
     }
 
     /**
@@ -284,7 +304,8 @@ public class PUI extends PViewsArea {
      */
     @PhonkMethod
     public void addTitle(String title) {
-        getFragment().changeTitle(title, (String) theme.get("primary"));
+        String color = (String) theme.get("primary");
+        onMainLoop(() -> getFragment().changeTitle(title, color));
     }
 
     /**
@@ -294,7 +315,7 @@ public class PUI extends PViewsArea {
      */
     @PhonkMethod
     public void addSubtitle(String subtitle) {
-        getFragment().changeSubtitle(subtitle);
+        onMainLoop(() -> getFragment().changeSubtitle(subtitle));
     }
 
     /**
@@ -339,16 +360,13 @@ public class PUI extends PViewsArea {
      */
     @PhonkMethod
     public void toast(String text) {
-        Toast.makeText(getContext(), text, Toast.LENGTH_SHORT).show();
+        onMainLoop(() -> Toast.makeText(getContext(), text, Toast.LENGTH_SHORT).show());
     }
 
     @PhonkMethod
     public void toast(String text, boolean longTime) {
-        int duration = Toast.LENGTH_SHORT;
-        if (longTime) {
-            duration = Toast.LENGTH_LONG;
-        }
-        Toast.makeText(getContext(), text, duration).show();
+        int duration = longTime ? Toast.LENGTH_LONG : Toast.LENGTH_SHORT;
+        onMainLoop(() -> Toast.makeText(getContext(), text, duration).show());
     }
 
     /**
@@ -362,7 +380,7 @@ public class PUI extends PViewsArea {
      */
     @PhonkMethod
     public void clipAndShadow(View v, int type, int r) {
-        AndroidUtils.setViewGenericShadow(v, type, 0, 0, v.getWidth(), v.getHeight(), r);
+        onMainLoop(() -> AndroidUtils.setViewGenericShadow(v, type, 0, 0, v.getWidth(), v.getHeight(), r));
         // v.setElevation();
         // v.setZ();
         // v.animate().
@@ -370,7 +388,7 @@ public class PUI extends PViewsArea {
 
     @PhonkMethod
     public void clipAndShadow(View v, int type, int x, int y, int w, int h, int r) {
-        AndroidUtils.setViewGenericShadow(v, type, x, y, w, h, r);
+        onMainLoop(() -> AndroidUtils.setViewGenericShadow(v, type, x, y, w, h, r));
     }
 
     /*
@@ -389,6 +407,10 @@ public class PUI extends PViewsArea {
      */
     @PhonkMethod
     public void resize(final View v, int w, int h, boolean animated) {
+        onMainLoop(() -> resizeInMainLoop(v, w, h, animated));
+    }
+
+    private void resizeInMainLoop(final View v, int w, int h, boolean animated) {
         if (!animated) {
             if (h != -1) {
                 v.getLayoutParams().height = h;
@@ -431,7 +453,7 @@ public class PUI extends PViewsArea {
      */
     @PhonkMethod
     public void movable(View viewHandler, View viewContainer, ReturnInterface callback) {
-        WidgetHelper.setMovable(viewHandler, viewContainer, callback);
+        onMainLoop(() -> WidgetHelper.setMovable(viewHandler, viewContainer, callback));
     }
 
     /**
@@ -443,7 +465,7 @@ public class PUI extends PViewsArea {
      */
     @PhonkMethod
     public void removeMovable(View viewHandler) {
-        WidgetHelper.removeMovable(viewHandler);
+        onMainLoop(() -> WidgetHelper.removeMovable(viewHandler));
     }
 
     /**
@@ -47,8 +47,10 @@ import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apidoc.annotation.PhonkObject;
 import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.other.LoopScheduler;
 import io.phonk.runner.apprunner.api.other.PDelay;
 import io.phonk.runner.apprunner.api.other.PLooper;
+import io.phonk.runner.apprunner.api.other.SignalFilters;
 import io.phonk.runner.apprunner.api.other.SignalUtils;
 import io.phonk.runner.base.utils.AndroidUtils;
 import io.phonk.runner.base.utils.MLog;
@@ -77,12 +79,27 @@ public class PUtil extends ProtoBase {
         return new PLooper(getAppRunner(), duration, null);
     }
 
+    @PhonkMethod(description = "Creates a drift-free looper that calls a given function 'n' times per second, timed in a dedicated thread", example = "")
+    @PhonkMethodParam(params = {"hz", "function()"})
+    public PLooper loopFixedRate(final double hz, final PLooper.LooperCB callbackkfn) {
+        return new PLooper(getAppRunner(), 0, callbackkfn)
+                .mode(LoopScheduler.MODE_FIXED_RATE)
+                .executor(LoopScheduler.EXECUTOR_THREAD)
+                .frequency(hz);
+    }
+
     @PhonkMethod(description = "Delay a given function 'n' milliseconds", example = "")
     @PhonkMethodParam(params = {"milliseconds", "function()"})
     public PDelay delay(final int delay, final PDelay.DelayCB fn) {
         return new PDelay(getAppRunner(), delay, fn);
     }
 
+    @PhonkMethod(description = "Delay a given function 'n' milliseconds running it in the given executor ('script', 'main', 'thread' or 'pool')", example = "")
+    @PhonkMethodParam(params = {"milliseconds", "executor", "function()"})
+    public PDelay delay(final int delay, final String executor, final PDelay.DelayCB fn) {
+        return new PDelay(getAppRunner(), delay, executor, fn);
+    }
+
     // http://stackoverflow.com/questions/4605527/converting-pixels-to-dp
     @PhonkMethod(description = "Convert given dp to pixels", example = "")
     @PhonkMethodParam(params = {""})
@@ -248,6 +265,30 @@ public class PUtil extends ProtoBase {
         return new SignalUtils(getAppRunner(), n);
     }
 
+    @PhonkMethod(description = "Creates a filter that returns the average of the last 'n' values", example = "")
+    @PhonkMethodParam(params = {"n"})
+    public SignalFilters.MovingAverage movingAverage(int n) {
+        return new SignalFilters.MovingAverage(n);
+    }
+
+    @PhonkMethod(description = "Creates an exponential smoothing filter, alpha between 0 and 1", example = "")
+    @PhonkMethodParam(params = {"alpha"})
+    public SignalFilters.ExponentialSmoothing smooth(float alpha) {
+        return new SignalFilters.ExponentialSmoothing(alpha);
+    }
+
+    @PhonkMethod(description = "Creates a biquad filter of type 'lowpass', 'highpass', 'bandpass' or 'notch'", example = "")
+    @PhonkMethodParam(params = {"type", "sampleRate", "frequency", "q"})
+    public SignalFilters.Biquad biquad(String type, float sampleRate, float frequency, float q) {
+        return new SignalFilters.Biquad(type, sampleRate, frequency, q);
+    }
+
+    @PhonkMethod(description = "Creates a filter that returns the median of the last 'n' values", example = "")
+    @PhonkMethodParam(params = {"n"})
+    public SignalFilters.RunningMedian median(int n) {
+        return new SignalFilters.RunningMedian(n);
+    }
+
     public int sizeToPixels(Object val, int toValue) {
         int returnVal = -1;
 
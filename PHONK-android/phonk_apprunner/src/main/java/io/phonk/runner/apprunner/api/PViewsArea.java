@@ -24,6 +24,8 @@ package io.phonk.runner.apprunner.api;
 
 import android.content.Context;
 import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.InputType;
 import android.view.Gravity;
 import android.view.View;
@@ -91,6 +93,7 @@ public class PViewsArea extends ProtoBase {
     private boolean isScrollEnabled = false;
     private RelativeLayout uiHolderLayout;
     private PScrollView uiScrollView;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     public PViewsArea(AppRunner appRunner) {
         super(appRunner);
@@ -146,10 +149,19 @@ public class PViewsArea extends ProtoBase {
      */
     @PhonkMethod
     public void allowScroll(boolean scroll) {
-        uiScrollView.setScrollingEnabled(scroll);
+        onMainLoop(() -> uiScrollView.setScrollingEnabled(scroll));
         isScrollEnabled = scroll;
     }
 
+    /**
+     * Views can only be touched from the main thread, when the script runs in its own thread
+     * (script_thread in app.conf) the change is posted there
+     */
+    protected void onMainLoop(Runnable task) {
+        if (Looper.myLooper() == Looper.getMainLooper()) task.run();
+        else mMainHandler.post(task);
+    }
+
     public PAbsoluteLayout newAbsoluteLayout() {
         ViewGroup.LayoutParams layoutParams = new ViewGroup.LayoutParams(
                 ViewGroup.LayoutParams.MATCH_PARENT,
@@ -189,14 +201,16 @@ public class PViewsArea extends ProtoBase {
     @PhonkMethod
     public View addView(View v, Object x, Object y, Object w, Object h) {
         boolean isAnimated = (boolean) mAppRunner.pUi.theme.get("animationOnViewAdd");
-
-        if (isAnimated) {
-            v.setAlpha(0);
-            v.animate().alpha(1).setDuration(300).setStartDelay(100L * (1 + viewArray.size())).start();
-        }
+        long delay = 100L * (1 + viewArray.size());
 
         viewArray.add(v);
-        uiAbsoluteLayout.addView(v, x, y, w, h);
+        onMainLoop(() -> {
+            if (isAnimated) {
+                v.setAlpha(0);
+                v.animate().alpha(1).setDuration(300).setStartDelay(delay).start();
+            }
+            uiAbsoluteLayout.addView(v, x, y, w, h);
+        });
 
         return v;
     }
@@ -209,13 +223,13 @@ public class PViewsArea extends ProtoBase {
      */
     @PhonkMethod
     public void removeAllViews() {
-        uiAbsoluteLayout.removeAllViews();
+        onMainLoop(() -> uiAbsoluteLayout.removeAllViews());
         viewArray.clear();
     }
 
     @PhonkMethod
     public void removeView(View v) {
-        uiAbsoluteLayout.removeView(v);
+        onMainLoop(() -> uiAbsoluteLayout.removeView(v));
     }
 
     /**
@@ -239,7 +253,7 @@ public class PViewsArea extends ProtoBase {
      */
     @PhonkMethod
     public void background(int color) {
-        uiHolderLayout.setBackgroundColor(color);
+        onMainLoop(() -> uiHolderLayout.setBackgroundColor(color));
         this.statusBarColor(color);
     }
 
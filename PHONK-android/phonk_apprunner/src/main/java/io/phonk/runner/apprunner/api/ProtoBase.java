@@ -24,7 +24,6 @@ package io.phonk.runner.apprunner.api;
 
 import android.content.Context;
 import android.os.Handler;
-import android.os.Looper;
 
 import io.phonk.runner.AppRunnerActivity;
 import io.phonk.runner.AppRunnerFragment;
@@ -33,7 +32,8 @@ import io.phonk.runner.apprunner.AppRunner;
 
 public abstract class ProtoBase {
 
-    public final Handler mHandler = new Handler(Looper.getMainLooper());
+    // callbacks to the script are posted here, it is the main thread unless the script runs in its own thread
+    public final Handler mHandler;
     protected final String TAG = getClass().getSimpleName();
     private final AppRunner mAppRunner;
     private final Context mContext;
@@ -45,6 +45,7 @@ public abstract class ProtoBase {
         super();
         this.mAppRunner = appRunner;
         this.mContext = appRunner.getAppContext();
+        this.mHandler = new Handler(appRunner.getScriptLooper());
 
         appRunner.whatIsRunning.add(this);
     }
@@ -0,0 +1,170 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.apprunner.api.media;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Turns a NV21 camera frame into the RGB input a model expects, cropping the centered square,
+ * scaling it to size x size and rotating it in a single pass over the output pixels. The output is
+ * either (value - mean) / std floats or, for quantized models, the raw bytes.
+ * <p>
+ * Where every output pixel is read from is computed once per frame size and rotation, the values go
+ * to a reused direct buffer, so preparing a frame doesn't allocate. Not thread safe, every thread
+ * needs its own
+ */
+class CameraImagePreprocessor {
+    private final int mSize;
+    private final boolean mQuantized;
+    private final float mScale;
+    private final float mOffset;
+    private final ByteBuffer mBuffer;
+    private final float[] mFloats;
+    private final byte[] mBytes;
+    private final int[] mYIndex;
+    private final int[] mUVIndex;
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private int mRotation = -1;
+
+    /**
+     * Floats normalized to [0, 1]
+     */
+    CameraImagePreprocessor(int size) {
+        this(size, false, 0, 255);
+    }
+
+    CameraImagePreprocessor(int size, boolean quantized, float mean, float std) {
+        mSize = size;
+        mQuantized = quantized;
+        mScale = 1 / std;
+        mOffset = -mean / std;
+
+        int values = size * size * 3;
+        mBuffer = ByteBuffer.allocateDirect(quantized ? values : values * 4);
+        mBuffer.order(ByteOrder.nativeOrder());
+        mFloats = quantized ? null : new float[values];
+        mBytes = quantized ? new byte[values] : null;
+        mYIndex = new int[size * size];
+        mUVIndex = new int[size * size];
+    }
+
+    /**
+     * Fills the own buffer from the frame, it stays valid until the next call
+     *
+     * @param rotation clockwise degrees, 0, 90, 180 or 270
+     */
+    ByteBuffer process(byte[] nv21, int width, int height, int rotation) {
+        process(nv21, width, height, rotation, mBuffer);
+        return mBuffer;
+    }
+
+    /**
+     * Fills a direct buffer with room for size x size x 3 values from the frame
+     */
+    void process(byte[] nv21, int width, int height, int rotation, ByteBuffer out) {
+        if (width != mWidth || height != mHeight || rotation != mRotation) {
+            computeIndexes(width, height, rotation);
+        }
+
+        int[] yIndex = mYIndex;
+        int[] uvIndex = mUVIndex;
+        int pixels = mSize * mSize;
+
+        if (mQuantized) {
+            byte[] rgb = mBytes;
+            for (int p = 0, o = 0; p < pixels; p++) {
+                int uv = uvIndex[p];
+                int color = ImageUtils.yuv2Rgb(0xff & nv21[yIndex[p]], 0xff & nv21[uv + 1], 0xff & nv21[uv]);
+
+                rgb[o++] = (byte) (color >> 16);
+                rgb[o++] = (byte) (color >> 8);
+                rgb[o++] = (byte) color;
+            }
+
+            out.rewind();
+            out.put(rgb);
+        } else {
+            float[] rgb = mFloats;
+            float scale = mScale;
+            float offset = mOffset;
+            for (int p = 0, o = 0; p < pixels; p++) {
+                int uv = uvIndex[p];
+                int color = ImageUtils.yuv2Rgb(0xff & nv21[yIndex[p]], 0xff & nv21[uv + 1], 0xff & nv21[uv]);
+
+                rgb[o++] = ((color >> 16) & 0xff) * scale + offset;
+                rgb[o++] = ((color >> 8) & 0xff) * scale + offset;
+                rgb[o++] = (color & 0xff) * scale + offset;
+            }
+
+            out.rewind();
+            out.asFloatBuffer().put(rgb);
+        }
+        out.rewind();
+    }
+
+    private void computeIndexes(int width, int height, int rotation) {
+        int size = mSize;
+        int crop = Math.min(width, height);
+        int cropX = (width - crop) / 2;
+        int cropY = (height - crop) / 2;
+        int frameSize = width * height;
+
+        for (int oy = 0, p = 0; oy < size; oy++) {
+            for (int ox = 0; ox < size; ox++, p++) {
+                // position in the unrotated square
+                int ux;
+                int uy;
+                switch (rotation) {
+                    case 90:
+                        ux = oy;
+                        uy = size - 1 - ox;
+                        break;
+                    case 180:
+                        ux = size - 1 - ox;
+                        uy = size - 1 - oy;
+                        break;
+                    case 270:
+                        ux = size - 1 - oy;
+                        uy = ox;
+                        break;
+                    default:
+                        ux = ox;
+                        uy = oy;
+                        break;
+                }
+
+                // nearest source pixel to the center of the output pixel
+                int sx = cropX + (2 * ux + 1) * crop / (2 * size);
+                int sy = cropY + (2 * uy + 1) * crop / (2 * size);
+
+                mYIndex[p] = sy * width + sx;
+                mUVIndex[p] = frameSize + (sy >> 1) * width + (sx & ~1);
+            }
+        }
+
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+    }
+}
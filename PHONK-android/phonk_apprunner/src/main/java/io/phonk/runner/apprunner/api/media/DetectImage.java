@@ -23,54 +23,387 @@
 package io.phonk.runner.apprunner.api.media;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Handler;
 
 import org.tensorflow.lite.examples.detection.tflite.Classifier;
 import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 
 import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.common.ReturnInterface;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.interpreter.PhonkNativeArray;
 import io.phonk.runner.base.utils.MLog;
 
+/**
+ * Detects objects in camera frames in two stages. The caller prepares the model input of a frame
+ * while the detection thread runs the model on the previous one, the input buffers are reused and a
+ * prepared frame waiting for the model is replaced by a newer one.
+ * <p>
+ * The detections are tracked across frames and the results go to the script with one post at a time
+ */
 public class DetectImage {
 
+    private static final String TAG = DetectImage.class.getSimpleName();
     private static final int TF_OD_API_INPUT_SIZE = 300;
     private static final boolean TF_OD_API_IS_QUANTIZED = true;
     private static final String TF_OD_API_MODEL_FILE = "detect.tflite";
     private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labelmap.txt";
+    // one being prepared, one waiting and one in the model
+    private static final int INPUT_BUFFERS = 3;
+    private static final long FPS_WINDOW_NS = 1000000000L;
+    private static final long STOP_TIMEOUT_MS = 500;
     private final AppRunner mAppRunner;
+    private final Handler mHandler;
     LearnImages.Callback mCallback = null;
-    private Classifier detector;
+    private ReturnInterface mDetectedCallback = null;
+    private volatile TFLiteObjectDetectionAPIModel detector;
+    // the model reads exactly TF_OD_API_INPUT_SIZE x TF_OD_API_INPUT_SIZE pixels
+    private final Bitmap mInput = Bitmap.createBitmap(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, Bitmap.Config.ARGB_8888);
+    private final Canvas mInputCanvas = new Canvas(mInput);
+    private final Rect mInputRect = new Rect(0, 0, TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE);
+    private CameraImagePreprocessor mPreprocessor;
+    private final DetectionTracker mTracker = new DetectionTracker();
+    private volatile float mThreshold = 0.5f;
+    private volatile int mRotation = 0;
+    private int mNumThreads = 4;
+    private Thread mDetectThread;
+    // guarded by mLock, tells the detection thread of a previous start() to leave
+    private int mGeneration = 0;
+
+    private final Object mLock = new Object();
+    // guarded by mLock
+    private boolean mRunning = false;
+    private final ArrayDeque<ByteBuffer> mFreeInputs = new ArrayDeque<>();
+    private ByteBuffer mReadyInput = null;
+    private long mReadyTime;
+    private long mFrames = 0;
+    private long mDropped = 0;
+    private long mDetections = 0;
+    private long mPreprocessTotal = 0;
+    private long mInferenceTotal = 0;
+    private long mLatencyTotal = 0;
+    private long mWindowStart = 0;
+    private int mWindowFrames = 0;
+    private float mFps = 0;
+    private int mTracks = 0;
+    // results waiting for the script
+    private List<ReturnObject> mPendingResult = null;
+    private String mPendingText = null;
+    private boolean mResultPosted = false;
+
+    private final Runnable mDeliverResult = this::deliverResult;
 
     DetectImage(AppRunner appRunner) {
         mAppRunner = appRunner;
+        mHandler = new Handler(appRunner.getScriptLooper());
     }
 
     public void start() {
-        int cropSize = TF_OD_API_INPUT_SIZE;
+        // the lock is held while the model loads so a second start() waits and then does nothing
+        synchronized (mLock) {
+            if (mRunning) return;
 
-        try {
-            detector = TFLiteObjectDetectionAPIModel.create(
-                    mAppRunner.getAppContext().getAssets(),
-                    TF_OD_API_MODEL_FILE,
-                    TF_OD_API_LABELS_FILE,
-                    TF_OD_API_INPUT_SIZE,
-                    TF_OD_API_IS_QUANTIZED
+            TFLiteObjectDetectionAPIModel model;
+            try {
+                model = TFLiteObjectDetectionAPIModel.create(
+                        mAppRunner.getAppContext().getAssets(),
+                        TF_OD_API_MODEL_FILE,
+                        TF_OD_API_LABELS_FILE,
+                        TF_OD_API_INPUT_SIZE,
+                        TF_OD_API_IS_QUANTIZED
+                );
+            } catch (final IOException e) {
+                e.printStackTrace();
+                MLog.e(e.toString(), "Exception initializing classifier!");
+                return;
+            }
+            model.setNumThreads(mNumThreads);
+
+            mPreprocessor = new CameraImagePreprocessor(
+                    model.getInputSize(),
+                    model.isQuantized(),
+                    TFLiteObjectDetectionAPIModel.IMAGE_MEAN,
+                    TFLiteObjectDetectionAPIModel.IMAGE_STD
             );
-        } catch (final IOException e) {
-            e.printStackTrace();
-            MLog.e(e.toString(), "Exception initializing classifier!");
+
+            mFreeInputs.clear();
+            for (int i = 0; i < INPUT_BUFFERS; i++) mFreeInputs.addLast(model.allocateInput());
+            mReadyInput = null;
+            mWindowStart = System.nanoTime();
+            mTracker.clear();
+            mRunning = true;
+            detector = model;
+
+            int generation = ++mGeneration;
+            mDetectThread = new Thread(() -> detectLoop(model, generation), "PhonkDetectImage");
+            mDetectThread.start();
         }
     }
 
+    /**
+     * Interpreter threads used by the model, applied the next time it is loaded with start()
+     */
+    public DetectImage threads(int threads) {
+        mNumThreads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Minimum confidence of a detection
+     */
+    public DetectImage threshold(float threshold) {
+        mThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Weight (0 - 1] of a new detection in the box and confidence of its track, 1 is no smoothing
+     */
+    public DetectImage smoothing(float weight) {
+        mTracker.smoothing(weight);
+        return this;
+    }
+
+    /**
+     * A track is reported after minHits detections and kept until it is missed maxMisses frames in a row
+     */
+    public DetectImage tracking(int minHits, int maxMisses) {
+        mTracker.tracking(minHits, maxMisses);
+        return this;
+    }
+
+    /**
+     * Clockwise rotation (0, 90, 180 or 270) applied to the camera frames before the model sees them
+     */
+    public DetectImage rotation(int degrees) {
+        mRotation = ((degrees % 360) + 360) % 360 / 90 * 90;
+        return this;
+    }
+
+    /**
+     * First stage for a NV21 camera frame, the centered square is prepared on the calling thread.
+     * Frames should come from a single thread
+     */
+    public void detectFrame(byte[] nv21, int width, int height) {
+        long start = System.nanoTime();
+        ByteBuffer input = takeInput();
+        if (input == null) return;
+
+        mPreprocessor.process(nv21, width, height, mRotation, input);
+        submit(input, start);
+    }
+
+    /**
+     * First stage for a bitmap, it is scaled to the model input on the calling thread
+     */
     public void detect(Bitmap bitmap) {
-        // ImageUtils.saveBitmap(bitmap, "potato.png");
+        long start = System.nanoTime();
+        TFLiteObjectDetectionAPIModel model = detector;
+        ByteBuffer input = takeInput();
+        if (model == null || input == null) return;
+
+        Bitmap scaled = bitmap;
+        if (bitmap.getWidth() != TF_OD_API_INPUT_SIZE || bitmap.getHeight() != TF_OD_API_INPUT_SIZE) {
+            mInputCanvas.drawBitmap(bitmap, null, mInputRect, null);
+            scaled = mInput;
+        }
+
+        model.preprocess(scaled, input);
+        submit(input, start);
+    }
+
+    private ByteBuffer takeInput() {
+        synchronized (mLock) {
+            if (!mRunning) return null;
+            mFrames++;
+
+            ByteBuffer input = mFreeInputs.pollFirst();
+            if (input == null && mReadyInput != null) {
+                // the waiting frame is already older than this one
+                input = mReadyInput;
+                mReadyInput = null;
+                mDropped++;
+            }
+            return input;
+        }
+    }
+
+    private void submit(ByteBuffer input, long start) {
+        synchronized (mLock) {
+            if (!mRunning) return;
+
+            if (mReadyInput != null) {
+                mFreeInputs.addLast(mReadyInput);
+                mDropped++;
+            }
+            mReadyInput = input;
+            mReadyTime = start;
+            mPreprocessTotal += System.nanoTime() - start;
+            mLock.notifyAll();
+        }
+    }
+
+    private void detectLoop(TFLiteObjectDetectionAPIModel model, int generation) {
+        try {
+            detectFrames(model, generation);
+        } finally {
+            // the model is closed here, where nothing else can be inside it
+            model.close();
+        }
+    }
+
+    private void detectFrames(TFLiteObjectDetectionAPIModel model, int generation) {
+        while (true) {
+            ByteBuffer input;
+            long arrived;
+
+            synchronized (mLock) {
+                try {
+                    while (mRunning && generation == mGeneration && mReadyInput == null) mLock.wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!mRunning || generation != mGeneration) return;
+
+                input = mReadyInput;
+                arrived = mReadyTime;
+                mReadyInput = null;
+            }
+
+            long start = System.nanoTime();
+            List<Classifier.Recognition> results = null;
+            try {
+                results = model.recognize(input);
+            } catch (RuntimeException e) {
+                MLog.e(TAG, "cannot detect: " + e.toString());
+            }
+            long done = System.nanoTime();
 
-        final List<Classifier.Recognition> results = detector.recognizeImage(bitmap);
-        for (Classifier.Recognition result : results) {
-            if (result.getConfidence() > 0.5) {
-                MLog.d("recognition", result.getId() + " " + " " + result.getTitle() + " " + result.getConfidence());
+            synchronized (mLock) {
+                if (generation != mGeneration) return;
+                mFreeInputs.addLast(input);
+            }
+            if (results == null) continue;
+
+            publish(mTracker.update(results, mThreshold));
+
+            synchronized (mLock) {
+                mDetections++;
+                mInferenceTotal += done - start;
+                mLatencyTotal += System.nanoTime() - arrived;
+                mTracks = mTracker.size();
+
+                mWindowFrames++;
+                if (done - mWindowStart >= FPS_WINDOW_NS) {
+                    mFps = mWindowFrames * 1e9f / (done - mWindowStart);
+                    mWindowFrames = 0;
+                    mWindowStart = done;
+                }
+            }
+        }
+    }
+
+    private void publish(List<DetectionTracker.Track> tracks) {
+        float size = TF_OD_API_INPUT_SIZE;
+
+        List<ReturnObject> objects = new ArrayList<>(tracks.size());
+        StringBuilder text = new StringBuilder();
+        for (DetectionTracker.Track track : tracks) {
+            ReturnObject o = new ReturnObject();
+            o.put("id", track.id);
+            o.put("title", track.title);
+            o.put("confidence", track.confidence);
+            // normalized to the square the model sees
+            o.put("x", track.box.left / size);
+            o.put("y", track.box.top / size);
+            o.put("width", track.box.width() / size);
+            o.put("height", track.box.height() / size);
+            objects.add(o);
+
+            text.append(track.title).append(" ").append(track.confidence).append('\n');
+        }
+
+        // the script only gets the newest result if it falls behind
+        synchronized (mLock) {
+            mPendingResult = objects;
+            mPendingText = text.toString();
+            if (!mResultPosted) {
+                mResultPosted = true;
+                mHandler.post(mDeliverResult);
+            }
+        }
+    }
+
+    private void deliverResult() {
+        List<ReturnObject> objects;
+        String text;
+        synchronized (mLock) {
+            objects = mPendingResult;
+            text = mPendingText;
+            mPendingResult = null;
+            mPendingText = null;
+            mResultPosted = false;
+        }
+        if (objects == null) return;
+
+        if (mDetectedCallback != null) {
+            PhonkNativeArray array = new PhonkNativeArray(objects.size());
+            for (int i = 0; i < objects.size(); i++) array.addPE(i, objects.get(i));
+
+            ReturnObject ret = new ReturnObject();
+            ret.put("objects", array);
+            mDetectedCallback.event(ret);
+        }
+        if (mCallback != null) mCallback.event(text);
+    }
+
+    public ReturnObject stats() {
+        ReturnObject ret = new ReturnObject();
+        synchronized (mLock) {
+            ret.put("frames", mFrames);
+            ret.put("dropped", mDropped);
+            ret.put("detections", mDetections);
+            ret.put("fps", mFps);
+            ret.put("preprocessMs", mFrames == 0 ? 0 : mPreprocessTotal / (double) mFrames / 1e6);
+            ret.put("inferenceMs", mDetections == 0 ? 0 : mInferenceTotal / (double) mDetections / 1e6);
+            ret.put("latencyMs", mDetections == 0 ? 0 : mLatencyTotal / (double) mDetections / 1e6);
+            ret.put("tracks", mTracks);
+        }
+        return ret;
+    }
+
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            if (!mRunning) return;
+            mRunning = false;
+            mReadyInput = null;
+            mFreeInputs.clear();
+            mPendingResult = null;
+            mPendingText = null;
+            mGeneration++;
+            mLock.notifyAll();
+            thread = mDetectThread;
+            mDetectThread = null;
+            detector = null;
+        }
+        mHandler.removeCallbacks(mDeliverResult);
+
+        // the detection thread closes the model on its way out, here we only give it some time to do it
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
     }
@@ -79,6 +412,13 @@ public class DetectImage {
         this.mCallback = callback;
     }
 
+    /**
+     * Gets { objects: [{ id, title, confidence, x, y, width, height }] } with the tracked objects
+     */
+    public void onDetected(ReturnInterface callback) {
+        this.mDetectedCallback = callback;
+    }
+
     public interface Callback {
         void event(String p);
     }
@@ -0,0 +1,147 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.apprunner.api.media;
+
+import android.graphics.RectF;
+
+import org.tensorflow.lite.examples.detection.tflite.Classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps detections steady across frames. A detection continues the track with the same title it
+ * overlaps the most, the box and confidence of a track follow its detections with an exponential
+ * moving average, and a track is only reported after being seen a few times and until it is missed
+ * a few frames in a row
+ */
+class DetectionTracker {
+    private static final float MIN_OVERLAP = 0.3f;
+
+    private final ArrayList<Track> mTracks = new ArrayList<>();
+    private final ArrayList<Track> mVisible = new ArrayList<>();
+    private volatile float mSmoothing = 0.5f;
+    private volatile int mMinHits = 2;
+    private volatile int mMaxMisses = 3;
+    private int mNextId = 0;
+
+    /**
+     * Weight of the newest detection, 1 follows the detections without smoothing
+     */
+    void smoothing(float weight) {
+        mSmoothing = Math.max(0.01f, Math.min(1, weight));
+    }
+
+    void tracking(int minHits, int maxMisses) {
+        mMinHits = Math.max(1, minHits);
+        mMaxMisses = Math.max(0, maxMisses);
+    }
+
+    /**
+     * Returns the tracks to report, the list is reused on the next update
+     */
+    List<Track> update(List<Classifier.Recognition> detections, float threshold) {
+        float weight = mSmoothing;
+
+        for (Track track : mTracks) track.matched = false;
+
+        for (Classifier.Recognition detection : detections) {
+            if (detection.getConfidence() == null || detection.getConfidence() < threshold) continue;
+            RectF box = detection.getLocation();
+
+            Track best = null;
+            float bestOverlap = MIN_OVERLAP;
+            for (Track track : mTracks) {
+                if (track.matched || !track.title.equals(detection.getTitle())) continue;
+                float overlap = overlap(track.box, box);
+                if (overlap >= bestOverlap) {
+                    best = track;
+                    bestOverlap = overlap;
+                }
+            }
+
+            if (best == null) {
+                best = new Track(mNextId++, detection.getTitle());
+                best.box.set(box);
+                best.confidence = detection.getConfidence();
+                mTracks.add(best);
+            } else {
+                best.box.left += weight * (box.left - best.box.left);
+                best.box.top += weight * (box.top - best.box.top);
+                best.box.right += weight * (box.right - best.box.right);
+                best.box.bottom += weight * (box.bottom - best.box.bottom);
+                best.confidence += weight * (detection.getConfidence() - best.confidence);
+            }
+            best.hits++;
+            best.misses = 0;
+            best.matched = true;
+        }
+
+        mVisible.clear();
+        int maxMisses = mMaxMisses;
+        int minHits = mMinHits;
+        for (int i = mTracks.size() - 1; i >= 0; i--) {
+            Track track = mTracks.get(i);
+            if (!track.matched && ++track.misses > maxMisses) {
+                mTracks.remove(i);
+                continue;
+            }
+            if (track.hits >= minHits) mVisible.add(track);
+        }
+
+        return mVisible;
+    }
+
+    int size() {
+        return mTracks.size();
+    }
+
+    void clear() {
+        mTracks.clear();
+        mVisible.clear();
+    }
+
+    private static float overlap(RectF a, RectF b) {
+        float width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+        float height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+        if (width <= 0 || height <= 0) return 0;
+
+        float intersection = width * height;
+        float union = a.width() * a.height() + b.width() * b.height() - intersection;
+        return union <= 0 ? 0 : intersection / union;
+    }
+
+    static class Track {
+        final int id;
+        final String title;
+        final RectF box = new RectF();
+        float confidence;
+        int hits = 0;
+        int misses = 0;
+        boolean matched = false;
+
+        Track(int id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+    }
+}
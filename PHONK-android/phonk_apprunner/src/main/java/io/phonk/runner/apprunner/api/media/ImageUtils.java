@@ -60,7 +60,36 @@ public class ImageUtils {
         }
     }
 
-    private static int yuv2Rgb(int y, int u, int v) {
+    /**
+     * Same as {@link #convertYUV420SPToARGB8888(byte[], int, int, int[])} but only converting every
+     * step-th pixel of every step-th row, output is (width / step) x (height / step)
+     */
+    public static void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output, int step) {
+        if (step <= 1) {
+            convertYUV420SPToARGB8888(input, width, height, output);
+            return;
+        }
+
+        final int frameSize = width * height;
+        final int outWidth = width / step;
+        final int outHeight = height / step;
+        int op = 0;
+        for (int oj = 0; oj < outHeight; oj++) {
+            int j = oj * step;
+            int yRow = j * width;
+            int uvRow = frameSize + (j >> 1) * width;
+
+            for (int oi = 0, i = 0; oi < outWidth; oi++, i += step) {
+                int uvp = uvRow + (i & ~1);
+                int v = 0xff & input[uvp];
+                int u = 0xff & input[uvp + 1];
+
+                output[op++] = yuv2Rgb(0xff & input[yRow + i], u, v);
+            }
+        }
+    }
+
+    static int yuv2Rgb(int y, int u, int v) {
         // Adjust and check YUV values
         y = (y - 16) < 0 ? 0 : (y - 16);
         u -= 128;
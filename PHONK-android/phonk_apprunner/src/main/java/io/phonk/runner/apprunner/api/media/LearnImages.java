@@ -23,219 +23,355 @@
 
 package io.phonk.runner.apprunner.api.media;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.hardware.Camera;
 import android.os.Handler;
-import android.os.Looper;
 
 import org.tensorflow.lite.examples.transfer.api.TransferLearningModel;
 
-import java.io.ByteArrayOutputStream;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
 import io.phonk.runner.base.utils.LoggingBenchmark;
 import io.phonk.runner.base.utils.MLog;
 
+/**
+ * Learns and classifies camera frames with a {@link TransferLearningModelWrapper}.
+ * <p>
+ * Frames are handed to a few worker threads that sleep while there is nothing to do. Only the newest
+ * camera frame waits for a prediction, an older one is dropped, and frames to learn go first
+ */
 public class LearnImages {
 
     private static final String TAG = LearnImages.class.getSimpleName();
-    public final Handler mHandler = new Handler(Looper.getMainLooper());
+    private static final int MAX_LEARN_FRAMES = 16;
+    private static final long STOP_TIMEOUT_MS = 500;
+    public final Handler mHandler;
     private final AppRunner mAppRunner;
+    private final LoggingBenchmark mInferenceBenchmark = new LoggingBenchmark("InferenceBench");
+    private final Object mLock = new Object();
     // When the user presses the "add sample" button for some class,
     // that class will be added to this queue. It is later extracted by
-    // InferenceThread and processed.
-    private final ConcurrentLinkedQueue<Frame> mLearnFrames = new ConcurrentLinkedQueue<>();
-    private final ConcurrentLinkedQueue<Frame> mCameraFrames = new ConcurrentLinkedQueue<>();
-    private final LoggingBenchmark mInferenceBenchmark = new LoggingBenchmark("InferenceBench");
+    // the workers and processed.
+    private final ArrayDeque<Frame> mLearnFrames = new ArrayDeque<>();
+    // the newest camera frame waiting to be predicted
+    private Frame mLatestFrame = null;
+    private final ArrayDeque<byte[]> mFreeBuffers = new ArrayDeque<>();
+    private final ArrayList<Thread> mWorkers = new ArrayList<>();
     Callback mCallback = null;
-    private TransferLearningModelWrapper mTlModel;
+    private volatile TransferLearningModelWrapper mTlModel;
     private boolean mIsAnalyzerRunning = false;
+    // model and workers of the current start(), null when stopped
+    private Session mSession = null;
     private String mNextFrameCategory = null;
+    private int mThreads = 1;
+    private volatile int mRotation = 0;
+    private File mPersistFolder = null;
+    private int mCheckpointEveryBatches = 10;
+    private long mMinIntervalNs = 0;
+    private long mNextPrediction = 0;
+    private long mFrameId = 0;
+    private long mFrames = 0;
+    private long mDropped = 0;
+    private long mPredictions = 0;
+    private long mSamples = 0;
 
     LearnImages(AppRunner appRunner) {
         mAppRunner = appRunner;
+        mHandler = new Handler(appRunner.getScriptLooper());
     }
 
     public void learnFrameAsCategory(String className) {
-        mNextFrameCategory = className;
-    }
-
-    public void addCameraFrame(byte[] data, Camera camera) {
-        Frame f = new Frame(data, camera, "-1");
-
-        // if there is a frame to learn we add it to the queue and return inmediately
-        if (mNextFrameCategory != null) {
-            f.category = mNextFrameCategory;
-            mLearnFrames.add(f);
-            mNextFrameCategory = null;
-            return;
+        synchronized (mLock) {
+            mNextFrameCategory = className;
         }
+    }
 
-        MLog.d(TAG, "mCameraFramesSize: " + mCameraFrames.size());
-        if (mCameraFrames.size() < 10) {
-            MLog.d(TAG, "add frame");
-            mCameraFrames.add(f);
-        } else {
-            MLog.d(TAG, "drop frame");
-            mCameraFrames.poll();
+    /**
+     * Maximum number of predictions per second, 0 predicts as fast as the model goes
+     */
+    public LearnImages rate(float predictionsPerSecond) {
+        synchronized (mLock) {
+            mMinIntervalNs = predictionsPerSecond <= 0 ? 0 : (long) (1e9 / predictionsPerSecond);
         }
+        return this;
     }
 
-    public void start() {
-        mTlModel = new TransferLearningModelWrapper(mAppRunner.getAppContext());
-        mIsAnalyzerRunning = true;
+    /**
+     * Number of worker threads, applied on start. The model predicts one frame at a time, more threads
+     * only overlap the preprocessing
+     */
+    public LearnImages threads(int threads) {
+        mThreads = Math.max(1, threads);
+        return this;
+    }
 
-        Thread t1 = new Thread(() -> {
-            while (mIsAnalyzerRunning) {
-                inferenceAnalyzer();
-            }
-        });
-        t1.start();
+    /**
+     * Clockwise rotation (0, 90, 180 or 270) applied to the frames before the model sees them
+     */
+    public LearnImages rotation(int degrees) {
+        mRotation = ((degrees % 360) + 360) % 360 / 90 * 90;
+        return this;
     }
 
-    public void inferenceAnalyzer() {
-        MLog.d(TAG, "analyzing");
+    /**
+     * Time every stage, logging each frame when log is true. The averages go to stats()
+     */
+    public LearnImages benchmark(boolean enabled, boolean log) {
+        mInferenceBenchmark.setEnabled(enabled, log);
+        return this;
+    }
 
-        // Learn frames size
-        Frame learnFrame = mLearnFrames.poll();
-        if (learnFrame != null) {
-            MLog.d(TAG, "learning... " + learnFrame.category + " / " + mLearnFrames.size());
+    public ReturnObject stats() {
+        ReturnObject ret = new ReturnObject();
+        synchronized (mLock) {
+            ret.put("frames", mFrames);
+            ret.put("dropped", mDropped);
+            ret.put("predictions", mPredictions);
+            ret.put("samples", mSamples);
+        }
+        TransferLearningModelWrapper model = mTlModel;
+        if (model != null) ret.put("storedSamples", model.getNumberSamples());
 
-            // mInferenceBenchmark.startStage(imageId, "addSample");
-            try {
-                mTlModel.addSample(getRGBFromFrame(learnFrame), learnFrame.category).get();
-            } catch (ExecutionException e) {
-                throw new RuntimeException("Failed to add sample to model", e.getCause());
-            } catch (InterruptedException e) {
-                // no-op
-            }
-            // mInferenceBenchmark.endStage(imageId, "addSample");
+        ReturnObject stages = new ReturnObject();
+        for (Map.Entry<String, Double> entry : mInferenceBenchmark.averages().entrySet()) {
+            stages.put(entry.getKey(), entry.getValue());
         }
+        ret.put("stagesMs", stages);
 
-        // predict
-        Frame cameraFrame = mCameraFrames.poll();
-        if (cameraFrame != null) {
-            MLog.d(TAG, "predicting... " + mCameraFrames.size() + " / " + mTlModel.getTrainBatchSize());
-            // We don't perform inference when adding samples, since we should be in capture mode
-            // at the time, so the inference results are not actually displayed.
-            // mInferenceBenchmark.startStage(imageId, "predict");
-            TransferLearningModel.Prediction[] predictions = mTlModel.predict(getRGBFromFrame(cameraFrame));
-            if (predictions == null) return;
-            // mInferenceBenchmark.endStage(imageId, "predict");
-
-            StringBuilder p = new StringBuilder();
-            for (TransferLearningModel.Prediction prediction : predictions) {
-                MLog.d(TAG, prediction.getClassName() + " " + prediction.getConfidence());
-                p.append(prediction.getClassName()).append(" ").append(prediction.getConfidence()).append('\n');
+        return ret;
+    }
+
+    public void addCameraFrame(byte[] data, Camera camera) {
+        Camera.Size size = camera.getParameters().getPreviewSize();
+        addCameraFrame(data, size.width, size.height);
+    }
+
+    /**
+     * Takes a NV21 frame, the data is copied so the caller can reuse it
+     */
+    public void addCameraFrame(byte[] data, int width, int height) {
+        synchronized (mLock) {
+            if (!mIsAnalyzerRunning) return;
+            mFrames++;
+
+            Frame f = new Frame(copyFrame(data), width, height, mFrameId++);
+
+            // if there is a frame to learn we queue it, otherwise it replaces the one waiting
+            if (mNextFrameCategory != null) {
+                f.category = mNextFrameCategory;
+                mNextFrameCategory = null;
+                if (mLearnFrames.size() >= MAX_LEARN_FRAMES) {
+                    recycle(mLearnFrames.pollFirst());
+                    mDropped++;
+                }
+                mLearnFrames.addLast(f);
+            } else {
+                if (mLatestFrame != null) {
+                    recycle(mLatestFrame);
+                    mDropped++;
+                }
+                mLatestFrame = f;
             }
 
-            String finalP = p.toString();
-            mHandler.post(() -> mCallback.event(finalP));
+            mLock.notify();
         }
+    }
 
-        // mInferenceBenchmark.finish(imageId);
+    private byte[] copyFrame(byte[] data) {
+        byte[] copy = mFreeBuffers.pollFirst();
+        if (copy == null || copy.length != data.length) copy = new byte[data.length];
+        System.arraycopy(data, 0, copy, 0, data.length);
+        return copy;
     }
 
-    private float[] getRGBFromFrame(Frame f) {
-        final String imageId = UUID.randomUUID().toString();
-        // mInferenceBenchmark.startStage(imageId, "preprocess");
-        Bitmap bmp = cameraDataToBmp(f.data, f.camera);
-        float[] rgbImage = prepareCameraImage(bmp, 0);
-        // mInferenceBenchmark.endStage(imageId, "preprocess");
-        bmp.recycle();
+    private void recycle(Frame f) {
+        if (mFreeBuffers.size() < mThreads + 2) mFreeBuffers.addLast(f.data);
+    }
 
-        return rgbImage;
+    /**
+     * Keeps the learned samples and the training progress in a project folder, so they survive restarts.
+     * Call before start()
+     */
+    public LearnImages persist(String folder, int checkpointEveryBatches) {
+        mPersistFolder = new File(mAppRunner.getProject().getFullPathForFile(folder));
+        mCheckpointEveryBatches = checkpointEveryBatches;
+        return this;
+    }
+
+    public void start() {
+        // the lock is held while the model loads so a second start() waits and then does nothing
+        synchronized (mLock) {
+            if (mSession != null) return;
+
+            TransferLearningModelWrapper model = new TransferLearningModelWrapper(mAppRunner.getAppContext());
+            if (mPersistFolder != null) {
+                try {
+                    model.persist(mPersistFolder, mCheckpointEveryBatches);
+                } catch (IOException e) {
+                    MLog.e(TAG, "cannot restore the model from " + mPersistFolder + ": " + e.toString());
+                }
+            }
+
+            Session session = new Session(model, mThreads);
+            mSession = session;
+            mTlModel = model;
+            mIsAnalyzerRunning = true;
+            mNextPrediction = 0;
+
+            for (int i = 0; i < mThreads; i++) {
+                Thread t = new Thread(() -> work(session), "PhonkLearnImages-" + i);
+                mWorkers.add(t);
+                t.start();
+            }
+        }
     }
 
-    private Bitmap cameraDataToBmp(byte[] data, Camera camera) {
-        // transform camera data to bmp
-        Camera.Parameters parameters = camera.getParameters();
-        int width = parameters.getPreviewSize().width;
-        int height = parameters.getPreviewSize().height;
-
-        // get support preview format
-        YuvImage yuv = new YuvImage(data, parameters.getPreviewFormat(), width, height, null);
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        // maybe pass the output to the callbacks and do each compression there?
-        yuv.compressToJpeg(new Rect(0, 0, (int) Math.floor(width * 0.2), (int) Math.floor(height * 0.2)), 100, out);
-        byte[] bytes = out.toByteArray();
-        BitmapFactory.Options bitmap_options = new BitmapFactory.Options();
-        bitmap_options.inPreferredConfig = Bitmap.Config.RGB_565;
-        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, bitmap_options);
+    private void work(Session session) {
+        try {
+            // every worker prepares its frames into its own buffer
+            CameraImagePreprocessor preprocessor = new CameraImagePreprocessor(TransferLearningModelWrapper.IMAGE_SIZE);
+
+            while (true) {
+                Frame frame;
+                synchronized (mLock) {
+                    try {
+                        frame = nextFrame(session);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (frame == null) return;
+
+                try {
+                    inferenceAnalyzer(frame, session.model, preprocessor);
+                } catch (RuntimeException e) {
+                    MLog.e(TAG, "cannot analyze the frame: " + e.toString());
+                } finally {
+                    synchronized (mLock) {
+                        recycle(frame);
+                    }
+                }
+            }
+        } finally {
+            // the last worker out closes the model, stop() does not wait for a worker stuck in the model
+            boolean last;
+            synchronized (mLock) {
+                last = --session.liveWorkers == 0;
+            }
+            if (last) {
+                session.model.disableTraining();
+                session.model.close();
+            }
+        }
     }
 
     /**
-     * Normalizes a camera image to [0; 1], cropping it
-     * to size expected by the model and adjusting for camera rotation.
+     * Waits with mLock held until there is something to do, null when the session is stopped
      */
-    private static float[] prepareCameraImage(Bitmap bitmap, int rotationDegrees) {
-        final int LOWER_BYTE_MASK = 0xFF;
-
-        int modelImageSize = TransferLearningModelWrapper.IMAGE_SIZE;
-
-        Bitmap paddedBitmap = padToSquare(bitmap);
-        Bitmap scaledBitmap = Bitmap.createScaledBitmap(paddedBitmap, modelImageSize, modelImageSize, true);
-
-        Matrix rotationMatrix = new Matrix();
-        rotationMatrix.postRotate(rotationDegrees);
-        Bitmap rotatedBitmap = Bitmap.createBitmap(
-                scaledBitmap,
-                0,
-                0,
-                modelImageSize,
-                modelImageSize,
-                rotationMatrix,
-                false
-        );
-
-        float[] normalizedRgb = new float[modelImageSize * modelImageSize * 3];
-        int nextIdx = 0;
-        for (int y = 0; y < modelImageSize; y++) {
-            for (int x = 0; x < modelImageSize; x++) {
-                int rgb = rotatedBitmap.getPixel(x, y);
-
-                float r = ((rgb >> 16) & LOWER_BYTE_MASK) * (1 / 255.f);
-                float g = ((rgb >> 8) & LOWER_BYTE_MASK) * (1 / 255.f);
-                float b = (rgb & LOWER_BYTE_MASK) * (1 / 255.f);
-
-                normalizedRgb[nextIdx++] = r;
-                normalizedRgb[nextIdx++] = g;
-                normalizedRgb[nextIdx++] = b;
+    private Frame nextFrame(Session session) throws InterruptedException {
+        while (mSession == session) {
+            Frame learnFrame = mLearnFrames.pollFirst();
+            if (learnFrame != null) return learnFrame;
+
+            if (mLatestFrame == null) {
+                mLock.wait();
+                continue;
             }
+
+            long now = System.nanoTime();
+            long wait = mNextPrediction - now;
+            if (wait <= 0) {
+                Frame f = mLatestFrame;
+                mLatestFrame = null;
+                mNextPrediction = now + mMinIntervalNs;
+                return f;
+            }
+            // a newer frame can still replace this one while waiting
+            mLock.wait(wait / 1000000, (int) (wait % 1000000));
         }
 
-        return normalizedRgb;
+        return null;
     }
 
-    private static Bitmap padToSquare(Bitmap source) {
-        int width = source.getWidth();
-        int height = source.getHeight();
-
-        int paddingX = width < height ? (height - width) / 2 : 0;
-        int paddingY = height < width ? (width - height) / 2 : 0;
-        Bitmap paddedBitmap = Bitmap.createBitmap(width + 2 * paddingX, height + 2 * paddingY, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(paddedBitmap);
-        canvas.drawARGB(0xFF, 0xFF, 0xFF, 0xFF);
-        canvas.drawBitmap(source, paddingX, paddingY, null);
-        return paddedBitmap;
+    private void inferenceAnalyzer(Frame frame, TransferLearningModelWrapper model, CameraImagePreprocessor preprocessor) {
+        final String imageId = String.valueOf(frame.id);
+
+        mInferenceBenchmark.startStage(imageId, "preprocess");
+        ByteBuffer rgbImage = preprocessor.process(frame.data, frame.width, frame.height, mRotation);
+        mInferenceBenchmark.endStage(imageId, "preprocess");
+
+        if (frame.category != null) {
+            mInferenceBenchmark.startStage(imageId, "addSample");
+            try {
+                model.addSample(rgbImage, frame.category).get();
+                synchronized (mLock) {
+                    mSamples++;
+                }
+            } catch (ExecutionException e) {
+                MLog.e(TAG, "Failed to add sample to model: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mInferenceBenchmark.endStage(imageId, "addSample");
+        } else {
+            // We don't perform inference when adding samples, since we should be in capture mode
+            // at the time, so the inference results are not actually displayed.
+            mInferenceBenchmark.startStage(imageId, "predict");
+            TransferLearningModel.Prediction[] predictions = model.predict(rgbImage);
+            mInferenceBenchmark.endStage(imageId, "predict");
+
+            if (predictions != null) {
+                synchronized (mLock) {
+                    mPredictions++;
+                }
+
+                StringBuilder p = new StringBuilder();
+                for (TransferLearningModel.Prediction prediction : predictions) {
+                    p.append(prediction.getClassName()).append(" ").append(prediction.getConfidence()).append('\n');
+                }
+
+                String finalP = p.toString();
+                mHandler.post(() -> {
+                    if (mCallback != null) mCallback.event(finalP);
+                });
+            }
+        }
+
+        mInferenceBenchmark.finish(imageId);
     }
 
     public void stop() {
-        disableTraining();
-        mTlModel.close();
-        mTlModel = null;
+        ArrayList<Thread> workers;
+        synchronized (mLock) {
+            if (mSession == null) return;
+            mSession = null;
+            mTlModel = null;
+            mIsAnalyzerRunning = false;
+            mLearnFrames.clear();
+            mLatestFrame = null;
+            mFreeBuffers.clear();
+            workers = new ArrayList<>(mWorkers);
+            mWorkers.clear();
+            mLock.notifyAll();
+        }
 
-        // stop thread
-        mIsAnalyzerRunning = false;
+        // the model is closed by the last worker leaving, here we only give them some time to do it
+        for (Thread t : workers) t.interrupt();
+        for (Thread t : workers) {
+            try {
+                t.join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
     }
 
     public void disableTraining() {
@@ -258,15 +394,29 @@ public class LearnImages {
 
     }
 
+    static class Session {
+        final TransferLearningModelWrapper model;
+        // guarded by mLock
+        int liveWorkers;
+
+        Session(TransferLearningModelWrapper model, int workers) {
+            this.model = model;
+            this.liveWorkers = workers;
+        }
+    }
+
     static class Frame {
         final byte[] data;
-        final Camera camera;
+        final int width;
+        final int height;
+        final long id;
         String category;
 
-        Frame(byte[] data, Camera camera, String category) {
+        Frame(byte[] data, int width, int height, long id) {
             this.data = data;
-            this.camera = camera;
-            this.category = category;
+            this.width = width;
+            this.height = height;
+            this.id = id;
         }
     }
 
@@ -31,6 +31,7 @@ import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.common.ReturnInterface;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
 import io.phonk.runner.apprunner.api.widgets.StylePropertiesProxy;
 import io.phonk.runner.apprunner.api.widgets.Styler;
 import io.phonk.runner.base.gui.CameraTexture;
@@ -45,11 +46,14 @@ public class PCamera extends CameraTexture implements /* PViewMethodsInterface,*
     public Styler styler;
     private LearnImages learnImages = null;
     private DetectImage detectImage = null;
+    private CameraTexture.CallbackData mDetectFrames = null;
+    private CameraTexture.CallbackData mLearnFrames = null;
 
     public PCamera(AppRunner appRunner, String camera) {
         super(appRunner, camera, "color");
         this.mAppRunner = appRunner;
         cam = this;
+        appRunner.whatIsRunning.add(this);
 
         this.addOnReadyCallback(() -> {
             setFocusMode("auto");
@@ -123,6 +127,25 @@ public class PCamera extends CameraTexture implements /* PViewMethodsInterface,*
         cam.addCallbackStream(callbackfn);
     }
 
+    @PhonkMethodParam(params = {"step"})
+    @PhonkMethod(description = "Bitmap frames only convert every n-th pixel on each axis, 2 gives a quarter of the pixels", example = "")
+    public PCamera frameStep(int step) {
+        setFrameStep(step);
+        return this;
+    }
+
+    @PhonkMethodParam(params = {"quality"})
+    @PhonkMethod(description = "JPEG quality (0-100) of the base64 frames", example = "")
+    public PCamera frameQuality(int quality) {
+        setJpegQuality(quality);
+        return this;
+    }
+
+    @PhonkMethod(description = "Returns the frames received, delivered and dropped, the fps and the average latency and conversion time in ms", example = "")
+    public ReturnObject frameStats() {
+        return getFrameStats();
+    }
+
     public List<Camera.Size> getSizes() {
         return mParameters.getSupportedPictureSizes();
     }
@@ -148,7 +171,11 @@ public class PCamera extends CameraTexture implements /* PViewMethodsInterface,*
     public void startLearning(LearnImages.Callback callback) {
         learnImages.start();
         learnImages.addCallback(callback);
-        cam.addCallbackData((data, camera) -> learnImages.addCameraFrame(data, camera));
+        // calling it again only replaces the callback, each frame is learned once
+        if (mLearnFrames == null) {
+            mLearnFrames = (data, camera) -> learnImages.addCameraFrame(data, getFrameWidth(), getFrameHeight());
+            cam.addCallbackDataOnWorker(mLearnFrames);
+        }
 
         /*
         new CallbackBmp() {
@@ -161,9 +188,36 @@ public class PCamera extends CameraTexture implements /* PViewMethodsInterface,*
          */
     }
 
+    @PhonkMethodParam(params = {"function(objects)"})
+    @PhonkMethod(description = "Detects objects in the frames, the results come through detectImage().onDetected(...) and the callback", example = "")
     public void startDetecting(DetectImage.Callback callback) {
-        cam.addCallbackBmp(bmp -> detectImage.detect(bmp));
+        if (callback != null) detectImage.addCallback(callback::event);
         detectImage.start();
+        // the frame worker prepares the next frame while the detection thread runs the model
+        if (mDetectFrames == null) {
+            mDetectFrames = (data, camera) -> detectImage.detectFrame(data, getFrameWidth(), getFrameHeight());
+            cam.addCallbackDataOnWorker(mDetectFrames);
+        }
+    }
+
+    @Override
+    protected void stopCamera() {
+        super.stopCamera();
+        if (mDetectFrames != null) {
+            cam.removeCallbackDataOnWorker(mDetectFrames);
+            mDetectFrames = null;
+        }
+        if (detectImage != null) detectImage.stop();
+        if (mLearnFrames != null) {
+            cam.removeCallbackDataOnWorker(mLearnFrames);
+            mLearnFrames = null;
+        }
+        if (learnImages != null) learnImages.stop();
+    }
+
+    // the learning and detection workers and their models must not outlive the script
+    public void __stop() {
+        stopCamera();
     }
 
     public LearnImages learnImages() {
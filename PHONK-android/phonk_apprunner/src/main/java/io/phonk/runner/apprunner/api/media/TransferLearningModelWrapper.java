@@ -31,6 +31,9 @@ import org.tensorflow.lite.examples.transfer.api.TransferLearningModel.LossConsu
 import org.tensorflow.lite.examples.transfer.api.TransferLearningModel.Prediction;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -74,11 +77,37 @@ public class TransferLearningModelWrapper implements Closeable {
         return model.addSample(image, className);
     }
 
+    // This method is thread-safe, the buffer must not change until the Future resolves.
+    public Future<Void> addSample(ByteBuffer image, String className) {
+        return model.addSample(image, className);
+    }
+
     // This method is thread-safe, but blocking.
     public Prediction[] predict(float[] image) {
         return model.predict(image);
     }
 
+    // This method is thread-safe, but blocking.
+    public Prediction[] predict(ByteBuffer image) {
+        return model.predict(image);
+    }
+
+    /**
+     * Keeps the samples in folder/samples and checkpoints the training to folder/checkpoint, resuming
+     * from what is already there
+     */
+    public void persist(File folder, int checkpointEveryBatches) throws IOException {
+        model.attachBottleneckStore(new File(folder, "samples"));
+
+        File checkpoint = new File(folder, "checkpoint");
+        model.loadCheckpoint(checkpoint);
+        model.enableCheckpoints(checkpoint, checkpointEveryBatches);
+    }
+
+    public void saveCheckpoint(File file) throws IOException {
+        model.saveCheckpoint(file);
+    }
+
     public int getTrainBatchSize() {
         return model.getTrainBatchSize();
     }
@@ -29,7 +29,6 @@ import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Handler;
-import android.os.Looper;
 
 import io.phonk.runner.apidoc.annotation.PhonkClass;
 import io.phonk.runner.apprunner.AppRunner;
@@ -94,7 +93,7 @@ public class PBluetoothLE extends ProtoBase {
 
         mBleAdapter = ((BluetoothManager) mContext.getSystemService(Context.BLUETOOTH_SERVICE)).getAdapter();
         mAppRunner.whatIsRunning.add(this);
-        mHandler = new Handler(Looper.getMainLooper());
+        mHandler = new Handler(appRunner.getScriptLooper());
 
         return this;
     }
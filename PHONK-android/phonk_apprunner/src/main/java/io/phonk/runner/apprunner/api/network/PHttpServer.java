@@ -31,6 +31,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.NanoHTTPD.Response.Status;
@@ -40,6 +42,7 @@ import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.common.ReturnInterfaceWithReturn;
 import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.interpreter.ScriptThread;
 import io.phonk.runner.base.models.Project;
 import io.phonk.runner.base.network.NetworkUtils;
 import io.phonk.runner.base.utils.MLog;
@@ -144,6 +147,30 @@ public class PHttpServer extends NanoHTTPD {
 
     @PhonkMethod(description = "Serves a file", example = "")
     @PhonkMethodParam(params = {"uri", "header"})
+    // the request thread waits for the script thread to answer, the script scope can't be used from here
+    private Object respond(final ReturnObject ret) {
+        ScriptThread scriptThread = mAppRunner.getScriptThread();
+        if (scriptThread == null) return mCallback.event(ret);
+
+        final Object[] res = new Object[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        scriptThread.post(() -> {
+            try {
+                res[0] = mCallback.event(ret);
+            } finally {
+                done.countDown();
+            }
+        });
+
+        try {
+            if (!done.await(30, TimeUnit.SECONDS)) MLog.e(TAG, "the script didn't answer in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return res[0];
+    }
+
     @Override
     public Response serve(IHTTPSession session) {
         if (mCallback == null) return null;
@@ -163,7 +190,7 @@ public class PHttpServer extends NanoHTTPD {
         ret.put("header", session.getHeaders());
         ret.put("params", session.getParameters());
         ret.put("files", files);
-        Response res = (Response) mCallback.event(ret);
+        Response res = (Response) respond(ret);
 
         if (res == null) MLog.d(TAG, "2 is null");
         // MLog.d(TAG, "response: " + res);
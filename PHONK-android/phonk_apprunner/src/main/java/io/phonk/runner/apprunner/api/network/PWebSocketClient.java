@@ -23,7 +23,6 @@
 package io.phonk.runner.apprunner.api.network;
 
 import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 
 import org.java_websocket.client.WebSocketClient;
@@ -31,9 +30,12 @@ import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import io.phonk.runner.apidoc.annotation.PhonkClass;
 import io.phonk.runner.apidoc.annotation.PhonkMethod;
+import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.ProtoBase;
 import io.phonk.runner.apprunner.api.common.ReturnInterface;
@@ -43,17 +45,23 @@ import io.phonk.runner.apprunner.api.common.ReturnObject;
 public class PWebSocketClient extends ProtoBase {
     private static final String TAG = PWebSocketClient.class.getSimpleName();
 
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
     private WebSocketClient mWebSocketClient = null;
     private boolean mIsConnected = false;
-    private ReturnInterface mCallbackNewData;
+    private final WebSocketInbox mInbox;
     private ReturnInterface mCallbackConnect;
     private ReturnInterface mCallbackDisconnect;
     private ReturnInterface mCallbackError;
     private ReturnInterface mCallbackStatus;
 
+    // data waiting to be written, over the limit new messages are dropped
+    private long mMaxQueuedBytes = 16 * 1024 * 1024;
+    private ByteBuffer mFloats = ByteBuffer.allocate(0);
+    private long mSent = 0;
+    private long mDropped = 0;
+
     public PWebSocketClient(AppRunner appRunner, String uri) {
         super(appRunner);
+        mInbox = new WebSocketInbox(mHandler);
 
         try {
             mWebSocketClient = new WebSocketClient(new URI(uri)) {
@@ -73,18 +81,29 @@ public class PWebSocketClient extends ProtoBase {
 
                 @Override
                 public void onMessage(final String arg0) {
-                    mHandler.post(() -> {
-                        ReturnObject o = new ReturnObject();
-                        o.put("status", "message");
-                        o.put("data", arg0);
-                        if (mCallbackNewData != null) mCallbackNewData.event(o);
-                    });
+                    ReturnObject o = new ReturnObject();
+                    o.put("status", "message");
+                    o.put("data", arg0);
+                    mInbox.push(o);
 
                     //Log.d(TAG, "onMessage client");
                 }
 
+                @Override
+                public void onMessage(final ByteBuffer arg0) {
+                    byte[] data = new byte[arg0.remaining()];
+                    arg0.get(data);
+
+                    ReturnObject o = new ReturnObject();
+                    o.put("status", "message");
+                    o.put("data", data);
+                    o.put("binary", true);
+                    mInbox.push(o);
+                }
+
                 @Override
                 public void onClose(int arg0, String arg1, boolean arg2) {
+                    mIsConnected = false;
 
                     mHandler.post(() -> {
                         ReturnObject o = new ReturnObject();
@@ -178,26 +197,87 @@ public class PWebSocketClient extends ProtoBase {
      */
     @PhonkMethod
     public PWebSocketClient onNewData(final ReturnInterface callback) {
-        mCallbackNewData = callback;
+        mInbox.setCallback(callback);
 
         return this;
     }
 
     @PhonkMethod
     public PWebSocketClient send(String msg) {
-        if (mIsConnected) {
+        if (canSend()) {
             mWebSocketClient.send(msg);
+            mSent++;
         }
 
         return this;
     }
 
+    @PhonkMethod(description = "Sends binary data", example = "")
+    @PhonkMethodParam(params = {"data"})
+    public PWebSocketClient send(byte[] data) {
+        if (canSend()) {
+            mWebSocketClient.send(data);
+            mSent++;
+        }
+
+        return this;
+    }
+
+    @PhonkMethod(description = "Sends an array of numbers as binary little endian float32", example = "")
+    @PhonkMethodParam(params = {"values[]"})
+    public PWebSocketClient sendFloats(float[] values) {
+        if (!canSend()) return this;
+
+        if (mFloats.capacity() < values.length * 4) {
+            mFloats = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mFloats.clear();
+        for (float v : values) mFloats.putFloat(v);
+        mFloats.flip();
+        mWebSocketClient.send(mFloats);
+        mSent++;
+
+        return this;
+    }
+
+    @PhonkMethod(description = "Limits the bytes waiting to be sent, over it new messages are dropped", example = "")
+    @PhonkMethodParam(params = {"bytes"})
+    public PWebSocketClient maxQueuedBytes(long bytes) {
+        mMaxQueuedBytes = bytes;
+        return this;
+    }
+
+    @PhonkMethod(description = "Received messages that can wait for the script, the oldest are dropped when it falls behind", example = "")
+    @PhonkMethodParam(params = {"messages"})
+    public PWebSocketClient maxIncoming(int messages) {
+        mInbox.setMaxPending(messages);
+        return this;
+    }
+
+    @PhonkMethod(description = "Messages sent and dropped", example = "")
+    public ReturnObject stats() {
+        ReturnObject r = new ReturnObject();
+        r.put("sent", mSent);
+        r.put("dropped", mDropped);
+        r.put("queuedBytes", mWebSocketClient == null ? 0 : PWebSocketServer.queuedBytes(mWebSocketClient.getConnection()));
+        r.put("incomingDropped", mInbox.dropped());
+        return r;
+    }
+
+    private boolean canSend() {
+        if (!mIsConnected) return false;
+        if (mMaxQueuedBytes <= 0 || PWebSocketServer.queuedBytes(mWebSocketClient.getConnection()) <= mMaxQueuedBytes) return true;
+        mDropped++;
+        return false;
+    }
+
     public boolean isConnected() {
         return mIsConnected;
     }
 
     @Override
     public void __stop() {
+        mInbox.clear();
         mWebSocketClient.close();
     }
 }
@@ -24,16 +24,22 @@ package io.phonk.runner.apprunner.api.network;
 
 
 import android.os.Handler;
-import android.os.Looper;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
 
 import io.phonk.runner.apidoc.annotation.PhonkClass;
 import io.phonk.runner.apidoc.annotation.PhonkMethod;
+import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.ProtoBase;
 import io.phonk.runner.apprunner.api.common.ReturnInterface;
@@ -41,17 +47,29 @@ import io.phonk.runner.apprunner.api.common.ReturnObject;
 
 @PhonkClass
 public class PWebSocketServer extends ProtoBase {
-    public final Handler mHandler = new Handler(Looper.getMainLooper());
+    public static final String POLICY_DROP = "drop";
+    public static final String POLICY_CLOSE = "close";
+
     final WebSocketServer websocketServer;
-    private ReturnInterface mCallbackNewData;
+    private final WebSocketInbox mInbox;
     private ReturnInterface mCallbackConnect;
     private ReturnInterface mCallbackDisconnect;
     private ReturnInterface mCallbackError;
     private ReturnInterface mCallbackStatus;
     private ReturnInterface mCallbackStart;
 
+    // data waiting to be written to a client, over the limit the policy applies
+    private long mMaxQueuedBytes = 16 * 1024 * 1024;
+    private String mPolicy = POLICY_DROP;
+    private ByteBuffer mFloats = ByteBuffer.allocate(0);
+    private final ArrayList<WebSocket> mReady = new ArrayList<>();
+    private long mSent = 0;
+    private long mDropped = 0;
+    private long mClosed = 0;
+
     public PWebSocketServer(AppRunner appRunner, int port) {
         super(appRunner);
+        mInbox = new WebSocketInbox(mHandler);
 
         InetSocketAddress inetSocket = new InetSocketAddress(port);
         websocketServer = new WebSocketServer(inetSocket) {
@@ -82,17 +100,28 @@ public class PWebSocketServer extends ProtoBase {
 
             @Override
             public void onMessage(final WebSocket arg0, final String arg1) {
-                mHandler.post(() -> {
-                    ReturnObject o = new ReturnObject();
-                    o.put("status", "message");
-                    o.put("socket", arg0);
-                    o.put("data", arg1);
-                    if (mCallbackNewData != null) mCallbackNewData.event(o);
-                });
+                ReturnObject o = new ReturnObject();
+                o.put("status", "message");
+                o.put("socket", arg0);
+                o.put("data", arg1);
+                mInbox.push(o);
                 //MLog.d(TAG, "onMessage server");
 
             }
 
+            @Override
+            public void onMessage(final WebSocket arg0, final ByteBuffer arg1) {
+                byte[] data = new byte[arg1.remaining()];
+                arg1.get(data);
+
+                ReturnObject o = new ReturnObject();
+                o.put("status", "message");
+                o.put("socket", arg0);
+                o.put("data", data);
+                o.put("binary", true);
+                mInbox.push(o);
+            }
+
             @Override
             public void onError(final WebSocket arg0, Exception arg1) {
                 mHandler.post(() -> {
@@ -156,12 +185,122 @@ public class PWebSocketServer extends ProtoBase {
 
     @PhonkMethod
     public PWebSocketServer onNewData(final ReturnInterface callbackfn) {
-        mCallbackNewData = callbackfn;
+        mInbox.setCallback(callbackfn);
+        return this;
+    }
+
+    @PhonkMethod(description = "Sends a text to a client", example = "")
+    @PhonkMethodParam(params = {"socket", "text"})
+    public boolean send(WebSocket socket, String text) {
+        if (!canSend(socket)) return false;
+        socket.send(text);
+        mSent++;
+        return true;
+    }
+
+    @PhonkMethod(description = "Sends binary data to a client", example = "")
+    @PhonkMethodParam(params = {"socket", "data"})
+    public boolean send(WebSocket socket, byte[] data) {
+        if (!canSend(socket)) return false;
+        socket.send(data);
+        mSent++;
+        return true;
+    }
+
+    @PhonkMethod(description = "Sends a text to all the clients, the frame is built once", example = "")
+    @PhonkMethodParam(params = {"text"})
+    public void broadcast(String text) {
+        websocketServer.broadcast(text, readyClients());
+    }
+
+    @PhonkMethod(description = "Sends binary data to all the clients, the frame is built once", example = "")
+    @PhonkMethodParam(params = {"data"})
+    public void broadcast(byte[] data) {
+        websocketServer.broadcast(data, readyClients());
+    }
+
+    /**
+     * Sends the values as little endian float32, in the browser they can be read with new Float32Array(data)
+     */
+    @PhonkMethod(description = "Sends an array of numbers to all the clients as binary float32", example = "")
+    @PhonkMethodParam(params = {"values[]"})
+    public void broadcastFloats(float[] values) {
+        if (mFloats.capacity() < values.length * 4) {
+            mFloats = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mFloats.clear();
+        for (float v : values) mFloats.putFloat(v);
+        mFloats.flip();
+
+        // the frames are copied from the buffer so it can be reused right after
+        websocketServer.broadcast(mFloats, readyClients());
+    }
+
+    @PhonkMethod(description = "Limits the bytes waiting to be sent to every client, over it the messages are skipped", example = "")
+    @PhonkMethodParam(params = {"bytes"})
+    public PWebSocketServer maxQueuedBytes(long bytes) {
+        return maxQueuedBytes(bytes, POLICY_DROP);
+    }
+
+    @PhonkMethod(description = "Limits the bytes waiting to be sent to every client. Over it, 'drop' skips the messages and 'close' disconnects the client", example = "")
+    @PhonkMethodParam(params = {"bytes", "policy=['drop', 'close']"})
+    public PWebSocketServer maxQueuedBytes(long bytes, String policy) {
+        mMaxQueuedBytes = bytes;
+        mPolicy = POLICY_CLOSE.equals(policy) ? POLICY_CLOSE : POLICY_DROP;
         return this;
     }
 
+    @PhonkMethod(description = "Received messages that can wait for the script, the oldest are dropped when it falls behind", example = "")
+    @PhonkMethodParam(params = {"messages"})
+    public PWebSocketServer maxIncoming(int messages) {
+        mInbox.setMaxPending(messages);
+        return this;
+    }
+
+    @PhonkMethod(description = "Messages sent and dropped, clients closed for being too slow and received messages dropped", example = "")
+    public ReturnObject stats() {
+        ReturnObject r = new ReturnObject();
+        r.put("clients", websocketServer.getConnections().size());
+        r.put("sent", mSent);
+        r.put("dropped", mDropped);
+        r.put("closed", mClosed);
+        r.put("incomingDropped", mInbox.dropped());
+        return r;
+    }
+
+    private Collection<WebSocket> readyClients() {
+        mReady.clear();
+        for (WebSocket socket : websocketServer.getConnections()) {
+            if (canSend(socket)) mReady.add(socket);
+        }
+        mSent += mReady.size();
+        return mReady;
+    }
+
+    private boolean canSend(WebSocket socket) {
+        if (!socket.isOpen()) return false;
+        if (mMaxQueuedBytes <= 0 || queuedBytes(socket) <= mMaxQueuedBytes) return true;
+
+        if (POLICY_CLOSE.equals(mPolicy)) {
+            socket.close(CloseFrame.POLICY_VALIDATION, "too slow");
+            mClosed++;
+        } else {
+            mDropped++;
+        }
+        return false;
+    }
+
+    static long queuedBytes(WebSocket socket) {
+        if (!(socket instanceof WebSocketImpl)) return 0;
+
+        long bytes = 0;
+        for (ByteBuffer buffer : ((WebSocketImpl) socket).outQueue) bytes += buffer.remaining();
+        return bytes;
+    }
+
     @Override
     public void __stop() {
+        mInbox.clear();
         try {
             websocketServer.stop();
         } catch (InterruptedException e) {
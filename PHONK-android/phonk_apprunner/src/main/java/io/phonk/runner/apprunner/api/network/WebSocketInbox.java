@@ -0,0 +1,96 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.api.network;
+
+import android.os.Handler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import io.phonk.runner.apprunner.api.common.ReturnInterface;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+
+/**
+ * Messages received by a websocket waiting for the script. A burst of messages is delivered with a
+ * single post and the queue is bounded, when the script falls behind the oldest messages are dropped
+ */
+class WebSocketInbox {
+    private final Handler mHandler;
+    private final ArrayDeque<ReturnObject> mPending = new ArrayDeque<>();
+    private final ArrayList<ReturnObject> mDelivering = new ArrayList<>();
+    private ReturnInterface mCallback;
+    private int mMaxPending = 1000;
+    private boolean mPosted = false;
+    private long mDropped = 0;
+
+    private final Runnable mDeliver = this::deliver;
+
+    WebSocketInbox(Handler handler) {
+        mHandler = handler;
+    }
+
+    void setCallback(ReturnInterface callback) {
+        mCallback = callback;
+    }
+
+    synchronized void setMaxPending(int messages) {
+        mMaxPending = Math.max(1, messages);
+    }
+
+    synchronized long dropped() {
+        return mDropped;
+    }
+
+    synchronized void push(ReturnObject message) {
+        if (mPending.size() >= mMaxPending) {
+            mPending.pollFirst();
+            mDropped++;
+        }
+        mPending.addLast(message);
+
+        if (!mPosted) {
+            mPosted = true;
+            mHandler.post(mDeliver);
+        }
+    }
+
+    private void deliver() {
+        synchronized (this) {
+            mPosted = false;
+            mDelivering.addAll(mPending);
+            mPending.clear();
+        }
+
+        ReturnInterface callback = mCallback;
+        if (callback != null) {
+            for (ReturnObject message : mDelivering) callback.event(message);
+        }
+        mDelivering.clear();
+    }
+
+    synchronized void clear() {
+        mHandler.removeCallbacks(mDeliver);
+        mPending.clear();
+        mPosted = false;
+    }
+}
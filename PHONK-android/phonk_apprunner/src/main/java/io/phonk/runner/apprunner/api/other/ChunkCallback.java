@@ -0,0 +1,30 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.apprunner.api.other;
+
+/**
+ * Called for every chunk read from a file. The data array is reused between calls, only the first
+ * length bytes are valid. The last call has a length of -1
+ */
+public interface ChunkCallback {
+    void chunk(byte[] data, int length, long offset);
+}
@@ -0,0 +1,225 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.api.other;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.greenrobot.eventbus.EventBus;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import io.phonk.runner.base.events.Events;
+
+/**
+ * Coalesces console lines and posts them as {@link Events.LogBatchEvent}s once per tick, split so
+ * that no batch goes over the size an Intent can carry.
+ * Plain log lines are rate limited and dropped when the queue is full, errors and console
+ * actions (clear, show, hide) are always delivered. In lossless mode nothing is dropped and a
+ * full queue is sent right away
+ */
+public class ConsoleBatcher {
+
+    public static final String ACTION_LOG = "log";
+    // batches end up in an Intent broadcast and binder transactions fail around 1 MB,
+    // 128K chars are about 256 KB once parceled
+    static final int MAX_BATCH_CHARS = 128 * 1024;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("hh:mm:ss");
+    private final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+
+    private int mTickMs = 100;
+    private int mCapacity = 1000;
+    private int mMaxLinesPerSecond = 500;
+    private boolean mLossless = false;
+    private boolean mFlushScheduled = false;
+
+    // rate limit state, reset every second
+    private long mWindowStart = 0;
+    private int mLinesInWindow = 0;
+
+    // stats
+    private long mQueued = 0;
+    private long mSent = 0;
+    private long mBatches = 0;
+    private long mDroppedRate = 0;
+    private long mDroppedOverflow = 0;
+    private long mReportedDrops = 0;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public synchronized void add(String action, String data) {
+        boolean isPlainLog = ACTION_LOG.equals(action);
+
+        if (isPlainLog && !mLossless) {
+            long now = SystemClock.uptimeMillis();
+            if (now - mWindowStart >= 1000) {
+                mWindowStart = now;
+                mLinesInWindow = 0;
+            }
+
+            if (mLinesInWindow >= mMaxLinesPerSecond) {
+                mDroppedRate++;
+                return;
+            }
+            if (mQueue.size() >= mCapacity) {
+                mDroppedOverflow++;
+                return;
+            }
+            mLinesInWindow++;
+        }
+
+        mQueue.add(new Entry(action, System.currentTimeMillis(), data));
+        mQueued++;
+
+        // in lossless mode a full queue is sent right away instead of growing forever
+        if (mLossless && mQueue.size() >= mCapacity) {
+            flush();
+        } else if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushTask, mTickMs);
+        }
+    }
+
+    /**
+     * Sends everything that is queued as a single batch
+     */
+    public void flush() {
+        List<Events.LogBatchEvent> events = new ArrayList<>();
+
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushTask);
+            mFlushScheduled = false;
+
+            long dropped = mDroppedRate + mDroppedOverflow;
+            if (mQueue.isEmpty() && dropped == mReportedDrops) return;
+
+            List<Events.LogEvent> logs = new ArrayList<>();
+            int chars = 0;
+            while (!mQueue.isEmpty()) {
+                Entry entry = mQueue.poll();
+                String data = entry.data;
+                if (data != null && data.length() > MAX_BATCH_CHARS) {
+                    data = data.substring(0, MAX_BATCH_CHARS) + "... (" + (data.length() - MAX_BATCH_CHARS) + " characters cut)";
+                }
+                int entryChars = entry.action.length() + (data == null ? 0 : data.length()) + 8;
+                if (!logs.isEmpty() && chars + entryChars > MAX_BATCH_CHARS) {
+                    events.add(new Events.LogBatchEvent(logs));
+                    logs = new ArrayList<>();
+                    chars = 0;
+                }
+                logs.add(new Events.LogEvent(entry.action, mTimeFormat.format(new Date(entry.time)), data));
+                chars += entryChars;
+            }
+
+            // let the user know that the console is not showing everything
+            if (dropped != mReportedDrops) {
+                String msg = "console: " + (dropped - mReportedDrops) + " lines dropped (" + mDroppedRate
+                        + " over the rate limit, " + mDroppedOverflow + " on overflow in total)";
+                logs.add(new Events.LogEvent(ACTION_LOG, mTimeFormat.format(new Date()), msg));
+                mReportedDrops = dropped;
+            }
+
+            events.add(new Events.LogBatchEvent(logs));
+            for (Events.LogBatchEvent event : events) mSent += event.getLogs().size();
+            mBatches += events.size();
+        }
+
+        // not sticky, a console opened later must not replay an old batch
+        for (Events.LogBatchEvent event : events) EventBus.getDefault().post(event);
+    }
+
+    public synchronized void tick(int ms) {
+        mTickMs = Math.max(1, ms);
+    }
+
+    public synchronized void capacity(int lines) {
+        mCapacity = Math.max(1, lines);
+    }
+
+    public synchronized void limit(int linesPerSecond) {
+        mMaxLinesPerSecond = Math.max(1, linesPerSecond);
+    }
+
+    public synchronized void lossless(boolean lossless) {
+        mLossless = lossless;
+    }
+
+    public synchronized boolean isLossless() {
+        return mLossless;
+    }
+
+    public synchronized int size() {
+        return mQueue.size();
+    }
+
+    public synchronized long getQueued() {
+        return mQueued;
+    }
+
+    public synchronized long getSent() {
+        return mSent;
+    }
+
+    public synchronized long getBatches() {
+        return mBatches;
+    }
+
+    public synchronized long getDroppedRate() {
+        return mDroppedRate;
+    }
+
+    public synchronized long getDroppedOverflow() {
+        return mDroppedOverflow;
+    }
+
+    /**
+     * Sends what is left when the script stops
+     */
+    public void stop() {
+        flush();
+    }
+
+    private static class Entry {
+        final String action;
+        final long time;
+        final String data;
+
+        Entry(String action, long time, String data) {
+            this.action = action;
+            this.time = time;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.apprunner.api.other;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+
+/**
+ * Reads the files written by {@link PDataRecorder}. The file is memory mapped and the blocks are
+ * validated with their CRC, a file without footer is read up to its last complete block
+ */
+public class DataRecordingReader {
+
+    public interface RowListener {
+        void row(long timestamp, float[] values);
+    }
+
+    private final File mFile;
+    private final ByteBuffer mBuffer;
+    private final String[] mColumns;
+    private final long mWallStartMs;
+    private final long mClockStartNs;
+    private final ArrayList<Integer> mBlocks = new ArrayList<>();
+    private long mRows = 0;
+    private boolean mComplete = false;
+
+    public DataRecordingReader(File file) throws IOException {
+        mFile = file;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("file too big, use rotate when recording");
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            raf.close();
+        }
+
+        if (mBuffer.remaining() < 24 || mBuffer.getInt(0) != PDataRecorder.MAGIC) throw new IOException("not a recording " + file);
+        if (mBuffer.getShort(4) > PDataRecorder.VERSION) throw new IOException("unsupported version " + mBuffer.getShort(4));
+
+        int columns = mBuffer.getShort(6);
+        mWallStartMs = mBuffer.getLong(8);
+        mClockStartNs = mBuffer.getLong(16);
+        mColumns = new String[columns];
+        int pos = 24;
+        for (int c = 0; c < columns; c++) {
+            int length = mBuffer.getShort(pos);
+            byte[] name = new byte[length];
+            mBuffer.position(pos + 2);
+            mBuffer.get(name);
+            mColumns[c] = new String(name, Charset.forName("UTF-8"));
+            pos += 2 + length;
+        }
+
+        scan(pos);
+    }
+
+    // finds the valid blocks, stops at the footer or at the first broken block
+    private void scan(int pos) {
+        int limit = mBuffer.limit();
+        int rowBytes = 8 + 4 * mColumns.length;
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[0];
+
+        while (pos + 4 <= limit) {
+            int magic = mBuffer.getInt(pos);
+            if (magic == PDataRecorder.END_MAGIC) {
+                mComplete = pos + PDataRecorder.FOOTER <= limit;
+                return;
+            }
+            if (magic != PDataRecorder.BLOCK_MAGIC || pos + PDataRecorder.BLOCK_HEADER > limit) return;
+
+            int rows = mBuffer.getInt(pos + 4);
+            int length = rows * rowBytes;
+            if (rows <= 0 || pos + PDataRecorder.BLOCK_HEADER + length > limit) return;
+
+            if (payload.length < length) payload = new byte[length];
+            mBuffer.position(pos + PDataRecorder.BLOCK_HEADER);
+            mBuffer.get(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != mBuffer.getInt(pos + 8)) return;
+
+            mBlocks.add(pos);
+            mRows += rows;
+            pos += PDataRecorder.BLOCK_HEADER + length;
+        }
+    }
+
+    public String[] columns() {
+        return mColumns;
+    }
+
+    public long rows() {
+        return mRows;
+    }
+
+    // the file was closed properly
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    // converts a timestamp of the file to milliseconds since epoch
+    public long toEpochMs(long timestamp) {
+        return mWallStartMs + (timestamp - mClockStartNs) / 1000000L;
+    }
+
+    public void read(RowListener listener) {
+        float[] values = new float[mColumns.length];
+
+        for (int pos : mBlocks) {
+            int rows = mBuffer.getInt(pos + 4);
+            int times = pos + PDataRecorder.BLOCK_HEADER;
+            int data = times + rows * 8;
+
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = mBuffer.getFloat(data + (c * rows + r) * 4);
+                }
+                listener.row(mBuffer.getLong(times + r * 8), values);
+            }
+        }
+    }
+
+    public ReturnObject info() {
+        ReturnObject r = new ReturnObject();
+        r.put("file", mFile.getAbsolutePath());
+        r.put("columns", mColumns);
+        r.put("rows", mRows);
+        r.put("blocks", mBlocks.size());
+        r.put("complete", mComplete);
+        r.put("startTime", mWallStartMs);
+        return r;
+    }
+
+    /**
+     * Writes the rows as csv or json (an array per row), the format is taken from the extension of the output
+     */
+    public void export(File output) throws IOException {
+        final boolean json = output.getName().toLowerCase().endsWith(".json");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), Charset.forName("UTF-8")), 64 * 1024);
+        final StringBuilder line = new StringBuilder(256);
+
+        try {
+            if (json) {
+                writer.write("{\"columns\":[\"timestamp\",\"time\"");
+                for (String column : mColumns) writer.write(",\"" + column.replace("\"", "\\\"") + "\"");
+                writer.write("],\"rows\":[");
+            } else {
+                writer.write("timestamp,time");
+                for (String column : mColumns) writer.write("," + column);
+                writer.write("\n");
+            }
+
+            final boolean[] first = {true};
+            final IOException[] error = {null};
+            read((timestamp, values) -> {
+                if (error[0] != null) return;
+
+                line.setLength(0);
+                if (json) line.append(first[0] ? "\n[" : ",\n[");
+                line.append(timestamp).append(',').append(toEpochMs(timestamp));
+                for (float v : values) {
+                    line.append(',');
+                    // json has no NaN nor Infinity
+                    if (json && (Float.isNaN(v) || Float.isInfinite(v))) line.append("null");
+                    else line.append(v);
+                }
+                line.append(json ? "]" : "\n");
+                first[0] = false;
+
+                try {
+                    writer.append(line);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) throw error[0];
+
+            if (json) writer.write("\n]}\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.apprunner.api.other;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.base.utils.MLog;
+
+/**
+ * Runs the file operations of a script on a small pool of background threads.
+ *
+ * Tasks run by priority and then in the order they were added. Tasks sharing a path run one after
+ * the other, a task with several paths (a copy reads one and writes another) waits until all of them
+ * are free, and a task waiting for its path can absorb a newer one (two saves of the same file only
+ * write the last content). Everything still queued is dropped when the script stops
+ */
+public class IoExecutor implements WhatIsRunningInterface {
+    private static final String TAG = IoExecutor.class.getSimpleName();
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    public static final String CANCELLED_QUEUE_FULL = "queue full";
+    public static final String CANCELLED_STOPPED = "stopped";
+
+    private static final int THREADS = 2;
+    private static final int MAX_QUEUED = 1024;
+
+    private ThreadPoolExecutor mPool;
+    // paths with a task running, and the tasks waiting for some of them in the order they came
+    private final HashSet<String> mBusy = new HashSet<>();
+    private final ArrayList<Task> mWaiting = new ArrayList<>();
+    private final AtomicLong mSequence = new AtomicLong();
+    // tasks that were running when the script stopped must not touch the new queues
+    private int mGeneration = 0;
+
+    // stats
+    private final AtomicInteger mRunning = new AtomicInteger();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private long mCoalesced = 0;
+    private long mRejected = 0;
+    private int mMaxQueued = 0;
+
+    /**
+     * A file operation on the given paths, the null ones are not serialized
+     */
+    public abstract static class Task implements Runnable, Comparable<Task> {
+        final int mPriority;
+        final String mPath;
+        final String[] mPaths;
+        long mSequence;
+        int mGeneration;
+        IoExecutor mExecutor;
+
+        public Task(int priority, String... paths) {
+            mPriority = priority;
+            ArrayList<String> nonNull = new ArrayList<>();
+            for (String path : paths) {
+                if (path != null && !nonNull.contains(path)) nonNull.add(path);
+            }
+            mPaths = nonNull.toArray(new String[0]);
+            mPath = mPaths.length == 0 ? null : mPaths[0];
+        }
+
+        boolean sharesPath(Task other) {
+            for (String path : mPaths) {
+                if (Arrays.asList(other.mPaths).contains(path)) return true;
+            }
+            return false;
+        }
+
+        // does the work in the background thread
+        protected abstract void execute();
+
+        // takes the work of a newer task on the same path, returns false if they cannot be merged
+        protected boolean merge(Task newer) {
+            return false;
+        }
+
+        // the task will not run, queue full or script stopped
+        protected void cancelled(String reason) {
+        }
+
+        @Override
+        public final void run() {
+            mExecutor.mRunning.incrementAndGet();
+            try {
+                execute();
+            } catch (Exception e) {
+                MLog.e(TAG, "io task failed " + e);
+            } finally {
+                mExecutor.mRunning.decrementAndGet();
+                mExecutor.mCompleted.incrementAndGet();
+                mExecutor.finished(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority) return mPriority < other.mPriority ? -1 : 1;
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    public synchronized void execute(Task task) {
+        task.mExecutor = this;
+        task.mSequence = mSequence.incrementAndGet();
+        task.mGeneration = mGeneration;
+
+        // a task waiting for any of the paths keeps this one behind it
+        Task last = null;
+        for (int i = mWaiting.size() - 1; i >= 0 && last == null; i--) {
+            if (mWaiting.get(i).sharesPath(task)) last = mWaiting.get(i);
+        }
+
+        if (last != null || isBusy(task)) {
+            // try to fold it into the last task waiting for the same file
+            if (last != null && last.mPaths.length == 1 && task.mPaths.length == 1 && last.merge(task)) {
+                mCoalesced++;
+                return;
+            }
+            if (!hasRoom(task)) return;
+            mWaiting.add(task);
+            updateMaxQueued();
+            return;
+        }
+
+        if (!hasRoom(task)) return;
+        mBusy.addAll(Arrays.asList(task.mPaths));
+        getPool().execute(task);
+        updateMaxQueued();
+    }
+
+    private boolean isBusy(Task task) {
+        for (String path : task.mPaths) {
+            if (mBusy.contains(path)) return true;
+        }
+        return false;
+    }
+
+    private synchronized void finished(Task task) {
+        if (task.mPaths.length == 0 || mPool == null || task.mGeneration != mGeneration) return;
+
+        mBusy.removeAll(Arrays.asList(task.mPaths));
+
+        // start the waiting tasks whose paths are free, a task skipped here keeps its paths for the ones after it
+        HashSet<String> claimed = new HashSet<>();
+        Iterator<Task> it = mWaiting.iterator();
+        while (it.hasNext()) {
+            Task next = it.next();
+            boolean blocked = isBusy(next);
+            for (String path : next.mPaths) blocked |= claimed.contains(path);
+
+            if (blocked) {
+                claimed.addAll(Arrays.asList(next.mPaths));
+            } else {
+                it.remove();
+                mBusy.addAll(Arrays.asList(next.mPaths));
+                mPool.execute(next);
+            }
+        }
+    }
+
+    private boolean hasRoom(Task task) {
+        if (queued() < MAX_QUEUED) return true;
+
+        mRejected++;
+        MLog.w(TAG, "io queue full, dropping task on " + task.mPath);
+        task.cancelled(CANCELLED_QUEUE_FULL);
+        return false;
+    }
+
+    private int queued() {
+        return (mPool == null ? 0 : mPool.getQueue().size()) + mWaiting.size();
+    }
+
+    private void updateMaxQueued() {
+        mMaxQueued = Math.max(mMaxQueued, queued());
+    }
+
+    private ThreadPoolExecutor getPool() {
+        if (mPool == null) {
+            final AtomicInteger count = new AtomicInteger();
+            mPool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "phonk-io-" + count.incrementAndGet()));
+            mPool.allowCoreThreadTimeOut(true);
+        }
+        return mPool;
+    }
+
+    public synchronized ReturnObject stats() {
+        ReturnObject r = new ReturnObject();
+        r.put("queued", queued());
+        r.put("maxQueued", mMaxQueued);
+        r.put("running", mRunning.get());
+        r.put("completed", mCompleted.get());
+        r.put("coalesced", mCoalesced);
+        r.put("rejected", mRejected);
+        return r;
+    }
+
+    @Override
+    public synchronized void __stop() {
+        if (mPool != null) {
+            for (Runnable r : mPool.shutdownNow()) ((Task) r).cancelled(CANCELLED_STOPPED);
+        }
+        for (Task task : mWaiting) task.cancelled(CANCELLED_STOPPED);
+        mWaiting.clear();
+        mBusy.clear();
+        mPool = null;
+        mGeneration++;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.api.other;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+
+/**
+ * Runs the timers of a script (loopers and delays) on the script thread (the main thread unless the script
+ * runs in its own thread), on the main thread, on a dedicated timer thread or on a pool.
+ * Periodic jobs can run at a fixed rate, where every tick is scheduled from the start time so the period
+ * does not drift with the cost of the callback, or with a fixed delay after each callback
+ */
+public class LoopScheduler implements WhatIsRunningInterface {
+
+    public static final String EXECUTOR_SCRIPT = "script";
+    public static final String EXECUTOR_MAIN = "main";
+    public static final String EXECUTOR_THREAD = "thread";
+    public static final String EXECUTOR_POOL = "pool";
+
+    public static final String MODE_FIXED_DELAY = "fixedDelay";
+    public static final String MODE_FIXED_RATE = "fixedRate";
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // thread where the script runs, the main thread unless it has its own
+    private Handler mScriptHandler = mMainHandler;
+    private ScheduledThreadPoolExecutor mThread;
+    private ScheduledThreadPoolExecutor mPool;
+
+    public Job newJob(String executor, Runnable callback) {
+        return new Job(executor, callback);
+    }
+
+    /**
+     * Script functions touch the Rhino scope so they have to run in the script thread. With the 'thread' and
+     * 'pool' executors the timing stays in that thread and the function is handed to the script thread, a tick
+     * is skipped while the previous one is still waiting there. Java callbacks can be given to newJob directly
+     */
+    public Runnable scriptCallback(String executor, final Runnable callback) {
+        if (executor == null) return callback;
+        checkExecutor(executor);
+        if (getHandler(executor) != null) return callback;
+
+        final AtomicBoolean pending = new AtomicBoolean();
+        final Runnable dispatch = () -> {
+            pending.set(false);
+            callback.run();
+        };
+
+        return () -> {
+            if (pending.compareAndSet(false, true)) mScriptHandler.post(dispatch);
+        };
+    }
+
+    /**
+     * A typo in the executor name would otherwise end up silently in the timer thread
+     */
+    public static void checkExecutor(String executor) {
+        if (!EXECUTOR_SCRIPT.equals(executor) && !EXECUTOR_MAIN.equals(executor)
+                && !EXECUTOR_THREAD.equals(executor) && !EXECUTOR_POOL.equals(executor)) {
+            throw new IllegalArgumentException("Unknown executor '" + executor + "', use '" + EXECUTOR_SCRIPT
+                    + "', '" + EXECUTOR_MAIN + "', '" + EXECUTOR_THREAD + "' or '" + EXECUTOR_POOL + "'");
+        }
+    }
+
+    public void setScriptLooper(Looper looper) {
+        mScriptHandler = new Handler(looper);
+    }
+
+    private Handler getHandler(String executor) {
+        if (EXECUTOR_MAIN.equals(executor)) return mMainHandler;
+        if (EXECUTOR_SCRIPT.equals(executor)) return mScriptHandler;
+        return null;
+    }
+
+    private synchronized ScheduledThreadPoolExecutor getExecutor(String executor) {
+        if (EXECUTOR_POOL.equals(executor)) {
+            if (mPool == null) {
+                int threads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+                mPool = createExecutor("phonk-timer-pool", threads);
+            }
+            return mPool;
+        }
+
+        if (mThread == null) mThread = createExecutor("phonk-timer", 1);
+        return mThread;
+    }
+
+    private static ScheduledThreadPoolExecutor createExecutor(final String name, int threads) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(() -> {
+                    // timers drive boards and sound, they should not wait behind background work
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+                    r.run();
+                }, name + "-" + mCount.incrementAndGet());
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+
+        return executor;
+    }
+
+    @Override
+    public synchronized void __stop() {
+        if (mThread != null) mThread.shutdownNow();
+        if (mPool != null) mPool.shutdownNow();
+        mThread = null;
+        mPool = null;
+    }
+
+    /**
+     * A one-shot or periodic timer. Times are kept in nanoseconds, the looper based executors
+     * can only wait with millisecond resolution
+     */
+    public class Job {
+        private final String mExecutor;
+        private final Runnable mCallback;
+        private String mMode = MODE_FIXED_DELAY;
+        private long mPeriodNs = 0;
+        private boolean mRepeat = false;
+        private volatile boolean mRunning = false;
+        // changes on every start and cancel so the ticks of a previous run do not reschedule themselves
+        private int mGeneration = 0;
+        private long mNextNs;
+        private ScheduledFuture<?> mFuture;
+
+        // stats
+        private long mTicks;
+        private long mOverruns;
+        private long mMissedTicks;
+        private long mJitterSumNs;
+        private long mJitterMaxNs;
+        private long mLastDurationNs;
+        private long mMaxDurationNs;
+
+        Job(String executor, Runnable callback) {
+            if (executor != null) checkExecutor(executor);
+            mExecutor = executor == null ? EXECUTOR_SCRIPT : executor;
+            mCallback = callback;
+        }
+
+        public synchronized Job mode(String mode) {
+            mMode = MODE_FIXED_RATE.equals(mode) ? MODE_FIXED_RATE : MODE_FIXED_DELAY;
+            return this;
+        }
+
+        public synchronized Job periodNs(long periodNs) {
+            mPeriodNs = Math.max(0, periodNs);
+            return this;
+        }
+
+        public synchronized long getPeriodNs() {
+            return mPeriodNs;
+        }
+
+        /**
+         * Starts the job, periodic jobs run their first tick right away, one-shot jobs after the period
+         */
+        public synchronized Job start(boolean repeat) {
+            if (mRunning) return this;
+
+            mRepeat = repeat;
+            mRunning = true;
+            mGeneration++;
+            long now = System.nanoTime();
+            mNextNs = repeat ? now : now + mPeriodNs;
+            scheduleAt(mNextNs, mGeneration);
+
+            return this;
+        }
+
+        public synchronized Job cancel() {
+            mRunning = false;
+            mGeneration++;
+            Handler handler = getHandler(mExecutor);
+            if (handler != null) handler.removeCallbacksAndMessages(this);
+            if (mFuture != null) mFuture.cancel(false);
+            mFuture = null;
+
+            return this;
+        }
+
+        public boolean isRunning() {
+            return mRunning;
+        }
+
+        private void scheduleAt(long targetNs, final int generation) {
+            long delayNs = Math.max(0, targetNs - System.nanoTime());
+            Runnable tick = () -> tick(generation);
+
+            Handler handler = getHandler(mExecutor);
+            if (handler != null) {
+                // the job is the token so cancel removes every pending tick
+                handler.postAtTime(tick, this, SystemClock.uptimeMillis() + (delayNs + 500000) / 1000000);
+            } else {
+                mFuture = getExecutor(mExecutor).schedule(tick, delayNs, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void tick(int generation) {
+            long scheduledNs;
+            synchronized (this) {
+                if (!mRunning || generation != mGeneration) return;
+                scheduledNs = mNextNs;
+            }
+
+            long startNs = System.nanoTime();
+            mCallback.run();
+            long endNs = System.nanoTime();
+
+            synchronized (this) {
+                long jitter = Math.abs(startNs - scheduledNs);
+                mTicks++;
+                mJitterSumNs += jitter;
+                mJitterMaxNs = Math.max(mJitterMaxNs, jitter);
+                mLastDurationNs = endNs - startNs;
+                mMaxDurationNs = Math.max(mMaxDurationNs, mLastDurationNs);
+
+                // cancelled or started again while the callback was running
+                if (!mRunning || generation != mGeneration) return;
+                if (!mRepeat) {
+                    mRunning = false;
+                    return;
+                }
+
+                if (MODE_FIXED_RATE.equals(mMode)) {
+                    mNextNs = scheduledNs + mPeriodNs;
+
+                    // the callback took longer than the period, skip the ticks we missed instead of bursting
+                    if (mPeriodNs > 0 && endNs > mNextNs) {
+                        long missed = (endNs - mNextNs) / mPeriodNs + 1;
+                        mOverruns++;
+                        mMissedTicks += missed;
+                        mNextNs += missed * mPeriodNs;
+                    }
+                } else {
+                    mNextNs = endNs + mPeriodNs;
+                }
+
+                scheduleAt(mNextNs, generation);
+            }
+        }
+
+        public synchronized void resetStats() {
+            mTicks = 0;
+            mOverruns = 0;
+            mMissedTicks = 0;
+            mJitterSumNs = 0;
+            mJitterMaxNs = 0;
+            mLastDurationNs = 0;
+            mMaxDurationNs = 0;
+        }
+
+        /**
+         * Times are returned in milliseconds
+         */
+        public synchronized ReturnObject stats() {
+            ReturnObject ret = new ReturnObject();
+            ret.put("executor", mExecutor);
+            ret.put("mode", mMode);
+            ret.put("period", mPeriodNs / 1e6);
+            ret.put("ticks", mTicks);
+            ret.put("overruns", mOverruns);
+            ret.put("missedTicks", mMissedTicks);
+            ret.put("jitterMean", mTicks == 0 ? 0 : mJitterSumNs / (double) mTicks / 1e6);
+            ret.put("jitterMax", mJitterMaxNs / 1e6);
+            ret.put("lastDuration", mLastDurationNs / 1e6);
+            ret.put("maxDuration", mMaxDurationNs / 1e6);
+
+            return ret;
+        }
+    }
+}
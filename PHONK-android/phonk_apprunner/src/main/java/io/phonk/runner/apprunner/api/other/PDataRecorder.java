@@ -0,0 +1,487 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.apprunner.api.other;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+
+import io.phonk.runner.apidoc.annotation.PhonkClass;
+import io.phonk.runner.apidoc.annotation.PhonkMethod;
+import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
+import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.ProtoBase;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.base.utils.MLog;
+
+/**
+ * Records rows of numbers (a timestamp and one float per column) into a compact binary file.
+ *
+ * Rows are kept in memory in blocks, column by column, and a writer thread appends every full
+ * block to the file through a FileChannel so the thread calling write never touches the storage.
+ *
+ * File layout, little endian:
+ * header  'PHRC' version:short columns:short wallStartMs:long clockStartNs:long (nameLength:short name)*
+ * block   'PBLK' rows:int crc:int timestamps:long[rows] (values:float[rows])* one array per column
+ * footer  'PEND' blocks:int rows:long firstTimestamp:long lastTimestamp:long
+ *
+ * Every block carries the CRC of its payload, a file that was not closed (crash, battery...) has
+ * no footer and is read up to the last complete block
+ */
+@PhonkClass
+public class PDataRecorder extends ProtoBase {
+
+    static final int MAGIC = 0x43524850; // PHRC
+    static final int BLOCK_MAGIC = 0x4B4C4250; // PBLK
+    static final int END_MAGIC = 0x444E4550; // PEND
+    static final short VERSION = 1;
+    static final int BLOCK_HEADER = 12;
+    static final int FOOTER = 32;
+    public static final String EXTENSION = ".prec";
+
+    private static final int DATA = 0;
+    private static final int SYNC = 1;
+    private static final int CLOSE = 2;
+    private static final int POOL = 4;
+
+    private final String mBasePath;
+    private final String[] mColumns;
+
+    // configuration
+    private int mBlockSize = 1024;
+    private long mMaxBytes = 0;
+    private long mMaxFileMs = 0;
+    private int mMaxFiles = 0;
+    private int mSyncIntervalMs = 5000;
+
+    // blocks are filled by the thread calling write and handed to the writer thread
+    private static class Block {
+        final long[] times;
+        final float[] values;
+        int rows = 0;
+        int command = DATA;
+
+        Block(int size, int columns) {
+            times = new long[size];
+            values = new float[size * columns];
+        }
+    }
+
+    private ArrayBlockingQueue<Block> mFree;
+    private ArrayBlockingQueue<Block> mFull;
+    private Block mCurrent;
+    private Thread mWriter;
+    private boolean mRunning = false;
+
+    // writer thread state
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private ByteBuffer mOut;
+    private final CRC32 mCrc = new CRC32();
+    private long mFileOpenedAt;
+    private long mLastSync;
+    private int mFileBlocks;
+    private long mFileRows;
+    private long mFileFirst;
+    private long mFileLast;
+
+    // stats
+    private volatile long mRows = 0;
+    private volatile long mBlocks = 0;
+    private volatile long mBytes = 0;
+    private volatile int mFiles = 0;
+    private volatile long mDroppedRows = 0;
+    private volatile String mCurrentFile = "";
+    private volatile String mError = null;
+    // written with the recorder lock held, mDroppedRows belongs to the writer thread
+    private volatile long mStalls = 0;
+    private volatile long mStallDroppedRows = 0;
+
+    private final Runnable mPeriodicSync = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            if (mRunning) mHandler.postDelayed(this, mSyncIntervalMs);
+        }
+    };
+
+    public PDataRecorder(AppRunner appRunner, String basePath, String[] columns) {
+        super(appRunner);
+        mBasePath = basePath.endsWith(EXTENSION) ? basePath.substring(0, basePath.length() - EXTENSION.length()) : basePath;
+        mColumns = columns;
+    }
+
+    @PhonkMethod(description = "Rows kept in memory before they are written, call it before start", example = "")
+    @PhonkMethodParam(params = {"rows"})
+    public PDataRecorder blockSize(int rows) {
+        if (!mRunning) mBlockSize = Math.max(16, rows);
+        return this;
+    }
+
+    @PhonkMethod(description = "Starts a new file when the current one reaches the size in MB or the duration in minutes, 0 disables each limit", example = "")
+    @PhonkMethodParam(params = {"maxMB", "maxMinutes"})
+    public PDataRecorder rotate(float maxMB, float maxMinutes) {
+        mMaxBytes = (long) (maxMB * 1024 * 1024);
+        mMaxFileMs = (long) (maxMinutes * 60 * 1000);
+        return this;
+    }
+
+    @PhonkMethod(description = "Keeps only the newest n files of this recorder, 0 keeps all of them", example = "")
+    @PhonkMethodParam(params = {"n"})
+    public PDataRecorder maxFiles(int n) {
+        mMaxFiles = Math.max(0, n);
+        return this;
+    }
+
+    @PhonkMethod(description = "Writes the rows in memory and syncs the file to the storage every given milliseconds", example = "")
+    @PhonkMethodParam(params = {"ms"})
+    public PDataRecorder syncEvery(int ms) {
+        mSyncIntervalMs = Math.max(100, ms);
+        return this;
+    }
+
+    @PhonkMethod(description = "Starts recording", example = "")
+    public PDataRecorder start() {
+        if (mRunning) return this;
+
+        mFree = new ArrayBlockingQueue<>(POOL);
+        mFull = new ArrayBlockingQueue<>(POOL);
+        for (int i = 0; i < POOL; i++) mFree.add(new Block(mBlockSize, mColumns.length));
+        mCurrent = mFree.poll();
+        mOut = ByteBuffer.allocate(BLOCK_HEADER + mBlockSize * (8 + 4 * mColumns.length)).order(ByteOrder.LITTLE_ENDIAN);
+        mError = null;
+        mStalls = 0;
+        mStallDroppedRows = 0;
+        mRunning = true;
+
+        mWriter = new Thread(this::writerLoop, "PhonkRecorder");
+        mWriter.start();
+        mHandler.postDelayed(mPeriodicSync, mSyncIntervalMs);
+
+        return this;
+    }
+
+    @PhonkMethod(description = "Adds a row with the current time", example = "")
+    @PhonkMethodParam(params = {"values[]"})
+    public void write(float[] values) {
+        write(now(), values);
+    }
+
+    @PhonkMethod(description = "Adds a row, the timestamp is in nanoseconds as the sensors give it", example = "")
+    @PhonkMethodParam(params = {"timestamp", "values[]"})
+    public synchronized void write(long timestamp, float[] values) {
+        if (!mRunning) return;
+
+        Block b = mCurrent;
+        int row = b.rows;
+        int size = mBlockSize;
+        int n = Math.min(values.length, mColumns.length);
+
+        b.times[row] = timestamp;
+        for (int c = 0; c < n; c++) b.values[c * size + row] = values[c];
+        for (int c = n; c < mColumns.length; c++) b.values[c * size + row] = 0;
+        b.rows++;
+        mRows++;
+
+        if (b.rows == size) handOver(DATA);
+    }
+
+    @PhonkMethod(description = "Writes the rows in memory and syncs the file", example = "")
+    public synchronized void flush() {
+        if (!mRunning) return;
+        handOver(SYNC);
+    }
+
+    @PhonkMethod(description = "Stops recording and closes the file", example = "")
+    public void stop() {
+        Thread writer;
+        synchronized (this) {
+            if (!mRunning) return;
+            mHandler.removeCallbacks(mPeriodicSync);
+            handOver(CLOSE);
+            mRunning = false;
+            writer = mWriter;
+            mWriter = null;
+        }
+
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PhonkMethod(description = "Rows, blocks and bytes written, the current file and the last error", example = "")
+    public ReturnObject stats() {
+        ReturnObject r = new ReturnObject();
+        r.put("rows", mRows);
+        r.put("blocks", mBlocks);
+        r.put("bytes", mBytes);
+        r.put("files", mFiles);
+        r.put("file", mCurrentFile);
+        r.put("droppedRows", mDroppedRows + mStallDroppedRows);
+        r.put("stalls", mStalls);
+        r.put("error", mError);
+        return r;
+    }
+
+    @PhonkMethod(description = "Name of the columns", example = "")
+    public String[] columns() {
+        return mColumns;
+    }
+
+    private void handOver(int command) {
+        Block b = mCurrent;
+
+        if (command != CLOSE) {
+            Block next = mFree.poll();
+            if (next == null) {
+                // the writer is behind, the thread giving the rows never waits for it. A full block is
+                // dropped and a sync is left to the next one
+                mStalls++;
+                if (command == DATA) {
+                    mStallDroppedRows += b.rows;
+                    b.rows = 0;
+                }
+                return;
+            }
+            mCurrent = next;
+        } else {
+            mCurrent = null;
+        }
+
+        b.command = command;
+        // there are as many places in the queue as blocks so it never waits here
+        mFull.offer(b);
+    }
+
+    static long now() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) return SystemClock.elapsedRealtimeNanos();
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+
+    private void writerLoop() {
+        while (true) {
+            Block b;
+            try {
+                b = mFull.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            int command = b.command;
+
+            try {
+                if (b.rows > 0) writeBlock(b);
+                if (command == SYNC) sync(false);
+                if (command == CLOSE) closeFile();
+            } catch (IOException e) {
+                MLog.e(TAG, "cannot write " + mCurrentFile + " " + e);
+                mError = e.toString();
+                mDroppedRows += b.rows;
+                closeQuietly();
+            }
+
+            b.rows = 0;
+            b.command = DATA;
+            mFree.offer(b);
+
+            if (command == CLOSE) break;
+        }
+    }
+
+    private void writeBlock(Block b) throws IOException {
+        int rows = b.rows;
+        int size = mBlockSize;
+        int payload = rows * (8 + 4 * mColumns.length);
+
+        if (mChannel == null) openFile();
+        else if (needsRotation(BLOCK_HEADER + payload)) {
+            closeFile();
+            openFile();
+        }
+
+        ByteBuffer out = mOut;
+        out.clear();
+        out.putInt(BLOCK_MAGIC);
+        out.putInt(rows);
+        out.putInt(0);
+        for (int r = 0; r < rows; r++) out.putLong(b.times[r]);
+        for (int c = 0; c < mColumns.length; c++) {
+            int base = c * size;
+            for (int r = 0; r < rows; r++) out.putFloat(b.values[base + r]);
+        }
+
+        mCrc.reset();
+        mCrc.update(out.array(), BLOCK_HEADER, payload);
+        out.putInt(8, (int) mCrc.getValue());
+
+        out.flip();
+        while (out.hasRemaining()) mChannel.write(out);
+
+        if (mFileBlocks == 0) mFileFirst = b.times[0];
+        mFileLast = b.times[rows - 1];
+        mFileBlocks++;
+        mFileRows += rows;
+        mBlocks++;
+        mBytes += BLOCK_HEADER + payload;
+
+        if (SystemClock.elapsedRealtime() - mLastSync > mSyncIntervalMs) sync(true);
+    }
+
+    private boolean needsRotation(int nextBytes) throws IOException {
+        if (mMaxBytes > 0 && mChannel.position() + nextBytes + FOOTER > mMaxBytes && mFileBlocks > 0) return true;
+        return mMaxFileMs > 0 && SystemClock.elapsedRealtime() - mFileOpenedAt > mMaxFileMs;
+    }
+
+    private void sync(boolean force) throws IOException {
+        if (mChannel == null) return;
+        if (force || SystemClock.elapsedRealtime() - mLastSync > mSyncIntervalMs / 2) {
+            mChannel.force(false);
+            mLastSync = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private void openFile() throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(mBasePath + "-" + stamp + EXTENSION);
+        for (int i = 1; file.exists(); i++) file = new File(mBasePath + "-" + stamp + "-" + i + EXTENSION);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        mCurrentFile = file.getAbsolutePath();
+        mFileOpenedAt = SystemClock.elapsedRealtime();
+        mLastSync = mFileOpenedAt;
+        mFileBlocks = 0;
+        mFileRows = 0;
+        mFiles++;
+
+        int namesLength = 0;
+        byte[][] names = new byte[mColumns.length][];
+        for (int c = 0; c < mColumns.length; c++) {
+            names[c] = mColumns[c].getBytes(Charset.forName("UTF-8"));
+            namesLength += 2 + names[c].length;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(24 + namesLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putShort((short) mColumns.length);
+        header.putLong(System.currentTimeMillis());
+        header.putLong(now());
+        for (byte[] name : names) {
+            header.putShort((short) name.length);
+            header.put(name);
+        }
+        header.flip();
+        while (header.hasRemaining()) mChannel.write(header);
+        mBytes += header.limit();
+
+        deleteOldFiles();
+    }
+
+    private void closeFile() throws IOException {
+        if (mChannel == null) return;
+
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER).order(ByteOrder.LITTLE_ENDIAN);
+        footer.putInt(END_MAGIC);
+        footer.putInt(mFileBlocks);
+        footer.putLong(mFileRows);
+        footer.putLong(mFileFirst);
+        footer.putLong(mFileLast);
+        footer.flip();
+        while (footer.hasRemaining()) mChannel.write(footer);
+        mBytes += FOOTER;
+
+        mChannel.force(true);
+        mFile.close();
+        mChannel = null;
+        mFile = null;
+    }
+
+    private void closeQuietly() {
+        try {
+            if (mFile != null) mFile.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+        mChannel = null;
+        mFile = null;
+    }
+
+    private void deleteOldFiles() {
+        if (mMaxFiles <= 0) return;
+
+        File base = new File(mBasePath);
+        File dir = base.getParentFile();
+        if (dir == null) return;
+        final String prefix = base.getName() + "-";
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(EXTENSION));
+        if (files == null || files.length <= mMaxFiles) return;
+
+        // oldest first, by the date in the name and then by the "-N" added to files from the same second
+        final int stampEnd = prefix.length() + "yyyyMMdd-HHmmss".length();
+        Arrays.sort(files, (a, b) -> {
+            String nameA = a.getName();
+            String nameB = b.getName();
+            int shortest = stampEnd + EXTENSION.length();
+            if (nameA.length() < shortest || nameB.length() < shortest) return nameA.compareTo(nameB);
+
+            int byStamp = nameA.substring(prefix.length(), stampEnd).compareTo(nameB.substring(prefix.length(), stampEnd));
+            if (byStamp != 0) return byStamp;
+            int indexA = fileIndex(nameA, stampEnd);
+            int indexB = fileIndex(nameB, stampEnd);
+            return indexA < indexB ? -1 : (indexA == indexB ? 0 : 1);
+        });
+        for (int i = 0; i < files.length - mMaxFiles; i++) files[i].delete();
+    }
+
+    // the n of a "-n.prec" ending, 0 for the first file of that second
+    private static int fileIndex(String name, int from) {
+        String rest = name.substring(from, name.length() - EXTENSION.length());
+        if (!rest.startsWith("-")) return 0;
+        try {
+            return Integer.parseInt(rest.substring(1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void __stop() {
+        stop();
+    }
+}
@@ -22,24 +22,27 @@
 
 package io.phonk.runner.apprunner.api.other;
 
-import android.os.Handler;
+import java.util.concurrent.TimeUnit;
 
 import io.phonk.runner.apidoc.annotation.PhonkClass;
 import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
 
 @PhonkClass
 public class PDelay implements WhatIsRunningInterface {
     private final AppRunner mAppRunner;
     private final int delay;
     private final DelayCB mCallbackfn;
-    private final Handler handler;
-    Runnable task;
+    private final LoopScheduler.Job mJob;
     boolean mCancelJob = false;
 
     public PDelay(AppRunner appRunner, final int delay, final DelayCB callbackkfn) {
+        this(appRunner, delay, LoopScheduler.EXECUTOR_SCRIPT, callbackkfn);
+    }
+
+    public PDelay(AppRunner appRunner, final int delay, String executor, final DelayCB callbackkfn) {
         mAppRunner = appRunner;
-        handler = new Handler();
 
         mCallbackfn = callbackkfn;
         this.delay = delay;
@@ -50,10 +53,11 @@ public class PDelay implements WhatIsRunningInterface {
                 if (mCancelJob) return;
 
                 callbackkfn.event();
-                handler.removeCallbacks(this);
             }
         };
-        handler.postDelayed(task, delay);
+        LoopScheduler scheduler = mAppRunner.loopScheduler;
+        mJob = scheduler.newJob(executor, scheduler.scriptCallback(executor, task)).periodNs(TimeUnit.MILLISECONDS.toNanos(delay));
+        mJob.start(false);
 
         mAppRunner.whatIsRunning.add(this);
     }
@@ -64,14 +68,19 @@ public class PDelay implements WhatIsRunningInterface {
 
     @PhonkMethod(description = "Stop the timer", example = "")
     public PDelay stop() {
-        handler.removeCallbacks(task);
+        mJob.cancel();
         mCancelJob = true;
 
         return this;
     }
 
+    @PhonkMethod(description = "Returns how late the callback ran (jitterMax) and its duration in milliseconds", example = "")
+    public ReturnObject stats() {
+        return mJob.stats();
+    }
+
     public interface DelayCB {
         void event();
     }
 
-}
\ No newline at end of file
+}
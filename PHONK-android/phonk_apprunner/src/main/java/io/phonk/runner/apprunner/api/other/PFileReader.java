@@ -0,0 +1,201 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.apprunner.api.other;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import io.phonk.runner.apidoc.annotation.PhonkClass;
+import io.phonk.runner.apidoc.annotation.PhonkMethod;
+import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
+import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.ProtoBase;
+import io.phonk.runner.base.utils.FileIO;
+import io.phonk.runner.base.utils.MLog;
+
+/**
+ * Reads a file in pieces instead of loading it whole, either line by line or into byte arrays
+ * that are reused. A reader is used for lines or for bytes, not both, since lines are read ahead
+ */
+@PhonkClass
+public class PFileReader extends ProtoBase {
+
+    private final String mPath;
+    private final FileChannel mChannel;
+    private final Charset mCharset;
+    private BufferedReader mLines;
+    private long mLineNumber = 0;
+    private volatile boolean mClosed = false;
+    private Thread mChunkReader;
+
+    public PFileReader(AppRunner appRunner, String path, String charset) throws IOException {
+        super(appRunner);
+        mPath = path;
+        mCharset = charset == null ? FileIO.UTF8 : Charset.forName(charset);
+        mChannel = new FileInputStream(path).getChannel();
+    }
+
+    @PhonkMethod(description = "Reads the next line, returns null at the end of the file", example = "")
+    public String readLine() throws IOException {
+        String line = lines().readLine();
+        if (line != null) mLineNumber++;
+        return line;
+    }
+
+    @PhonkMethod(description = "Calls the function with every line left in the file and returns the number of lines", example = "")
+    @PhonkMethodParam(params = {"function(line, number)"})
+    public long forEachLine(LineCallback callbackfn) throws IOException {
+        BufferedReader lines = lines();
+        long count = 0;
+        String line;
+        while (!mClosed && (line = lines.readLine()) != null) {
+            callbackfn.line(line, ++mLineNumber);
+            count++;
+        }
+        return count;
+    }
+
+    @PhonkMethod(description = "Creates a byte array that can be reused with read", example = "")
+    @PhonkMethodParam(params = {"size"})
+    public byte[] buffer(int size) {
+        return new byte[size];
+    }
+
+    @PhonkMethod(description = "Reads into the array and returns the number of bytes read or -1 at the end of the file", example = "")
+    @PhonkMethodParam(params = {"buffer"})
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @PhonkMethod(description = "Reads up to length bytes into the array from offset", example = "")
+    @PhonkMethodParam(params = {"buffer", "offset", "length"})
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        checkBytes();
+        ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+        int total = 0;
+        while (target.hasRemaining()) {
+            int read = mChannel.read(target);
+            if (read < 0) break;
+            total += read;
+        }
+        return total == 0 && length > 0 ? -1 : total;
+    }
+
+    /**
+     * Reads the file from the current position in a background thread. Each chunk is given to
+     * the script and the next one is read once the function returns, so a single array is used
+     */
+    @PhonkMethod(description = "Reads the rest of the file in chunks in the background, the function gets a length of -1 at the end", example = "")
+    @PhonkMethodParam(params = {"chunkSize", "function(data, length, offset)"})
+    public void readChunks(final int chunkSize, final ChunkCallback callbackfn) {
+        checkBytes();
+        if (mChunkReader != null) throw new IllegalStateException("already reading " + mPath);
+
+        final byte[] data = new byte[Math.max(1, chunkSize)];
+        final Semaphore consumed = new Semaphore(0);
+
+        mChunkReader = new Thread(() -> {
+            try {
+                long offset = mChannel.position();
+                while (!mClosed) {
+                    final int length = read(data, 0, data.length);
+                    final long chunkOffset = offset;
+                    mHandler.post(() -> {
+                        try {
+                            if (!mClosed) callbackfn.chunk(data, length, chunkOffset);
+                        } finally {
+                            // a failing callback must not leave the reader waiting forever
+                            consumed.release();
+                        }
+                    });
+                    if (length < 0) break;
+                    offset += length;
+
+                    // wait until the script is done with the array
+                    boolean done = false;
+                    while (!mClosed && !done) done = consumed.tryAcquire(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (IOException e) {
+                MLog.e(TAG, "cannot read " + mPath + " " + e);
+                mHandler.post(() -> {
+                    if (!mClosed) callbackfn.chunk(data, -1, -1);
+                });
+            } catch (InterruptedException e) {
+                // closed
+            }
+        }, "PhonkFileReader");
+        mChunkReader.start();
+    }
+
+    @PhonkMethod(description = "Size of the file in bytes", example = "")
+    public long size() throws IOException {
+        return mChannel.size();
+    }
+
+    @PhonkMethod(description = "Current position in bytes", example = "")
+    public long position() throws IOException {
+        return mChannel.position();
+    }
+
+    @PhonkMethod(description = "Moves to a position in bytes", example = "")
+    @PhonkMethodParam(params = {"position"})
+    public PFileReader seek(long position) throws IOException {
+        checkBytes();
+        mChannel.position(position);
+        return this;
+    }
+
+    @PhonkMethod(description = "Closes the file", example = "")
+    public void close() {
+        mClosed = true;
+        if (mChunkReader != null) mChunkReader.interrupt();
+        try {
+            if (mLines != null) mLines.close();
+            mChannel.close();
+        } catch (IOException e) {
+            MLog.e(TAG, "cannot close " + mPath + " " + e);
+        }
+    }
+
+    private BufferedReader lines() {
+        if (mLines == null) {
+            mLines = new BufferedReader(Channels.newReader(mChannel, mCharset.newDecoder(), -1), FileIO.BUFFER_SIZE);
+        }
+        return mLines;
+    }
+
+    private void checkBytes() {
+        if (mLines != null) throw new IllegalStateException("the reader of " + mPath + " is already reading lines");
+    }
+
+    @Override
+    public void __stop() {
+        close();
+    }
+}
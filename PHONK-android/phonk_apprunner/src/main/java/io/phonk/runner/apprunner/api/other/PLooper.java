@@ -22,31 +22,32 @@
 
 package io.phonk.runner.apprunner.api.other;
 
-import android.os.Handler;
-
-import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 import io.phonk.runner.apidoc.annotation.PhonkClass;
 import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
 
 @PhonkClass
 public class PLooper implements WhatIsRunningInterface {
     final Runnable task;
-    final ArrayList<Runnable> rl = new ArrayList<>();
     private final AppRunner mAppRunner;
-    private final Handler handler;
+    private LoopScheduler.Job mJob;
+    private String mExecutor = LoopScheduler.EXECUTOR_SCRIPT;
+    private String mMode = LoopScheduler.MODE_FIXED_DELAY;
+    private long mPeriodNs;
     public int speed;
     boolean isLooping = false;
     private LooperCB mCallbackfn;
 
     public PLooper(AppRunner appRunner, final int speed, final LooperCB callbackkfn) {
         mAppRunner = appRunner;
-        handler = new Handler();
 
         mCallbackfn = callbackkfn;
         this.speed = speed;
+        mPeriodNs = TimeUnit.MILLISECONDS.toNanos(speed);
 
         task = new Runnable() {
 
@@ -57,16 +58,19 @@ public class PLooper implements WhatIsRunningInterface {
                 if (mCallbackfn != null) {
                     mCallbackfn.event();
                 }
-
-                handler.postDelayed(this, PLooper.this.speed);
             }
         };
 
-        rl.add(task);
+        mJob = createJob();
 
         mAppRunner.whatIsRunning.add(this);
     }
 
+    private LoopScheduler.Job createJob() {
+        LoopScheduler scheduler = mAppRunner.loopScheduler;
+        return scheduler.newJob(mExecutor, scheduler.scriptCallback(mExecutor, task)).mode(mMode).periodNs(mPeriodNs);
+    }
+
     public PLooper onLoop(LooperCB callbackfn) {
         mCallbackfn = callbackfn;
 
@@ -79,16 +83,75 @@ public class PLooper implements WhatIsRunningInterface {
         if (!this.isLooping) return this;
 
         this.speed = speed;
+        mPeriodNs = TimeUnit.MILLISECONDS.toNanos(speed);
         stop();
+        mJob.periodNs(mPeriodNs);
         start();
 
         return this;
     }
 
+    @PhonkMethod(description = "Change the loop frequency in Hz, allows periods that are not whole milliseconds", example = "")
+    @PhonkMethodParam(params = {"hz"})
+    public PLooper frequency(double hz) {
+        if (!(hz > 0)) throw new IllegalArgumentException("The frequency must be greater than 0, got " + hz);
+
+        // never a zero period, that would be a busy loop
+        mPeriodNs = Math.max(1, (long) (1e9 / hz));
+        this.speed = (int) TimeUnit.NANOSECONDS.toMillis(mPeriodNs);
+        mJob.periodNs(mPeriodNs);
+
+        return this;
+    }
+
+    /**
+     * 'fixedDelay' (default) waits the given time after each callback, 'fixedRate' schedules every tick from
+     * the start time so the period does not drift with the cost of the callback
+     *
+     * @param mode
+     * @return
+     */
+    @PhonkMethod(description = "Sets the timing mode, 'fixedDelay' or 'fixedRate'", example = "")
+    @PhonkMethodParam(params = {"mode"})
+    public PLooper mode(String mode) {
+        mMode = mode;
+        mJob.mode(mode);
+
+        return this;
+    }
+
+    /**
+     * 'script' (default) runs the callback where the script runs and 'main' in the main thread. 'thread' and 'pool'
+     * keep the timing in a dedicated timer thread or a pool of threads and hand the callback to the script thread
+     *
+     * @param executor
+     * @return
+     */
+    @PhonkMethod(description = "Sets where the callback runs, 'script', 'main', 'thread' or 'pool'", example = "")
+    @PhonkMethodParam(params = {"executor"})
+    public PLooper executor(String executor) {
+        if (executor.equals(mExecutor)) return this;
+        // checked before stopping so a wrong name leaves the looper as it was
+        LoopScheduler.checkExecutor(executor);
+
+        boolean wasLooping = isLooping;
+        stop();
+        mExecutor = executor;
+        mJob = createJob();
+        if (wasLooping) start();
+
+        return this;
+    }
+
+    @PhonkMethod(description = "Returns timing statistics (ticks, overruns, missedTicks, jitterMean, jitterMax, lastDuration, maxDuration) in milliseconds", example = "")
+    public ReturnObject stats() {
+        return mJob.stats();
+    }
+
     @PhonkMethod(description = "Stop the looper", example = "")
     public PLooper stop() {
         this.isLooping = false;
-        handler.removeCallbacks(task);
+        mJob.cancel();
 
         return this;
     }
@@ -111,7 +174,7 @@ public class PLooper implements WhatIsRunningInterface {
     public PLooper start() {
         if (!this.isLooping) {
             this.isLooping = true;
-            handler.post(task);
+            mJob.start(true);
         }
 
         return this;
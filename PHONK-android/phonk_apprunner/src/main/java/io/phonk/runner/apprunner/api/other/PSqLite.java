@@ -24,22 +24,30 @@ package io.phonk.runner.apprunner.api.other;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import io.phonk.runner.apidoc.annotation.PhonkClass;
 import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.ProtoBase;
+import io.phonk.runner.apprunner.api.common.ReturnInterface;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.interpreter.PhonkNativeArray;
 
 @PhonkClass
 public class PSqLite extends ProtoBase {
     final String TAG = PSqLite.class.getSimpleName();
 
     private SQLiteDatabase db;
+    private final ArrayList<PSqlStatement> mStatements = new ArrayList<>();
 
     public PSqLite(AppRunner appRunner, String dbName) {
         super(appRunner);
@@ -56,6 +64,23 @@ public class PSqLite extends ProtoBase {
                 Context.MODE_PRIVATE,
                 null
         );
+        wal(true);
+    }
+
+    SQLiteDatabase database() {
+        return db;
+    }
+
+    @PhonkMethod(description = "Write ahead logging lets reads run while writing and makes commits cheaper, it is enabled by default", example = "")
+    @PhonkMethodParam(params = {"enabled"})
+    public void wal(boolean enabled) {
+        if (enabled) {
+            // with wal the commits do not need to wait for a sync of the whole database
+            if (db.enableWriteAheadLogging()) db.execSQL("PRAGMA synchronous=NORMAL");
+        } else {
+            db.disableWriteAheadLogging();
+            db.execSQL("PRAGMA synchronous=FULL");
+        }
     }
 
     @PhonkMethod(description = "Executes a SQL sentence", example = "")
@@ -75,9 +100,184 @@ public class PSqLite extends ProtoBase {
         return db.query(table, columns, null, null, null, null, null);
     }
 
+    @PhonkMethod(description = "Compiles a SQL sentence with ? in place of the values so it can be run many times", example = "")
+    @PhonkMethodParam(params = {"sql"})
+    public PSqlStatement compile(String sql) {
+        PSqlStatement statement = new PSqlStatement(db.compileStatement(sql));
+        mStatements.add(statement);
+        return statement;
+    }
+
+    @PhonkMethod(description = "Executes a SQL sentence with the values of the ?", example = "")
+    @PhonkMethodParam(params = {"sql", "values[]"})
+    public void execSql(String sql, Object[] values) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            PSqlStatement.bindAll(statement, values);
+            statement.execute();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Inserts all the rows in a single transaction with one compiled statement. A row can be an array
+     * with the values in the order of the columns or an object with the columns as keys
+     */
+    @PhonkMethod(description = "Inserts many rows in a single transaction and returns how many were inserted", example = "")
+    @PhonkMethodParam(params = {"table", "columns[]", "rows[]"})
+    public int insertMany(String table, String[] columns, Object[] rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) sql.append(i == 0 ? "?" : ", ?");
+        sql.append(")");
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (Object row : rows) {
+                if (row instanceof Map) {
+                    statement.clearBindings();
+                    for (int i = 0; i < columns.length; i++) PSqlStatement.bind(statement, i + 1, ((Map<?, ?>) row).get(columns[i]));
+                } else if (row instanceof List) {
+                    PSqlStatement.bindAll(statement, (List<?>) row);
+                } else {
+                    PSqlStatement.bindAll(statement, (Object[]) row);
+                }
+                statement.executeInsert();
+                count++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+
+        return count;
+    }
+
+    @PhonkMethod(description = "Runs the function inside a transaction, the changes are discarded if it throws an error", example = "")
+    @PhonkMethodParam(params = {"function()"})
+    public void transaction(Runnable callback) {
+        db.beginTransaction();
+        try {
+            callback.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @PhonkMethod(description = "Runs a query with the values of the ? and returns the rows as objects", example = "")
+    @PhonkMethodParam(params = {"sql", "values[]"})
+    public PhonkNativeArray rows(String sql, Object[] values) {
+        PhonkNativeArray result = new PhonkNativeArray(0);
+        Cursor cursor = rawQuery(sql, values);
+        try {
+            int i = 0;
+            while (cursor.moveToNext()) result.addPE(i++, readRow(cursor));
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    @PhonkMethod(description = "Runs a query and returns an array of values for every column", example = "")
+    @PhonkMethodParam(params = {"sql", "values[]"})
+    public ReturnObject columns(String sql, Object[] values) {
+        Cursor cursor = rawQuery(sql, values);
+        try {
+            String[] names = cursor.getColumnNames();
+            PhonkNativeArray[] columns = new PhonkNativeArray[names.length];
+            for (int c = 0; c < names.length; c++) columns[c] = new PhonkNativeArray(cursor.getCount());
+
+            int row = 0;
+            while (cursor.moveToNext()) {
+                for (int c = 0; c < names.length; c++) columns[c].addPE(row, readValue(cursor, c));
+                row++;
+            }
+
+            ReturnObject result = new ReturnObject();
+            for (int c = 0; c < names.length; c++) result.put(names[c], columns[c]);
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Walks the result of a query calling the function with pages of rows, so big results are never
+     * kept whole in memory. The function gets { rows, page }
+     */
+    @PhonkMethod(description = "Runs a query and calls the function with pages of rows, returns the number of rows", example = "")
+    @PhonkMethodParam(params = {"sql", "values[]", "pageSize", "function(r)"})
+    public int pages(String sql, Object[] values, int pageSize, ReturnInterface callback) {
+        pageSize = Math.max(1, pageSize);
+        Cursor cursor = rawQuery(sql, values);
+        int count = 0;
+        int page = 0;
+        try {
+            PhonkNativeArray rows = new PhonkNativeArray(0);
+            int i = 0;
+            while (cursor.moveToNext()) {
+                rows.addPE(i++, readRow(cursor));
+                count++;
+                if (i == pageSize) {
+                    deliverPage(callback, rows, page++);
+                    rows = new PhonkNativeArray(0);
+                    i = 0;
+                }
+            }
+            if (i > 0) deliverPage(callback, rows, page);
+        } finally {
+            cursor.close();
+        }
+        return count;
+    }
+
+    private void deliverPage(ReturnInterface callback, PhonkNativeArray rows, int page) {
+        ReturnObject r = new ReturnObject();
+        r.put("rows", rows);
+        r.put("page", page);
+        callback.event(r);
+    }
+
+    // the values are bound with their types instead of as strings
+    private Cursor rawQuery(String sql, final Object[] values) {
+        return db.rawQueryWithFactory((database, driver, editTable, query) -> {
+            PSqlStatement.bindAll(query, values);
+            return new SQLiteCursor(driver, editTable, query);
+        }, sql, null, null);
+    }
+
+    private ReturnObject readRow(Cursor cursor) {
+        ReturnObject row = new ReturnObject();
+        for (int c = 0; c < cursor.getColumnCount(); c++) row.put(cursor.getColumnName(c), readValue(cursor, c));
+        return row;
+    }
+
+    private Object readValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
     @PhonkMethod(description = "Close the database connection", example = "")
     @PhonkMethodParam(params = {})
     public void close() {
+        for (PSqlStatement statement : mStatements) statement.close();
+        mStatements.clear();
         db.close();
     }
 
@@ -111,14 +311,14 @@ public class PSqLite extends ProtoBase {
     }
 
     public void stop() {
-        if (db != null) {
-            db.close();
+        if (db != null && db.isOpen()) {
+            close();
         }
     }
 
     @Override
     public void __stop() {
-
+        stop();
     }
 
     public static class DBDataType {
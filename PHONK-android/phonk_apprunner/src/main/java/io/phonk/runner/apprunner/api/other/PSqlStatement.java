@@ -0,0 +1,123 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.apprunner.api.other;
+
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.List;
+
+import io.phonk.runner.apidoc.annotation.PhonkClass;
+import io.phonk.runner.apidoc.annotation.PhonkMethod;
+import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
+
+/**
+ * A SQL sentence compiled once and run many times with different values
+ */
+@PhonkClass
+public class PSqlStatement {
+
+    private final SQLiteStatement mStatement;
+
+    PSqlStatement(SQLiteStatement statement) {
+        mStatement = statement;
+    }
+
+    @PhonkMethod(description = "Sets the values of the ? in order", example = "")
+    @PhonkMethodParam(params = {"values[]"})
+    public PSqlStatement bind(Object[] values) {
+        bindAll(mStatement, values);
+        return this;
+    }
+
+    @PhonkMethod(description = "Runs the statement", example = "")
+    public void execute() {
+        mStatement.execute();
+    }
+
+    @PhonkMethod(description = "Runs an INSERT and returns the id of the new row", example = "")
+    @PhonkMethodParam(params = {"values[]"})
+    public long insert(Object[] values) {
+        bindAll(mStatement, values);
+        return mStatement.executeInsert();
+    }
+
+    @PhonkMethod(description = "Runs an UPDATE or DELETE and returns the number of rows changed", example = "")
+    @PhonkMethodParam(params = {"values[]"})
+    public int update(Object[] values) {
+        bindAll(mStatement, values);
+        return mStatement.executeUpdateDelete();
+    }
+
+    @PhonkMethod(description = "Runs a query that returns a single number", example = "")
+    @PhonkMethodParam(params = {"values[]"})
+    public long queryNumber(Object[] values) {
+        bindAll(mStatement, values);
+        return mStatement.simpleQueryForLong();
+    }
+
+    @PhonkMethod(description = "Runs a query that returns a single text", example = "")
+    @PhonkMethodParam(params = {"values[]"})
+    public String queryText(Object[] values) {
+        bindAll(mStatement, values);
+        return mStatement.simpleQueryForString();
+    }
+
+    @PhonkMethod(description = "Frees the statement", example = "")
+    public void close() {
+        mStatement.close();
+    }
+
+    SQLiteStatement statement() {
+        return mStatement;
+    }
+
+    static void bindAll(SQLiteProgram program, Object[] values) {
+        program.clearBindings();
+        if (values == null) return;
+        for (int i = 0; i < values.length; i++) bind(program, i + 1, values[i]);
+    }
+
+    static void bindAll(SQLiteProgram program, List<?> values) {
+        program.clearBindings();
+        for (int i = 0; i < values.size(); i++) bind(program, i + 1, values.get(i));
+    }
+
+    // binds with the type of the value, numbers without decimals are bound as integers
+    static void bind(SQLiteProgram program, int index, Object value) {
+        if (value == null) {
+            program.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 9.007199254740992E15) program.bindLong(index, (long) d);
+            else program.bindDouble(index, d);
+        } else if (value instanceof Number) {
+            program.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            program.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            program.bindBlob(index, (byte[]) value);
+        } else {
+            program.bindString(index, value.toString());
+        }
+    }
+}
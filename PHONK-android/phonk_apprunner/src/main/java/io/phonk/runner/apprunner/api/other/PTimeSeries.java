@@ -0,0 +1,457 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.apprunner.api.other;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import io.phonk.runner.apidoc.annotation.PhonkClass;
+import io.phonk.runner.apidoc.annotation.PhonkMethod;
+import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
+import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.ProtoBase;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.interpreter.PhonkNativeArray;
+import io.phonk.runner.base.utils.MLog;
+
+/**
+ * Stores (time, series, value) samples in a SQLite database.
+ *
+ * Raw samples go to one table per day so old days are dropped instead of deleted row by row.
+ * Every sample also updates the 1 second, 1 minute and 1 hour rollups (count, sum, min, max)
+ * so long ranges are read from a few rows. Samples are kept in memory and written together in a
+ * single transaction every flush period. Times are milliseconds since epoch
+ */
+@PhonkClass
+public class PTimeSeries extends ProtoBase {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long[] LEVELS = {1000L, 60 * 1000L, 60 * 60 * 1000L};
+    private static final String[] LEVEL_NAMES = {"1s", "1m", "1h"};
+    private static final int SERIES_BITS = 20;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final PSqLite mSqLite;
+    private final SQLiteDatabase mDb;
+
+    // series name -> id
+    private final HashMap<String, Integer> mSeries = new HashMap<>();
+    private final HashSet<Long> mPartitions = new HashSet<>();
+    // partitions created by the transaction in progress, they only count once it commits
+    private final HashSet<Long> mNewPartitions = new HashSet<>();
+
+    // pending samples, parallel arrays that grow as needed
+    private long[] mTimes = new long[1024];
+    private int[] mSeriesIds = new int[1024];
+    private double[] mValues = new double[1024];
+    private int mPending = 0;
+
+    // pending rollups for every level, key is bucket index and series
+    private final ArrayList<HashMap<Long, Rollup>> mRollups = new ArrayList<>();
+
+    // policies
+    private int mFlushIntervalMs = 1000;
+    private long[] mRetentionMs = {0, 0, 0, 0};
+    private int mVacuumPages = 256;
+    private long mLastMaintenance = 0;
+    private static final long MAINTENANCE_INTERVAL = 60 * 60 * 1000L;
+
+    private static class Rollup {
+        final int series;
+        final long bucket;
+        long count;
+        double sum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        Rollup(int series, long bucket) {
+            this.series = series;
+            this.bucket = bucket;
+        }
+    }
+
+    private final Runnable mPeriodicFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            mHandler.postDelayed(this, mFlushIntervalMs);
+        }
+    };
+
+    public PTimeSeries(AppRunner appRunner, String dbName) {
+        super(appRunner);
+        mSqLite = new PSqLite(appRunner, dbName);
+        mDb = mSqLite.database();
+
+        // free pages can only be given back in small steps in incremental mode, an existing file only
+        // switches to it after a full VACUUM, done once
+        if (autoVacuumMode() != AUTO_VACUUM_INCREMENTAL) {
+            mDb.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+            mDb.execSQL("VACUUM");
+        }
+
+        mDb.execSQL("CREATE TABLE IF NOT EXISTS series (id INTEGER PRIMARY KEY, name TEXT UNIQUE NOT NULL)");
+        for (String level : LEVEL_NAMES) {
+            mDb.execSQL("CREATE TABLE IF NOT EXISTS rollup_" + level
+                    + " (s INTEGER NOT NULL, b INTEGER NOT NULL, n INTEGER NOT NULL, sum REAL NOT NULL,"
+                    + " min REAL NOT NULL, max REAL NOT NULL, PRIMARY KEY (s, b))");
+            mRollups.add(new HashMap<>());
+        }
+
+        Cursor cursor = mDb.rawQuery("SELECT id, name FROM series", null);
+        try {
+            while (cursor.moveToNext()) mSeries.put(cursor.getString(1), cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = mDb.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name LIKE 'raw_%'", null);
+        try {
+            while (cursor.moveToNext()) mPartitions.add(Long.parseLong(cursor.getString(0).substring(4)));
+        } finally {
+            cursor.close();
+        }
+
+        mHandler.postDelayed(mPeriodicFlush, mFlushIntervalMs);
+    }
+
+    @PhonkMethod(description = "Adds a value to a series with the current time", example = "")
+    @PhonkMethodParam(params = {"series", "value"})
+    public void append(String series, double value) {
+        append(series, value, System.currentTimeMillis());
+    }
+
+    @PhonkMethod(description = "Adds a value to a series at the given time in milliseconds", example = "")
+    @PhonkMethodParam(params = {"series", "value", "time"})
+    public void append(String series, double value, long time) {
+        int id = seriesId(series);
+
+        if (mPending == mTimes.length) {
+            int size = mTimes.length * 2;
+            mTimes = Arrays.copyOf(mTimes, size);
+            mSeriesIds = Arrays.copyOf(mSeriesIds, size);
+            mValues = Arrays.copyOf(mValues, size);
+        }
+        mTimes[mPending] = time;
+        mSeriesIds[mPending] = id;
+        mValues[mPending] = value;
+        mPending++;
+
+        for (int l = 0; l < LEVELS.length; l++) {
+            long bucket = time / LEVELS[l];
+            long key = (bucket << SERIES_BITS) | id;
+            HashMap<Long, Rollup> rollups = mRollups.get(l);
+            Rollup rollup = rollups.get(key);
+            if (rollup == null) {
+                rollup = new Rollup(id, bucket * LEVELS[l]);
+                rollups.put(key, rollup);
+            }
+            rollup.count++;
+            rollup.sum += value;
+            if (value < rollup.min) rollup.min = value;
+            if (value > rollup.max) rollup.max = value;
+        }
+    }
+
+    @PhonkMethod(description = "Writes the pending samples and rollups in a single transaction", example = "")
+    public void flush() {
+        if (mPending == 0 || !mDb.isOpen()) return;
+
+        mNewPartitions.clear();
+        try {
+            mDb.beginTransaction();
+            try {
+                writeRaw();
+                for (int l = 0; l < LEVELS.length; l++) writeRollups(l);
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+            mPartitions.addAll(mNewPartitions);
+        } catch (SQLException e) {
+            // retrying the same samples would fail again and they would pile up, they are dropped
+            MLog.e(TAG, "cannot write " + mPending + " samples, they are dropped: " + e);
+        } finally {
+            mNewPartitions.clear();
+            mPending = 0;
+            for (HashMap<Long, Rollup> rollups : mRollups) rollups.clear();
+        }
+
+        if (System.currentTimeMillis() - mLastMaintenance > MAINTENANCE_INTERVAL) maintenance();
+    }
+
+    private void writeRaw() {
+        long partition = -1;
+        SQLiteStatement insert = null;
+        try {
+            for (int i = 0; i < mPending; i++) {
+                long day = Math.max(0, mTimes[i] / DAY);
+                if (day != partition) {
+                    if (insert != null) insert.close();
+                    partition = day;
+                    insert = mDb.compileStatement("INSERT INTO " + partitionTable(day) + " (t, s, v) VALUES (?, ?, ?)");
+                }
+                insert.bindLong(1, mTimes[i]);
+                insert.bindLong(2, mSeriesIds[i]);
+                insert.bindDouble(3, mValues[i]);
+                insert.executeInsert();
+            }
+        } finally {
+            if (insert != null) insert.close();
+        }
+    }
+
+    private void writeRollups(int level) {
+        // upsert in two steps, INSERT ... ON CONFLICT is not available in the sqlite of older devices
+        SQLiteStatement insert = mDb.compileStatement("INSERT OR IGNORE INTO rollup_" + LEVEL_NAMES[level]
+                + " (s, b, n, sum, min, max) VALUES (?, ?, 0, 0, ?, ?)");
+        SQLiteStatement update = mDb.compileStatement("UPDATE rollup_" + LEVEL_NAMES[level]
+                + " SET n = n + ?, sum = sum + ?, min = MIN(min, ?), max = MAX(max, ?) WHERE s = ? AND b = ?");
+        try {
+            for (Rollup r : mRollups.get(level).values()) {
+                insert.bindLong(1, r.series);
+                insert.bindLong(2, r.bucket);
+                insert.bindDouble(3, r.min);
+                insert.bindDouble(4, r.max);
+                insert.executeInsert();
+
+                update.bindLong(1, r.count);
+                update.bindDouble(2, r.sum);
+                update.bindDouble(3, r.min);
+                update.bindDouble(4, r.max);
+                update.bindLong(5, r.series);
+                update.bindLong(6, r.bucket);
+                update.executeUpdateDelete();
+            }
+        } finally {
+            insert.close();
+            update.close();
+        }
+    }
+
+    /**
+     * Returns { time, value } for raw samples or { time, count, avg, min, max } for a rollup.
+     * 'auto' takes the finest rollup that gives at most maxPoints buckets for the range
+     */
+    @PhonkMethod(description = "Values of a series between two times. Resolution is 'raw', '1s', '1m', '1h' or 'auto'", example = "")
+    @PhonkMethodParam(params = {"series", "from", "to", "resolution", "maxPoints"})
+    public ReturnObject range(String series, long from, long to, String resolution, int maxPoints) {
+        flush();
+
+        Integer id = mSeries.get(series);
+        int level = levelFor(resolution, to - from, maxPoints);
+        ReturnObject result = new ReturnObject();
+        result.put("series", series);
+        result.put("resolution", level < 0 ? "raw" : LEVEL_NAMES[level]);
+
+        PhonkNativeArray time = new PhonkNativeArray(0);
+        result.put("time", time);
+
+        if (level < 0) {
+            PhonkNativeArray value = new PhonkNativeArray(0);
+            result.put("value", value);
+            if (id == null) return result;
+
+            int i = 0;
+            for (long day = Math.max(0, from / DAY); day <= to / DAY; day++) {
+                if (!mPartitions.contains(day)) continue;
+                Cursor cursor = mDb.rawQuery("SELECT t, v FROM " + partitionTable(day)
+                                + " WHERE s = ? AND t >= ? AND t <= ? ORDER BY t",
+                        new String[]{id.toString(), Long.toString(from), Long.toString(to)});
+                try {
+                    while (cursor.moveToNext()) {
+                        time.addPE(i, cursor.getLong(0));
+                        value.addPE(i, cursor.getDouble(1));
+                        i++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } else {
+            PhonkNativeArray count = new PhonkNativeArray(0);
+            PhonkNativeArray avg = new PhonkNativeArray(0);
+            PhonkNativeArray min = new PhonkNativeArray(0);
+            PhonkNativeArray max = new PhonkNativeArray(0);
+            result.put("count", count);
+            result.put("avg", avg);
+            result.put("min", min);
+            result.put("max", max);
+            if (id == null) return result;
+
+            long start = from / LEVELS[level] * LEVELS[level];
+            Cursor cursor = mDb.rawQuery("SELECT b, n, sum, min, max FROM rollup_" + LEVEL_NAMES[level]
+                            + " WHERE s = ? AND b >= ? AND b <= ? ORDER BY b",
+                    new String[]{id.toString(), Long.toString(start), Long.toString(to)});
+            try {
+                int i = 0;
+                while (cursor.moveToNext()) {
+                    long n = cursor.getLong(1);
+                    time.addPE(i, cursor.getLong(0));
+                    count.addPE(i, n);
+                    avg.addPE(i, n == 0 ? 0 : cursor.getDouble(2) / n);
+                    min.addPE(i, cursor.getDouble(3));
+                    max.addPE(i, cursor.getDouble(4));
+                    i++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return result;
+    }
+
+    @PhonkMethod(description = "Values of a series between two times with the best resolution for up to 1000 points", example = "")
+    @PhonkMethodParam(params = {"series", "from", "to"})
+    public ReturnObject range(String series, long from, long to) {
+        return range(series, from, to, "auto", 1000);
+    }
+
+    @PhonkMethod(description = "Names of the series", example = "")
+    public PhonkNativeArray series() {
+        ArrayList<String> names = new ArrayList<>(mSeries.keySet());
+        Collections.sort(names);
+        PhonkNativeArray result = new PhonkNativeArray(names.size());
+        for (int i = 0; i < names.size(); i++) result.addPE(i, names.get(i));
+        return result;
+    }
+
+    /**
+     * Days to keep of raw samples and of each rollup, 0 keeps them forever. Checked every hour
+     */
+    @PhonkMethod(description = "Days to keep the raw samples and the 1s, 1m and 1h rollups, 0 keeps them forever", example = "")
+    @PhonkMethodParam(params = {"rawDays", "secondDays", "minuteDays", "hourDays"})
+    public PTimeSeries retention(float rawDays, float secondDays, float minuteDays, float hourDays) {
+        mRetentionMs = new long[]{(long) (rawDays * DAY), (long) (secondDays * DAY), (long) (minuteDays * DAY), (long) (hourDays * DAY)};
+        mLastMaintenance = 0;
+        return this;
+    }
+
+    @PhonkMethod(description = "Pages of free space given back to the storage after every retention pass, 0 disables it", example = "")
+    @PhonkMethodParam(params = {"pages"})
+    public PTimeSeries vacuumPages(int pages) {
+        mVacuumPages = Math.max(0, pages);
+        return this;
+    }
+
+    @PhonkMethod(description = "Milliseconds the samples are kept in memory before being written", example = "")
+    @PhonkMethodParam(params = {"ms"})
+    public PTimeSeries flushEvery(int ms) {
+        mFlushIntervalMs = Math.max(10, ms);
+        return this;
+    }
+
+    @PhonkMethod(description = "Applies the retention and vacuum policies now", example = "")
+    public void maintenance() {
+        mLastMaintenance = System.currentTimeMillis();
+        long now = mLastMaintenance;
+
+        if (mRetentionMs[0] > 0) {
+            long lastDay = (now - mRetentionMs[0]) / DAY;
+            for (Long day : new ArrayList<>(mPartitions)) {
+                if (day >= lastDay) continue;
+                mDb.execSQL("DROP TABLE IF EXISTS raw_" + day);
+                mPartitions.remove(day);
+            }
+        }
+        for (int l = 0; l < LEVELS.length; l++) {
+            if (mRetentionMs[l + 1] <= 0) continue;
+            mDb.delete("rollup_" + LEVEL_NAMES[l], "b < ?", new String[]{Long.toString(now - mRetentionMs[l + 1])});
+        }
+
+        if (mVacuumPages > 0) {
+            // the pragma frees pages while its result is stepped through
+            Cursor cursor = mDb.rawQuery("PRAGMA incremental_vacuum(" + mVacuumPages + ")", null);
+            try {
+                boolean more = true;
+                while (more) more = cursor.moveToNext();
+            } finally {
+                cursor.close();
+            }
+        }
+        MLog.d(TAG, "maintenance done, partitions " + mPartitions.size());
+    }
+
+    @PhonkMethod(description = "Writes the pending samples and closes the database", example = "")
+    public void close() {
+        mHandler.removeCallbacks(mPeriodicFlush);
+        if (!mDb.isOpen()) return;
+        flush();
+        mSqLite.close();
+    }
+
+    private int levelFor(String resolution, long span, int maxPoints) {
+        for (int l = 0; l < LEVEL_NAMES.length; l++) {
+            if (LEVEL_NAMES[l].equals(resolution)) return l;
+        }
+        if (!"auto".equals(resolution)) return -1;
+
+        for (int l = 0; l < LEVELS.length; l++) {
+            if (span / LEVELS[l] <= maxPoints) return l;
+        }
+        return LEVELS.length - 1;
+    }
+
+    private int seriesId(String name) {
+        Integer id = mSeries.get(name);
+        if (id != null) return id;
+
+        ContentValues row = new ContentValues();
+        row.put("name", name);
+        id = (int) mDb.insert("series", null, row);
+        if (id >= (1 << SERIES_BITS)) throw new IllegalStateException("too many series");
+        mSeries.put(name, id);
+        return id;
+    }
+
+    private String partitionTable(long day) {
+        if (!mPartitions.contains(day) && mNewPartitions.add(day)) {
+            mDb.execSQL("CREATE TABLE IF NOT EXISTS raw_" + day + " (t INTEGER NOT NULL, s INTEGER NOT NULL, v REAL NOT NULL)");
+            mDb.execSQL("CREATE INDEX IF NOT EXISTS raw_" + day + "_st ON raw_" + day + " (s, t)");
+        }
+        return "raw_" + day;
+    }
+
+    private int autoVacuumMode() {
+        Cursor cursor = mDb.rawQuery("PRAGMA auto_vacuum", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void __stop() {
+        close();
+    }
+}
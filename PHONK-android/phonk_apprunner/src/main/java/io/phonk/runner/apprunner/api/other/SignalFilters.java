@@ -0,0 +1,292 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.api.other;
+
+import java.util.Arrays;
+
+import io.phonk.runner.apidoc.annotation.PhonkClass;
+import io.phonk.runner.apidoc.annotation.PhonkMethod;
+import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
+
+/**
+ * Streaming filters that work on single samples or on blocks of samples without allocating,
+ * so they can run at the sensor rate
+ */
+public class SignalFilters {
+
+    public interface Filter {
+        float filter(float value);
+
+        float[] filter(float[] in, float[] out);
+
+        void reset();
+    }
+
+    /*
+     * processes a block, when out is null the input is filtered in place
+     */
+    static float[] filterBlock(Filter f, float[] in, float[] out) {
+        if (out == null) out = in;
+        for (int i = 0; i < in.length; i++) out[i] = f.filter(in[i]);
+        return out;
+    }
+
+    /**
+     * Average of the last n samples using a ring buffer and a running sum
+     */
+    @PhonkClass
+    public static class MovingAverage implements Filter {
+        private final float[] values;
+        private int pos = 0;
+        private int count = 0;
+        private double sum = 0;
+
+        public MovingAverage(int n) {
+            values = new float[Math.max(1, n)];
+        }
+
+        @Override
+        @PhonkMethod(description = "Adds a sample and returns the average of the last n samples", example = "")
+        @PhonkMethodParam(params = {"value"})
+        public float filter(float value) {
+            if (count == values.length) sum -= values[pos];
+            else count++;
+
+            values[pos] = value;
+            sum += value;
+            pos++;
+
+            // recompute the sum once per turn so rounding errors do not accumulate
+            if (pos == values.length) {
+                pos = 0;
+                sum = 0;
+                for (int i = 0; i < count; i++) sum += values[i];
+            }
+
+            return (float) (sum / count);
+        }
+
+        @Override
+        @PhonkMethod(description = "Filters a block of samples into out, or in place if out is null", example = "")
+        @PhonkMethodParam(params = {"in", "out"})
+        public float[] filter(float[] in, float[] out) {
+            return filterBlock(this, in, out);
+        }
+
+        @Override
+        @PhonkMethod(description = "Clears the filter state", example = "")
+        public void reset() {
+            pos = 0;
+            count = 0;
+            sum = 0;
+        }
+    }
+
+    /**
+     * Exponential moving average, y = y + alpha * (x - y)
+     */
+    @PhonkClass
+    public static class ExponentialSmoothing implements Filter {
+        private float alpha;
+        private float value;
+        private boolean initialized = false;
+
+        public ExponentialSmoothing(float alpha) {
+            alpha(alpha);
+        }
+
+        @PhonkMethod(description = "Sets the smoothing factor between 0 and 1, lower values smooth more", example = "")
+        @PhonkMethodParam(params = {"alpha"})
+        public ExponentialSmoothing alpha(float alpha) {
+            this.alpha = Math.max(0, Math.min(1, alpha));
+            return this;
+        }
+
+        @Override
+        @PhonkMethod(description = "Adds a sample and returns the smoothed value", example = "")
+        @PhonkMethodParam(params = {"value"})
+        public float filter(float x) {
+            if (!initialized) {
+                value = x;
+                initialized = true;
+            } else {
+                value += alpha * (x - value);
+            }
+            return value;
+        }
+
+        @Override
+        @PhonkMethod(description = "Filters a block of samples into out, or in place if out is null", example = "")
+        @PhonkMethodParam(params = {"in", "out"})
+        public float[] filter(float[] in, float[] out) {
+            return filterBlock(this, in, out);
+        }
+
+        @Override
+        @PhonkMethod(description = "Clears the filter state", example = "")
+        public void reset() {
+            initialized = false;
+        }
+    }
+
+    /**
+     * Second order IIR filter (RBJ audio EQ cookbook) in transposed direct form II
+     */
+    @PhonkClass
+    public static class Biquad implements Filter {
+        public static final String LOWPASS = "lowpass";
+        public static final String HIGHPASS = "highpass";
+        public static final String BANDPASS = "bandpass";
+        public static final String NOTCH = "notch";
+
+        private double b0, b1, b2, a1, a2;
+        private double z1, z2;
+
+        public Biquad(String type, float sampleRate, float frequency, float q) {
+            set(type, sampleRate, frequency, q);
+        }
+
+        @PhonkMethod(description = "Changes the filter type ('lowpass', 'highpass', 'bandpass', 'notch'), sample rate, cutoff / center frequency and Q", example = "")
+        @PhonkMethodParam(params = {"type", "sampleRate", "frequency", "q"})
+        public Biquad set(String type, float sampleRate, float frequency, float q) {
+            if (q <= 0) q = 0.7071f;
+            double w0 = 2 * Math.PI * frequency / sampleRate;
+            double cos = Math.cos(w0);
+            double alpha = Math.sin(w0) / (2 * q);
+            double a0;
+
+            switch (type) {
+                case LOWPASS:
+                    b0 = (1 - cos) / 2;
+                    b1 = 1 - cos;
+                    b2 = (1 - cos) / 2;
+                    break;
+                case HIGHPASS:
+                    b0 = (1 + cos) / 2;
+                    b1 = -(1 + cos);
+                    b2 = (1 + cos) / 2;
+                    break;
+                case BANDPASS:
+                    b0 = alpha;
+                    b1 = 0;
+                    b2 = -alpha;
+                    break;
+                case NOTCH:
+                    b0 = 1;
+                    b1 = -2 * cos;
+                    b2 = 1;
+                    break;
+                default:
+                    throw new RuntimeException("Unknown filter type " + type);
+            }
+            a0 = 1 + alpha;
+            a1 = -2 * cos / a0;
+            a2 = (1 - alpha) / a0;
+            b0 /= a0;
+            b1 /= a0;
+            b2 /= a0;
+
+            return this;
+        }
+
+        @Override
+        @PhonkMethod(description = "Adds a sample and returns the filtered value", example = "")
+        @PhonkMethodParam(params = {"value"})
+        public float filter(float x) {
+            double y = b0 * x + z1;
+            z1 = b1 * x - a1 * y + z2;
+            z2 = b2 * x - a2 * y;
+            return (float) y;
+        }
+
+        @Override
+        @PhonkMethod(description = "Filters a block of samples into out, or in place if out is null", example = "")
+        @PhonkMethodParam(params = {"in", "out"})
+        public float[] filter(float[] in, float[] out) {
+            return filterBlock(this, in, out);
+        }
+
+        @Override
+        @PhonkMethod(description = "Clears the filter state", example = "")
+        public void reset() {
+            z1 = 0;
+            z2 = 0;
+        }
+    }
+
+    /**
+     * Median of the last n samples. Keeps the window sorted, each sample costs a binary search
+     * and a move of at most n elements which is cheap for the small windows used to remove spikes
+     */
+    @PhonkClass
+    public static class RunningMedian implements Filter {
+        private final float[] ring;
+        private final float[] sorted;
+        private int pos = 0;
+        private int count = 0;
+
+        public RunningMedian(int n) {
+            ring = new float[Math.max(1, n)];
+            sorted = new float[ring.length];
+        }
+
+        @Override
+        @PhonkMethod(description = "Adds a sample and returns the median of the last n samples", example = "")
+        @PhonkMethodParam(params = {"value"})
+        public float filter(float value) {
+            if (count == ring.length) {
+                // remove the oldest sample from the sorted window
+                int idx = Arrays.binarySearch(sorted, 0, count, ring[pos]);
+                System.arraycopy(sorted, idx + 1, sorted, idx, count - idx - 1);
+                count--;
+            }
+
+            int idx = Arrays.binarySearch(sorted, 0, count, value);
+            if (idx < 0) idx = -idx - 1;
+            System.arraycopy(sorted, idx, sorted, idx + 1, count - idx);
+            sorted[idx] = value;
+            count++;
+
+            ring[pos] = value;
+            pos = (pos + 1) % ring.length;
+
+            int mid = count / 2;
+            if (count % 2 == 1) return sorted[mid];
+            return (sorted[mid - 1] + sorted[mid]) / 2;
+        }
+
+        @Override
+        @PhonkMethod(description = "Filters a block of samples into out, or in place if out is null", example = "")
+        @PhonkMethodParam(params = {"in", "out"})
+        public float[] filter(float[] in, float[] out) {
+            return filterBlock(this, in, out);
+        }
+
+        @Override
+        @PhonkMethod(description = "Clears the filter state", example = "")
+        public void reset() {
+            pos = 0;
+            count = 0;
+        }
+    }
+}
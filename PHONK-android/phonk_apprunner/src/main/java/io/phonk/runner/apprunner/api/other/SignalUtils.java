@@ -22,69 +22,101 @@
 
 package io.phonk.runner.apprunner.api.other;
 
+import java.util.Arrays;
+
 import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.ProtoBase;
 import io.phonk.runner.base.utils.FFT;
+import io.phonk.runner.base.utils.RealFFT;
+import io.phonk.runner.base.utils.SpectrumStream;
 
 public class SignalUtils extends ProtoBase {
 
+    final int n;
     final FFT fft;
     final double[] im;
+    final RealFFT realFFT;
+    final float[] spectrum;
 
     public SignalUtils(AppRunner appRunner, int n) {
         super(appRunner);
+        this.n = n;
         fft = new FFT(n);
         im = new double[n];
-
-        for (int i = 0; i < n; i++) {
-            im[i] = 0;
-        }
+        realFFT = new RealFFT(n);
+        spectrum = new float[realFFT.bins()];
     }
 
-    public LowPass lowpass() {
-        return null;
+    @PhonkMethod(description = "Returns a second order low pass filter", example = "")
+    @PhonkMethodParam(params = {"sampleRate", "frequency"})
+    public SignalFilters.Biquad lowpass(float sampleRate, float frequency) {
+        return new SignalFilters.Biquad(SignalFilters.Biquad.LOWPASS, sampleRate, frequency, 0.7071f);
     }
 
 
     @PhonkMethod(description = "", example = "")
     @PhonkMethodParam(params = {"function()"})
     public double[] fft(double[] re) {
-        fft.fft(re, im.clone());
+        // the imaginary part is reused, it only needs to be zeroed
+        Arrays.fill(im, 0);
+        fft.fft(re, im);
 
         return re;
     }
 
-    @Override
-    public void __stop() {
+    @PhonkMethod(description = "Window applied before computing the spectrum: 'rectangular', 'hann', 'hamming' or 'blackman'", example = "")
+    @PhonkMethodParam(params = {"type"})
+    public SignalUtils window(String type) {
+        realFFT.window(type);
+
+        return this;
+    }
+
+    @PhonkMethod(description = "Magnitude spectrum (n / 2 + 1 bins) of n real samples. The returned array is reused", example = "")
+    @PhonkMethodParam(params = {"samples"})
+    public float[] magnitude(double[] samples) {
+        return realFFT.magnitude(samples, spectrum);
+    }
 
+    @PhonkMethod(description = "Magnitude spectrum (n / 2 + 1 bins) of n real samples written into the given array", example = "")
+    @PhonkMethodParam(params = {"samples", "out"})
+    public float[] magnitude(float[] samples, float[] out) {
+        return realFFT.magnitude(samples, out);
     }
 
-    static class LowPass {
-        final int n;
-        final float[] vals;
-        float sum = 0.0f;
+    @PhonkMethod(description = "Power spectrum (n / 2 + 1 bins) of n real samples. The returned array is reused", example = "")
+    @PhonkMethodParam(params = {"samples"})
+    public float[] power(double[] samples) {
+        return realFFT.power(samples, spectrum);
+    }
+
+    @PhonkMethod(description = "Power spectrum (n / 2 + 1 bins) of n real samples written into the given array", example = "")
+    @PhonkMethodParam(params = {"samples", "out"})
+    public float[] power(float[] samples, float[] out) {
+        return realFFT.power(samples, out);
+    }
 
-        public LowPass(int n) {
-            this.n = n;
-            vals = new float[n];
-        }
+    @PhonkMethod(description = "Returns a new array to be used as output of magnitude and power", example = "")
+    public float[] newSpectrumArray() {
+        return new float[realFFT.bins()];
+    }
 
-        public float smooth(float newVal) {
+    @PhonkMethod(description = "Frequency in Hz of a spectrum bin for the given sample rate", example = "")
+    @PhonkMethodParam(params = {"bin", "sampleRate"})
+    public double binFrequency(int bin, double sampleRate) {
+        return bin * sampleRate / n;
+    }
 
-            for (int i = 0; i < vals.length; i++) {
-                sum += vals[i];
+    @PhonkMethod(description = "Sliding spectrum, push samples to it and the function gets the magnitudes every 'hop' samples", example = "")
+    @PhonkMethodParam(params = {"hop", "window", "function(magnitudes)"})
+    public SpectrumStream stream(int hop, String window, SpectrumStream.SpectrumListener callback) {
+        return new SpectrumStream(n, hop, window).onSpectrum(callback);
+    }
 
-                // shift to the left
-                if (i < vals.length - 1) {
-                    vals[i] = vals[i + 1];
-                } else {
-                    vals[i] = newVal;
-                }
-            }
-            return sum / n;
-        }
+    @Override
+    public void __stop() {
 
     }
-}
\ No newline at end of file
+}
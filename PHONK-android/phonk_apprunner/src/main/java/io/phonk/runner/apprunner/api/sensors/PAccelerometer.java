@@ -32,7 +32,6 @@ import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.common.ReturnInterface;
 import io.phonk.runner.apprunner.api.common.ReturnObject;
-import io.phonk.runner.base.utils.MLog;
 
 @PhonkClass(mergeFrom = "CustomSensorManager")
 public class PAccelerometer extends PCustomSensorManager {
@@ -56,13 +55,12 @@ public class PAccelerometer extends PCustomSensorManager {
                     r.put("x", event.values[0]);
                     r.put("y", event.values[1]);
                     r.put("z", event.values[2]);
-                    float force = (float) Math.sqrt(Math.pow(event.values[0], 2) + Math.pow(
-                            event.values[1],
-                            2
-                    ) + Math.pow(event.values[2], 2));
+                    float x = event.values[0];
+                    float y = event.values[1];
+                    float z = event.values[2];
+                    float force = (float) Math.sqrt(x * x + y * y + z * z);
                     r.put("force", force);
                     mCallback.event(r);
-                    MLog.d(TAG, "accelerometer changed");
                 }
             }
 
@@ -79,7 +77,7 @@ public class PAccelerometer extends PCustomSensorManager {
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
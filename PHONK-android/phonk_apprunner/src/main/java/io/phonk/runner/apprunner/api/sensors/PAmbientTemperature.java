@@ -71,7 +71,7 @@ public class PAmbientTemperature extends PCustomSensorManager {
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
@@ -53,9 +53,11 @@ public class PBarometer extends PCustomSensorManager implements WhatIsRunningInt
 
             @Override
             public void onSensorChanged(SensorEvent event) {
-                ReturnObject r = new ReturnObject();
-                r.put("bar", event.values[0]);
-                mCallback.event(r);
+                if (mCallback != null) {
+                    ReturnObject r = new ReturnObject();
+                    r.put("bar", event.values[0]);
+                    mCallback.event(r);
+                }
             }
 
             @Override
@@ -71,7 +73,7 @@ public class PBarometer extends PCustomSensorManager implements WhatIsRunningInt
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
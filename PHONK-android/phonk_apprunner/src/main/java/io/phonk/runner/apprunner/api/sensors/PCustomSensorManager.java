@@ -24,14 +24,18 @@ package io.phonk.runner.apprunner.api.sensors;
 
 import android.content.Context;
 import android.hardware.Sensor;
+import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
 
 import io.phonk.runner.apidoc.annotation.PhonkClass;
 import io.phonk.runner.apidoc.annotation.PhonkMethod;
 import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.common.ReturnInterface;
+import io.phonk.runner.apprunner.api.other.PDataRecorder;
 import io.phonk.runner.apprunner.api.other.WhatIsRunningInterface;
 import io.phonk.runner.apprunner.interpreter.AppRunnerInterpreter;
 
@@ -43,6 +47,19 @@ public abstract class PCustomSensorManager implements WhatIsRunningInterface {
     protected Sensor sensor;
     protected SensorEventListener mListener;
     protected ReturnInterface mCallback;
+    // the fast path reuses the same record for every event so nothing is allocated per sample
+    protected final SensorRecord mRecord = new SensorRecord();
+    protected SensorRecordCallback mRecordCallback;
+    // events are delivered in the thread running the script
+    protected final Handler mHandler;
+    // batched mode, samples wait in the hardware fifo up to mMaxReportLatencyUs
+    protected final SensorBatch mBatch = new SensorBatch();
+    protected SensorBatchCallback mBatchCallback;
+    protected int mMaxReportLatencyUs = 0;
+    protected boolean mWakeUp = false;
+    // samples go straight to the recorder without passing through the script
+    protected PDataRecorder mRecorder;
+    private boolean mBatchPending = false;
     protected int speed = SensorManager.SENSOR_DELAY_FASTEST;
     protected int type = -1;
     protected boolean isEnabled = false;
@@ -50,6 +67,68 @@ public abstract class PCustomSensorManager implements WhatIsRunningInterface {
     public PCustomSensorManager(AppRunner appRunner) {
         mAppRunner = appRunner;
         mSensormanager = (SensorManager) mAppRunner.getAppContext().getSystemService(Context.SENSOR_SERVICE);
+        mHandler = new Handler(appRunner.getScriptLooper());
+    }
+
+    /**
+     * Registers the sensor. Every event goes first to the fast path and then to the listener of the sensor
+     */
+    protected void register() {
+        if (mWakeUp && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Sensor wakeUpSensor = mSensormanager.getDefaultSensor(type, true);
+            if (wakeUpSensor != null) sensor = wakeUpSensor;
+        }
+
+        if (mMaxReportLatencyUs > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            isEnabled = mSensormanager.registerListener(mDispatcher, sensor, speed, mMaxReportLatencyUs, mHandler);
+        } else {
+            isEnabled = mSensormanager.registerListener(mDispatcher, sensor, speed, mHandler);
+        }
+    }
+
+    // a burst of batched events is read in one go, the batch is delivered once the burst ends
+    private final Runnable mDeliverBatch = () -> {
+        mBatchPending = false;
+        if (mBatchCallback != null && mBatch.size > 0) mBatchCallback.event(mBatch);
+        mBatch.clear();
+    };
+
+    private final SensorEventListener mDispatcher = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            if (mRecorder != null) mRecorder.write(event.timestamp, event.values);
+            if (mRecordCallback != null) {
+                mRecord.set(event);
+                mRecordCallback.event(mRecord);
+            }
+            if (mBatchCallback != null) {
+                mBatch.add(event.values, event.timestamp);
+                if (!mBatchPending && mBatch.size > 0) {
+                    mBatchPending = true;
+                    mHandler.post(mDeliverBatch);
+                }
+            }
+            if (mListener != null) mListener.onSensorChanged(event);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            if (mListener != null) mListener.onAccuracyChanged(sensor, accuracy);
+        }
+    };
+
+    @PhonkMethod(description = "Calls the function with a typed record for every sample. The record is reused, it is only valid inside the function", example = "")
+    @PhonkMethodParam(params = {"function(record)"})
+    public PCustomSensorManager onSample(final SensorRecordCallback callbackfn) {
+        mRecordCallback = callbackfn;
+        return this;
+    }
+
+    @PhonkMethod(description = "Writes every sample to the recorder, the script is not called. Pass null to stop recording", example = "")
+    @PhonkMethodParam(params = {"recorder"})
+    public PCustomSensorManager recordTo(PDataRecorder recorder) {
+        mRecorder = recorder;
+        return this;
     }
 
     @PhonkMethod(description = "Start the sensor", example = "")
@@ -71,11 +150,62 @@ public abstract class PCustomSensorManager implements WhatIsRunningInterface {
         return mSensormanager.getDefaultSensor(type) != null;
     }
 
-    @PhonkMethod(description = "Set the speed of the sensor 'slow', 'normal', 'fast'", example = "")
-    @PhonkMethodParam(params = {"speed=['slow', 'normal', 'fast']"})
+    @PhonkMethod(description = "Calls the function with the samples received together. The batch is reused, it is only valid inside the function", example = "")
+    @PhonkMethodParam(params = {"function(batch)"})
+    public PCustomSensorManager onBatch(final SensorBatchCallback callbackfn) {
+        mBatchCallback = callbackfn;
+        return this;
+    }
+
+    @PhonkMethod(description = "Keeps the samples in the hardware fifo up to the given latency so the device can sleep in between. Call it before start", example = "")
+    @PhonkMethodParam(params = {"maxLatencyMs"})
+    public PCustomSensorManager batch(int maxLatencyMs) {
+        return batch(maxLatencyMs, false);
+    }
+
+    @PhonkMethod(description = "Same as batch but it can use the wake up version of the sensor so no samples are lost while the device sleeps", example = "")
+    @PhonkMethodParam(params = {"maxLatencyMs", "wakeUp"})
+    public PCustomSensorManager batch(int maxLatencyMs, boolean wakeUp) {
+        mMaxReportLatencyUs = Math.max(0, maxLatencyMs) * 1000;
+        mWakeUp = wakeUp;
+        return this;
+    }
+
+    @PhonkMethod(description = "Aggregates every n samples into one using 'mean', 'min', 'max', 'first' or 'last'. Applies to onBatch", example = "")
+    @PhonkMethodParam(params = {"n", "mode=['mean', 'min', 'max', 'first', 'last']"})
+    public PCustomSensorManager decimate(int n, String mode) {
+        mBatch.setDecimation(n, mode);
+        return this;
+    }
+
+    @PhonkMethod(description = "Delivers the samples waiting in the hardware fifo", example = "")
+    public void flush() {
+        if (isEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) mSensormanager.flush(mDispatcher);
+    }
+
+    @PhonkMethod(description = "Number of samples the hardware fifo can keep", example = "")
+    public int fifoSize() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) return 0;
+        Sensor sensor = mSensormanager.getDefaultSensor(type);
+        if (sensor == null) return 0;
+        return sensor.getFifoMaxEventCount();
+    }
+
+    @PhonkMethod(description = "Sets the time between samples in milliseconds. Call it before start", example = "")
+    @PhonkMethodParam(params = {"ms"})
+    public PCustomSensorManager samplingPeriod(float ms) {
+        // values below 4 are the android constants
+        speed = Math.max(4, (int) (ms * 1000));
+        return this;
+    }
+
+    @PhonkMethod(description = "Set the speed of the sensor 'slow', 'normal', 'game', 'fast'", example = "")
+    @PhonkMethodParam(params = {"speed=['slow', 'normal', 'game', 'fast']"})
     public void sensorSpeed(String speed) {
         if (speed.equals("slow")) {
             this.speed = SensorManager.SENSOR_DELAY_UI;
+        } else if (speed.equals("game")) {
+            this.speed = SensorManager.SENSOR_DELAY_GAME;
         } else if (speed.equals("fast")) {
             this.speed = SensorManager.SENSOR_DELAY_FASTEST;
         } else {
@@ -114,9 +244,11 @@ public abstract class PCustomSensorManager implements WhatIsRunningInterface {
     @PhonkMethodParam(params = {""})
     public void stop() {
         isEnabled = false;
-        if (mListener != null) {
-            mSensormanager.unregisterListener(mListener);
-            mListener = null;
-        }
+        mSensormanager.unregisterListener(mDispatcher);
+        mListener = null;
+        mRecorder = null;
+        mHandler.removeCallbacks(mDeliverBatch);
+        mBatchPending = false;
+        mBatch.clear();
     }
 }
@@ -52,11 +52,13 @@ public class PGyroscope extends PCustomSensorManager {
 
             @Override
             public void onSensorChanged(SensorEvent event) {
-                ReturnObject r = new ReturnObject();
-                r.put("x", event.values[0]);
-                r.put("y", event.values[1]);
-                r.put("z", event.values[2]);
-                mCallback.event(r);
+                if (mCallback != null) {
+                    ReturnObject r = new ReturnObject();
+                    r.put("x", event.values[0]);
+                    r.put("y", event.values[1]);
+                    r.put("z", event.values[2]);
+                    mCallback.event(r);
+                }
             }
 
             @Override
@@ -72,7 +74,7 @@ public class PGyroscope extends PCustomSensorManager {
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
@@ -56,9 +56,11 @@ public class PHumidity extends PCustomSensorManager implements WhatIsRunningInte
 
             @Override
             public void onSensorChanged(SensorEvent event) {
-                ReturnObject r = new ReturnObject();
-                r.put("humidity", event.values[0]);
-                mCallback.event(r);
+                if (mCallback != null) {
+                    ReturnObject r = new ReturnObject();
+                    r.put("humidity", event.values[0]);
+                    mCallback.event(r);
+                }
             }
 
             @Override
@@ -74,7 +76,7 @@ public class PHumidity extends PCustomSensorManager implements WhatIsRunningInte
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
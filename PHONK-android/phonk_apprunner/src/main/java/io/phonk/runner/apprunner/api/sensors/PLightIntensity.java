@@ -59,9 +59,11 @@ public class PLightIntensity extends PCustomSensorManager implements WhatIsRunni
 
             @Override
             public void onSensorChanged(SensorEvent event) {
-                ReturnObject r = new ReturnObject();
-                r.put("intensity", event.values[0]);
-                mCallbackLightChange.event(r);
+                if (mCallbackLightChange != null) {
+                    ReturnObject r = new ReturnObject();
+                    r.put("intensity", event.values[0]);
+                    mCallbackLightChange.event(r);
+                }
             }
 
             @Override
@@ -77,7 +79,7 @@ public class PLightIntensity extends PCustomSensorManager implements WhatIsRunni
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
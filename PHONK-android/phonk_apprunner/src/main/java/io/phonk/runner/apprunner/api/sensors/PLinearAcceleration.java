@@ -55,10 +55,10 @@ public class PLinearAcceleration extends PCustomSensorManager {
                     r.put("x", event.values[0]);
                     r.put("y", event.values[1]);
                     r.put("z", event.values[2]);
-                    float force = (float) Math.sqrt(Math.pow(event.values[0], 2) + Math.pow(
-                            event.values[1],
-                            2
-                    ) + Math.pow(event.values[2], 2));
+                    float x = event.values[0];
+                    float y = event.values[1];
+                    float z = event.values[2];
+                    float force = (float) Math.sqrt(x * x + y * y + z * z);
                     r.put("force", force);
                     mCallback.event(r);
                 }
@@ -78,7 +78,7 @@ public class PLinearAcceleration extends PCustomSensorManager {
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
@@ -56,11 +56,13 @@ public class PMagneticField extends PCustomSensorManager implements WhatIsRunnin
 
             @Override
             public void onSensorChanged(SensorEvent event) {
-                ReturnObject r = new ReturnObject();
-                r.put("x", event.values[0]);
-                r.put("y", event.values[1]);
-                r.put("z", event.values[2]);
-                mCallbackMagneticChange.event(r);
+                if (mCallbackMagneticChange != null) {
+                    ReturnObject r = new ReturnObject();
+                    r.put("x", event.values[0]);
+                    r.put("y", event.values[1]);
+                    r.put("z", event.values[2]);
+                    mCallbackMagneticChange.event(r);
+                }
             }
 
             @Override
@@ -76,7 +78,7 @@ public class PMagneticField extends PCustomSensorManager implements WhatIsRunnin
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
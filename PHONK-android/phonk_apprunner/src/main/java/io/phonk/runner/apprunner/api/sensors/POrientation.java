@@ -54,12 +54,14 @@ public class POrientation extends PCustomSensorManager implements WhatIsRunningI
 
             @Override
             public void onSensorChanged(SensorEvent event) {
-                ReturnObject r = new ReturnObject();
-                r.put("azimuth", event.values[0]);
-                r.put("pitch", event.values[1]);
-                r.put("roll", event.values[2]);
+                if (mCallbackOrientationChange != null) {
+                    ReturnObject r = new ReturnObject();
+                    r.put("azimuth", event.values[0]);
+                    r.put("pitch", event.values[1]);
+                    r.put("roll", event.values[2]);
 
-                mCallbackOrientationChange.event(r);
+                    mCallbackOrientationChange.event(r);
+                }
             }
 
             @Override
@@ -75,7 +77,7 @@ public class POrientation extends PCustomSensorManager implements WhatIsRunningI
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
@@ -56,9 +56,11 @@ public class PProximity extends PCustomSensorManager implements WhatIsRunningInt
 
             @Override
             public void onSensorChanged(SensorEvent event) {
-                ReturnObject r = new ReturnObject();
-                r.put("distance", event.values[0]);
-                mCallback.event(r);
+                if (mCallback != null) {
+                    ReturnObject r = new ReturnObject();
+                    r.put("distance", event.values[0]);
+                    mCallback.event(r);
+                }
             }
 
             @Override
@@ -74,7 +76,7 @@ public class PProximity extends PCustomSensorManager implements WhatIsRunningInt
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
@@ -0,0 +1,448 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.api.sensors;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import io.phonk.runner.apidoc.annotation.PhonkClass;
+import io.phonk.runner.apidoc.annotation.PhonkMethod;
+import io.phonk.runner.apidoc.annotation.PhonkMethodParam;
+import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.api.ProtoBase;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.api.other.PDataRecorder;
+import io.phonk.runner.apprunner.interpreter.AppRunnerInterpreter;
+
+/**
+ * Captures a set of sensors into a single preallocated ring buffer and delivers frames with all of
+ * them aligned to the same timestamp at a fixed rate.
+ *
+ * Frames follow the sensor clock, a frame at time t is only built once every continuous sensor has
+ * a sample newer than t so the values can be interpolated between the samples around it.
+ * Sensors that only report on change (light, proximity...) keep their last value
+ */
+@PhonkClass
+public class PSensorCapture extends ProtoBase {
+    private static final int STRIDE = 4;
+
+    private static final HashMap<String, int[]> SENSORS = new HashMap<>();
+
+    static {
+        // name -> type, dimensions
+        SENSORS.put("accelerometer", new int[]{Sensor.TYPE_ACCELEROMETER, 3});
+        SENSORS.put("linearAcceleration", new int[]{Sensor.TYPE_LINEAR_ACCELERATION, 3});
+        SENSORS.put("gravity", new int[]{Sensor.TYPE_GRAVITY, 3});
+        SENSORS.put("gyroscope", new int[]{Sensor.TYPE_GYROSCOPE, 3});
+        SENSORS.put("magneticField", new int[]{Sensor.TYPE_MAGNETIC_FIELD, 3});
+        SENSORS.put("rotationVector", new int[]{Sensor.TYPE_ROTATION_VECTOR, 4});
+        SENSORS.put("gameRotationVector", new int[]{Sensor.TYPE_GAME_ROTATION_VECTOR, 4});
+        SENSORS.put("orientation", new int[]{Sensor.TYPE_ORIENTATION, 3});
+        SENSORS.put("light", new int[]{Sensor.TYPE_LIGHT, 1});
+        SENSORS.put("barometer", new int[]{Sensor.TYPE_PRESSURE, 1});
+        SENSORS.put("proximity", new int[]{Sensor.TYPE_PROXIMITY, 1});
+    }
+
+    private final SensorManager mSensorManager;
+
+    // configuration
+    private final ArrayList<String> mNames = new ArrayList<>();
+    private final HashMap<String, Integer> mOffsets = new HashMap<>();
+    private final HashMap<String, Integer> mDimensions = new HashMap<>();
+    private int[] mTypes = new int[0];
+    private int[] mDims = new int[0];
+    private int mCapacity = 4096;
+    private int mSamplingPeriodUs = SensorManager.SENSOR_DELAY_FASTEST;
+    private int mMaxReportLatencyUs = 0;
+    private long mFramePeriodNs = 20000000;
+    private boolean mInterpolate = true;
+    private SensorFrameCallback mCallback;
+    private PDataRecorder mRecorder;
+
+    // ring buffer shared by all the sensors, every sensor links its own samples
+    private int[] mSensor;
+    private long[] mTime;
+    private float[] mValues;
+    private long[] mSeq;
+    private int[] mNext;
+    private long[] mNextSeq;
+    private long mWriteSeq = 0;
+
+    // per sensor state
+    private int[] mLastSlot;
+    private long[] mLastSeq;
+    private long[] mLastTime;
+    private float[] mLastValues;
+    private int[] mCursor;
+    private long[] mCursorSeq;
+    // samples written per sensor and how many of them come before the cursor, to count the lost ones
+    private long[] mWritten;
+    private long[] mCursorIndex;
+    private long[] mFirstTime;
+    // continuous sensors decide up to when frames can be built, on change sensors just hold their value
+    private boolean[] mGates;
+    private int mGatesWithData = 0;
+
+    private SensorFrame mFrame;
+    private long mNextFrame = -1;
+    private boolean mRunning = false;
+
+    // stats
+    private long mSamples = 0;
+    private long mFrames = 0;
+    private long mLostSamples = 0;
+
+    private final SensorEventListener mListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            int type = event.sensor.getType();
+            for (int s = 0; s < mTypes.length; s++) {
+                if (mTypes[s] == type) {
+                    write(s, event.timestamp, event.values);
+                    break;
+                }
+            }
+            produceFrames();
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    public PSensorCapture(AppRunner appRunner) {
+        super(appRunner);
+        mSensorManager = (SensorManager) appRunner.getAppContext().getSystemService(Context.SENSOR_SERVICE);
+    }
+
+    @PhonkMethod(description = "Adds a sensor to the capture: accelerometer, linearAcceleration, gravity, gyroscope, magneticField, rotationVector, gameRotationVector, orientation, light, barometer, proximity", example = "")
+    @PhonkMethodParam(params = {"name"})
+    public PSensorCapture add(String name) {
+        int[] sensor = SENSORS.get(name);
+        if (sensor == null) throw new IllegalArgumentException("Unknown sensor " + name);
+        if (mRunning || mNames.contains(name)) return this;
+
+        mOffsets.put(name, mNames.isEmpty() ? 0 : mOffsets.get(last()) + mDimensions.get(last()));
+        mDimensions.put(name, sensor[1]);
+        mNames.add(name);
+
+        return this;
+    }
+
+    @PhonkMethod(description = "Frames per second delivered to onFrame", example = "")
+    @PhonkMethodParam(params = {"hz"})
+    public PSensorCapture rate(float hz) {
+        if (!(hz > 0) || Float.isInfinite(hz)) throw new IllegalArgumentException("rate must be a positive number of frames per second");
+        mFramePeriodNs = Math.max(1, (long) (1000000000L / hz));
+        return this;
+    }
+
+    @PhonkMethod(description = "Time between samples requested to every sensor in milliseconds", example = "")
+    @PhonkMethodParam(params = {"ms"})
+    public PSensorCapture samplingPeriod(float ms) {
+        mSamplingPeriodUs = Math.max(4, (int) (ms * 1000));
+        return this;
+    }
+
+    @PhonkMethod(description = "Lets the sensors keep the samples in the hardware fifo up to the given latency", example = "")
+    @PhonkMethodParam(params = {"maxLatencyMs"})
+    public PSensorCapture batch(int maxLatencyMs) {
+        mMaxReportLatencyUs = Math.max(0, maxLatencyMs) * 1000;
+        return this;
+    }
+
+    @PhonkMethod(description = "Number of samples kept in the ring buffer for all the sensors together", example = "")
+    @PhonkMethodParam(params = {"samples"})
+    public PSensorCapture capacity(int samples) {
+        if (!mRunning) mCapacity = Math.max(16, samples);
+        return this;
+    }
+
+    @PhonkMethod(description = "'linear' interpolates between the samples around the frame time, 'hold' uses the last sample", example = "")
+    @PhonkMethodParam(params = {"mode=['linear', 'hold']"})
+    public PSensorCapture interpolation(String mode) {
+        mInterpolate = !"hold".equals(mode);
+        return this;
+    }
+
+    @PhonkMethod(description = "Calls the function with every frame. The frame is reused, it is only valid inside the function", example = "")
+    @PhonkMethodParam(params = {"function(frame)"})
+    public PSensorCapture onFrame(SensorFrameCallback callbackfn) {
+        mCallback = callbackfn;
+        return this;
+    }
+
+    @PhonkMethod(description = "Writes every frame to the recorder, use columns() to create it", example = "")
+    @PhonkMethodParam(params = {"recorder"})
+    public PSensorCapture recordTo(PDataRecorder recorder) {
+        mRecorder = recorder;
+        return this;
+    }
+
+    @PhonkMethod(description = "Name of the values of a frame, like accelerometer.x", example = "")
+    public String[] columns() {
+        ArrayList<String> columns = new ArrayList<>();
+        String[] axes = {"x", "y", "z", "w"};
+        for (String name : mNames) {
+            int dims = mDimensions.get(name);
+            for (int d = 0; d < dims; d++) columns.add(dims == 1 ? name : name + "." + axes[d]);
+        }
+        return columns.toArray(new String[0]);
+    }
+
+    @PhonkMethod
+    public PSensorCapture start() {
+        if (mRunning || mNames.isEmpty()) return this;
+
+        int n = mNames.size();
+        mTypes = new int[n];
+        mDims = new int[n];
+        int size = 0;
+        for (int s = 0; s < n; s++) {
+            int[] sensor = SENSORS.get(mNames.get(s));
+            mTypes[s] = sensor[0];
+            mDims[s] = sensor[1];
+            size += sensor[1];
+        }
+
+        mSensor = new int[mCapacity];
+        mTime = new long[mCapacity];
+        mValues = new float[mCapacity * STRIDE];
+        mSeq = new long[mCapacity];
+        mNext = new int[mCapacity];
+        mNextSeq = new long[mCapacity];
+        Arrays.fill(mSeq, -1);
+        mWriteSeq = 0;
+
+        mLastSlot = new int[n];
+        mLastSeq = new long[n];
+        mLastTime = new long[n];
+        mLastValues = new float[n * STRIDE];
+        mCursor = new int[n];
+        mCursorSeq = new long[n];
+        mWritten = new long[n];
+        mCursorIndex = new long[n];
+        mFirstTime = new long[n];
+        mGates = new boolean[n];
+        Arrays.fill(mLastSlot, -1);
+        mGatesWithData = 0;
+        mNextFrame = -1;
+        mSamples = 0;
+        mFrames = 0;
+        mLostSamples = 0;
+
+        mFrame = new SensorFrame(mOffsets, mDimensions, size);
+        mRunning = true;
+
+        for (int s = 0; s < n; s++) {
+            Sensor sensor = mSensorManager.getDefaultSensor(mTypes[s]);
+            if (sensor == null) {
+                getAppRunner().pConsole.p_error(AppRunnerInterpreter.RESULT_NOT_CAPABLE, mNames.get(s));
+                stop();
+                return this;
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                mGates[s] = sensor.getReportingMode() == Sensor.REPORTING_MODE_CONTINUOUS;
+            } else {
+                mGates[s] = mTypes[s] != Sensor.TYPE_LIGHT && mTypes[s] != Sensor.TYPE_PROXIMITY;
+            }
+
+            if (mMaxReportLatencyUs > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                mSensorManager.registerListener(mListener, sensor, mSamplingPeriodUs, mMaxReportLatencyUs, mHandler);
+            } else {
+                mSensorManager.registerListener(mListener, sensor, mSamplingPeriodUs, mHandler);
+            }
+        }
+
+        return this;
+    }
+
+    @PhonkMethod
+    public void stop() {
+        mRunning = false;
+        mSensorManager.unregisterListener(mListener);
+    }
+
+    @PhonkMethod(description = "Samples received, frames delivered and samples overwritten before being used", example = "")
+    public ReturnObject stats() {
+        ReturnObject r = new ReturnObject();
+        r.put("samples", mSamples);
+        r.put("frames", mFrames);
+        r.put("lostSamples", mLostSamples);
+        return r;
+    }
+
+    private int countGates() {
+        int gates = 0;
+        for (boolean gate : mGates) if (gate) gates++;
+        return gates;
+    }
+
+    private String last() {
+        return mNames.get(mNames.size() - 1);
+    }
+
+    private void write(int s, long time, float[] v) {
+        int slot = (int) (mWriteSeq % mCapacity);
+        long seq = mWriteSeq++;
+
+        mSensor[slot] = s;
+        mTime[slot] = time;
+        mSeq[slot] = seq;
+        mNext[slot] = -1;
+        int dims = Math.min(mDims[s], v.length);
+        System.arraycopy(v, 0, mValues, slot * STRIDE, dims);
+        System.arraycopy(v, 0, mLastValues, s * STRIDE, dims);
+
+        // link it after the previous sample of the same sensor
+        int previous = mLastSlot[s];
+        if (previous >= 0) {
+            mNext[previous] = slot;
+            mNextSeq[previous] = seq;
+        } else {
+            mFirstTime[s] = time;
+            mCursor[s] = slot;
+            mCursorSeq[s] = seq;
+            mCursorIndex[s] = mWritten[s];
+            if (mGates[s]) mGatesWithData++;
+        }
+        mLastSlot[s] = slot;
+        mLastSeq[s] = seq;
+        mLastTime[s] = time;
+        mWritten[s]++;
+        mSamples++;
+    }
+
+    private void produceFrames() {
+        if (mCallback == null && mRecorder == null) return;
+
+        // frames can only be built up to the newest time every continuous sensor has reached
+        long available = Long.MAX_VALUE;
+        long newest = Long.MIN_VALUE;
+        long start = 0;
+        int gates = 0;
+        for (int s = 0; s < mTypes.length; s++) {
+            if (mLastSlot[s] < 0) continue;
+            newest = Math.max(newest, mLastTime[s]);
+            if (!mGates[s]) continue;
+            gates++;
+            available = Math.min(available, mLastTime[s]);
+            start = Math.max(start, mFirstTime[s]);
+        }
+        if (gates == 0) {
+            // only on change sensors, frames go up to the last change
+            if (newest == Long.MIN_VALUE) return;
+            available = newest;
+            start = newest;
+        } else if (mGatesWithData < countGates()) {
+            return;
+        }
+        if (mNextFrame < 0) mNextFrame = start;
+
+        while (mRunning && mNextFrame <= available) {
+            buildFrame(mNextFrame);
+            if (mRecorder != null) mRecorder.write(mNextFrame, mFrame.values);
+            if (mCallback != null) mCallback.event(mFrame);
+            mFrames++;
+            mNextFrame += mFramePeriodNs;
+        }
+    }
+
+    private void buildFrame(long t) {
+        mFrame.timestamp = t;
+        float[] out = mFrame.values;
+        int offset = 0;
+
+        for (int s = 0; s < mTypes.length; s++) {
+            int dims = mDims[s];
+            if (mLastSlot[s] < 0) {
+                // no sample yet
+                Arrays.fill(out, offset, offset + dims, 0);
+                offset += dims;
+                continue;
+            }
+
+            int a = advance(s, t);
+            if (a < 0) {
+                // the samples around t were overwritten, use the newest one
+                System.arraycopy(mLastValues, s * STRIDE, out, offset, dims);
+            } else {
+                int b = mNext[a];
+                boolean hasNext = b >= 0 && mSeq[b] == mNextSeq[a] && mTime[b] > mTime[a];
+
+                if (!mInterpolate || !hasNext || t < mTime[a]) {
+                    System.arraycopy(mValues, a * STRIDE, out, offset, dims);
+                } else {
+                    float alpha = (float) (t - mTime[a]) / (mTime[b] - mTime[a]);
+                    for (int d = 0; d < dims; d++) {
+                        float va = mValues[a * STRIDE + d];
+                        out[offset + d] = va + (mValues[b * STRIDE + d] - va) * alpha;
+                    }
+                }
+            }
+            offset += dims;
+        }
+    }
+
+    // moves the cursor of the sensor to its newest sample not after t, returns -1 if it was lost
+    private int advance(int s, long t) {
+        int slot = mCursor[s];
+        if (mSeq[slot] != mCursorSeq[s]) {
+            // overwritten before being used, continue from the newest sample of the sensor if it is still there
+            slot = mLastSlot[s];
+            if (mSeq[slot] != mLastSeq[s]) return -1;
+            // every sample between the cursor and the newest one is skipped
+            long newest = mWritten[s] - 1;
+            mLostSamples += Math.max(0, newest - mCursorIndex[s] - 1);
+            mCursor[s] = slot;
+            mCursorSeq[s] = mLastSeq[s];
+            mCursorIndex[s] = newest;
+            return mTime[slot] <= t ? slot : -1;
+        }
+
+        while (true) {
+            int next = mNext[slot];
+            if (next < 0 || mSeq[next] != mNextSeq[slot] || mTime[next] > t) break;
+            slot = next;
+            mCursorIndex[s]++;
+        }
+
+        mCursor[s] = slot;
+        mCursorSeq[s] = mSeq[slot];
+        return slot;
+    }
+
+    @Override
+    public void __stop() {
+        stop();
+    }
+}
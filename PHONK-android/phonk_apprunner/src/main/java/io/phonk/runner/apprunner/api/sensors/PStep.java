@@ -52,7 +52,7 @@ public class PStep extends PCustomSensorManager implements WhatIsRunningInterfac
         mListener = new SensorEventListener() {
             @Override
             public void onSensorChanged(SensorEvent event) {
-                mCallback.event(null);
+                if (mCallback != null) mCallback.event(null);
             }
 
             @Override
@@ -68,7 +68,7 @@ public class PStep extends PCustomSensorManager implements WhatIsRunningInterfac
 
         };
 
-        isEnabled = mSensormanager.registerListener(mListener, sensor, speed);
+        register();
     }
 
     @Override
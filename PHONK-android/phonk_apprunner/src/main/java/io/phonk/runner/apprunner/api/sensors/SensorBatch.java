@@ -0,0 +1,178 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.api.sensors;
+
+import io.phonk.runner.apidoc.annotation.PhonkClass;
+import io.phonk.runner.apidoc.annotation.PhonkField;
+import io.phonk.runner.apidoc.annotation.PhonkMethod;
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+
+/**
+ * Samples of a sensor delivered together. When decimation is enabled every sample is the aggregation
+ * (mean, min, max, first or last) of a window of raw samples.
+ * The batch is reused, it is only valid inside the callback
+ */
+@PhonkClass
+public class SensorBatch {
+    public static final String MEAN = "mean";
+    public static final String MIN = "min";
+    public static final String MAX = "max";
+    public static final String FIRST = "first";
+    public static final String LAST = "last";
+
+    @PhonkField
+    public int size = 0;
+    @PhonkField
+    public int dimensions = 0;
+
+    private float[] mValues = new float[0];
+    private long[] mTimestamps = new long[0];
+
+    // decimation window
+    private int mDecimation = 1;
+    private String mMode = MEAN;
+    private float[] mWindow = new float[0];
+    private int mWindowCount = 0;
+
+    public void setDecimation(int n, String mode) {
+        if (!MEAN.equals(mode) && !MIN.equals(mode) && !MAX.equals(mode) && !FIRST.equals(mode) && !LAST.equals(mode)) {
+            throw new IllegalArgumentException("unknown decimation mode '" + mode + "', use mean, min, max, first or last");
+        }
+        mDecimation = Math.max(1, n);
+        mMode = mode;
+        mWindowCount = 0;
+    }
+
+    void add(float[] v, long timestamp) {
+        if (dimensions != v.length) {
+            dimensions = v.length;
+            mWindow = new float[dimensions];
+            mWindowCount = 0;
+            mValues = new float[0];
+            mTimestamps = new long[0];
+            size = 0;
+        }
+
+        if (mDecimation == 1) {
+            append(v, timestamp);
+            return;
+        }
+
+        if (mWindowCount == 0) {
+            System.arraycopy(v, 0, mWindow, 0, dimensions);
+        } else {
+            for (int i = 0; i < dimensions; i++) {
+                switch (mMode) {
+                    case MIN:
+                        mWindow[i] = Math.min(mWindow[i], v[i]);
+                        break;
+                    case MAX:
+                        mWindow[i] = Math.max(mWindow[i], v[i]);
+                        break;
+                    case FIRST:
+                        break;
+                    case LAST:
+                        mWindow[i] = v[i];
+                        break;
+                    default:
+                        mWindow[i] += v[i];
+                }
+            }
+        }
+
+        if (++mWindowCount == mDecimation) {
+            if (MEAN.equals(mMode)) {
+                for (int i = 0; i < dimensions; i++) mWindow[i] /= mDecimation;
+            }
+            append(mWindow, timestamp);
+            mWindowCount = 0;
+        }
+    }
+
+    private void append(float[] v, long timestamp) {
+        // grows only until it fits the biggest batch
+        if (size == mTimestamps.length) {
+            int capacity = Math.max(16, size * 2);
+            float[] values = new float[capacity * dimensions];
+            long[] timestamps = new long[capacity];
+            System.arraycopy(mValues, 0, values, 0, size * dimensions);
+            System.arraycopy(mTimestamps, 0, timestamps, 0, size);
+            mValues = values;
+            mTimestamps = timestamps;
+        }
+
+        System.arraycopy(v, 0, mValues, size * dimensions, dimensions);
+        mTimestamps[size] = timestamp;
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+        // a half filled window would mix samples from before the clear
+        mWindowCount = 0;
+    }
+
+    @PhonkMethod(description = "Value of the given dimension of the sample i", example = "")
+    public float get(int i, int dimension) {
+        return mValues[i * dimensions + dimension];
+    }
+
+    @PhonkMethod
+    public float x(int i) {
+        return get(i, 0);
+    }
+
+    @PhonkMethod
+    public float y(int i) {
+        return dimensions > 1 ? get(i, 1) : 0;
+    }
+
+    @PhonkMethod
+    public float z(int i) {
+        return dimensions > 2 ? get(i, 2) : 0;
+    }
+
+    @PhonkMethod(description = "Timestamp of the sample i in nanoseconds", example = "")
+    public long timestamp(int i) {
+        return mTimestamps[i];
+    }
+
+    @PhonkMethod(description = "Returns a copy of the batch as an array of objects with x, y, z, values and timestamp", example = "")
+    public ReturnObject[] samples() {
+        ReturnObject[] samples = new ReturnObject[size];
+        for (int i = 0; i < size; i++) {
+            float[] values = new float[dimensions];
+            System.arraycopy(mValues, i * dimensions, values, 0, dimensions);
+
+            ReturnObject r = new ReturnObject();
+            r.put("x", x(i));
+            r.put("y", y(i));
+            r.put("z", z(i));
+            r.put("values", values);
+            r.put("timestamp", mTimestamps[i]);
+            samples[i] = r;
+        }
+
+        return samples;
+    }
+}
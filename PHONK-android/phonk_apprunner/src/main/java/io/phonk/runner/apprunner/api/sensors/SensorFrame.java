@@ -0,0 +1,65 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.api.sensors;
+
+import java.util.HashMap;
+
+import io.phonk.runner.apidoc.annotation.PhonkClass;
+import io.phonk.runner.apidoc.annotation.PhonkField;
+import io.phonk.runner.apidoc.annotation.PhonkMethod;
+
+/**
+ * Values of all the captured sensors aligned to the same timestamp.
+ * The frame is reused, it is only valid inside the callback
+ */
+@PhonkClass
+public class SensorFrame {
+
+    // in nanoseconds, same time base as the sensor events
+    @PhonkField
+    public long timestamp;
+    // values of all the sensors one after the other in the order they were added
+    @PhonkField
+    public final float[] values;
+
+    private final HashMap<String, Integer> mOffsets;
+    private final HashMap<String, float[]> mViews = new HashMap<>();
+
+    SensorFrame(HashMap<String, Integer> offsets, HashMap<String, Integer> dimensions, int size) {
+        values = new float[size];
+        mOffsets = offsets;
+        for (String name : dimensions.keySet()) mViews.put(name, new float[dimensions.get(name)]);
+    }
+
+    @PhonkMethod(description = "Value of the given dimension of a sensor", example = "")
+    public float get(String sensor, int dimension) {
+        return values[mOffsets.get(sensor) + dimension];
+    }
+
+    @PhonkMethod(description = "Values of a sensor, the array is reused between frames", example = "")
+    public float[] get(String sensor) {
+        float[] view = mViews.get(sensor);
+        System.arraycopy(values, mOffsets.get(sensor), view, 0, view.length);
+        return view;
+    }
+}
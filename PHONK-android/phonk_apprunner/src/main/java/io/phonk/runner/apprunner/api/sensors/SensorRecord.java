@@ -0,0 +1,74 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.api.sensors;
+
+import android.hardware.SensorEvent;
+
+import io.phonk.runner.apidoc.annotation.PhonkClass;
+import io.phonk.runner.apidoc.annotation.PhonkField;
+
+/**
+ * Typed sensor sample that is reused for every event of a sensor.
+ * It is only valid inside the callback, copy the fields if they have to be kept
+ */
+@PhonkClass
+public class SensorRecord {
+
+    @PhonkField
+    public float x;
+    @PhonkField
+    public float y;
+    @PhonkField
+    public float z;
+    @PhonkField
+    public float w;
+    // length of the x, y, z vector, the force for the acceleration sensors
+    @PhonkField
+    public float magnitude;
+    // raw values as given by android, it has the length of the sensor values
+    @PhonkField
+    public float[] values = new float[0];
+    @PhonkField
+    public int accuracy;
+    // in nanoseconds, same time base as SystemClock.elapsedRealtimeNanos()
+    @PhonkField
+    public long timestamp;
+
+    public void set(SensorEvent event) {
+        set(event.values, event.timestamp, event.accuracy);
+    }
+
+    public void set(float[] v, long timestamp, int accuracy) {
+        if (values.length != v.length) values = new float[v.length];
+        System.arraycopy(v, 0, values, 0, v.length);
+
+        x = v.length > 0 ? v[0] : 0;
+        y = v.length > 1 ? v[1] : 0;
+        z = v.length > 2 ? v[2] : 0;
+        w = v.length > 3 ? v[3] : 0;
+        magnitude = (float) Math.sqrt(x * x + y * y + z * z);
+
+        this.timestamp = timestamp;
+        this.accuracy = accuracy;
+    }
+}
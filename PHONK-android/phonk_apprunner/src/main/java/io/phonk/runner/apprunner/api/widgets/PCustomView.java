@@ -32,6 +32,7 @@ import io.phonk.runner.apidoc.annotation.PhonkClass;
 import io.phonk.runner.apidoc.annotation.PhonkField;
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.other.PLooper;
+import io.phonk.runner.apprunner.interpreter.AppRunnerInterpreter;
 import io.phonk.runner.base.utils.MLog;
 
 @PhonkClass
@@ -85,7 +86,8 @@ public class PCustomView extends View implements PViewMethodsInterface {
         MLog.d(TAG, "onDraw");
 
         mPCanvas.setCanvas(canvas);
-        draw.event(mPCanvas);
+        // drawing has to happen now, in this thread
+        AppRunnerInterpreter.runInPlace(() -> draw.event(mPCanvas));
         mPCanvas.drawAll();
     }
 
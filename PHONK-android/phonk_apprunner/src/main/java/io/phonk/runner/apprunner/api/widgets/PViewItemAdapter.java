@@ -32,6 +32,7 @@ import org.mozilla.javascript.NativeArray;
 
 import io.phonk.runner.apprunner.api.common.ReturnInterfaceWithReturn;
 import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.interpreter.AppRunnerInterpreter;
 
 
 public class PViewItemAdapter extends RecyclerView.Adapter<PViewItemAdapter.ViewHolder> {
@@ -70,9 +71,11 @@ public class PViewItemAdapter extends RecyclerView.Adapter<PViewItemAdapter.View
     // Create new views (invoked by the layout manager)
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        View v = (View) mCreating.event(null);
+        // the layout manager needs the view now, so it can't wait for the script thread
+        final Object[] v = new Object[1];
+        AppRunnerInterpreter.runInPlace(() -> v[0] = mCreating.event(null));
 
-        return new ViewHolder(v);
+        return new ViewHolder((View) v[0]);
     }
 
     // Replace the contents of a view (invoked by the layout manager)
@@ -82,7 +85,7 @@ public class PViewItemAdapter extends RecyclerView.Adapter<PViewItemAdapter.View
         ReturnObject ro = new ReturnObject();
         ro.put("view", holder.mView);
         ro.put("position", position);
-        mBinding.event(ro);
+        AppRunnerInterpreter.runInPlace(() -> mBinding.event(ro));
     }
 
     @Override
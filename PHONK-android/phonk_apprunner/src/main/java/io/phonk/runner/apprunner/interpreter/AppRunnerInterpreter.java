@@ -27,12 +27,19 @@ import org.mozilla.javascript.Callable;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.TopLevel;
+import org.mozilla.javascript.Undefined;
 import org.mozilla.javascript.WrappedException;
 import org.mozilla.javascript.debug.Debugger;
 
 import io.phonk.runner.apprunner.AppRunner;
+import io.phonk.runner.apprunner.AppRunnerSettings;
 import io.phonk.runner.apprunner.permissions.PermissionNotGrantedException;
 import io.phonk.runner.base.utils.MLog;
 
@@ -46,25 +53,51 @@ public class AppRunnerInterpreter {
     private static final String TAG = AppRunnerInterpreter.class.getSimpleName();
     //rhino stuff
     private static ScriptContextFactory mScriptContextFactory;
+    // compiled scripts are shared between interpreters so relaunching a project skips parsing
+    private static ScriptCache mScriptCache;
     final AppRunner mAppRunner;
     private Context rhino = null;
-    private Scriptable scope;
+    // written in the script thread, read by the threads building arrays for it
+    private volatile Scriptable scope;
     private InterpreterInfo mInterpreterListener;
+    // when not null the interpreter lives in this thread instead of the one creating it
+    private final ScriptThread mScriptThread;
+    private ScriptProfiler mProfiler;
+    private final HotSwap mHotSwap = new HotSwap();
     // public ObservingDebugger observingDebugger;
 
     public AppRunnerInterpreter(AppRunner appRunner) {
         this.mAppRunner = appRunner;
+        this.mScriptThread = appRunner.getScriptThread();
         init();
     }
 
     //init Rhino context
     public void init() {
-        //this can be initiated only once
+        if (mScriptThread != null) {
+            // queued before anything else so it runs ahead of the objects and the script
+            mScriptThread.post(this::initRhino);
+        } else {
+            initRhino();
+        }
+    }
+
+    //this can be initiated only once
+    static synchronized ScriptContextFactory initContextFactory() {
         if (mScriptContextFactory == null) {
             mScriptContextFactory = new ScriptContextFactory();
             ContextFactory.initGlobal(mScriptContextFactory);
         }
-        mScriptContextFactory.setInterpreter(this);
+        return mScriptContextFactory;
+    }
+
+    // rhino contexts belong to the thread that entered them
+    private void initRhino() {
+        initContextFactory().setInterpreter(this);
+
+        if (mScriptCache == null) {
+            mScriptCache = new ScriptCache(AppRunnerSettings.SCRIPT_CACHE_SIZE);
+        }
 
         rhino = Context.enter();
         rhino.setLanguageVersion(Context.VERSION_ES6);
@@ -74,9 +107,13 @@ public class AppRunnerInterpreter {
         // rhino.setGeneratingDebug(true);
 
         // give some android love
-        rhino.setOptimizationLevel(-1);
+        // interpreted mode (-1) unless the user opted in for a higher level
+        rhino.setOptimizationLevel(AppRunnerSettings.SCRIPT_OPTIMIZATION_LEVEL);
 
-        scope = rhino.initStandardObjects();
+        // the standard objects are shared with the previous launches unless the project opted out
+        ScriptableObject shared = mAppRunner.usesSharedScope() ? StandbyRuntime.getSharedScope() : null;
+        if (shared != null) scope = StandbyRuntime.newScope(rhino, shared);
+        else scope = rhino.initStandardObjects();
 
         //let rhino do some java <-> js transformations for us
         rhino.getWrapFactory().setJavaPrimitiveWrap(false);
@@ -88,10 +125,16 @@ public class AppRunnerInterpreter {
     }
 
     // we will use this method for normal script execution
-    public void eval(String jscode, String origin) {
+    public void eval(final String jscode, final String origin) {
+        if (mScriptThread != null && !mScriptThread.isCurrentThread()) {
+            mScriptThread.post(() -> eval(jscode, origin));
+            return;
+        }
+
         try {
-            Object result = rhino.evaluateString(scope, jscode, origin, 1, null);
-            MLog.d("result", "" + result);
+            Script script = compile(jscode, origin);
+            Object result = script.exec(rhino, scope);
+            MLog.d("result", "%s", result);
             processResult(RESULT_OK, "");
         } catch (org.mozilla.javascript.EvaluatorException e) {
             processResult(RESULT_ERROR, e.getMessage());
@@ -102,8 +145,31 @@ public class AppRunnerInterpreter {
         }
     }
 
+    /*
+     * Compiled scripts are cached by source and origin. If the runtime cannot load the generated
+     * bytecode of the requested optimization level we fallback to the interpreter
+     */
+    private Script compile(String jscode, String origin) {
+        try {
+            return mScriptCache.getOrCompile(rhino, jscode, origin);
+        } catch (RhinoException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            if (rhino.getOptimizationLevel() == -1) throw e;
+
+            // only this context falls back, other interpreters keep the configured level
+            MLog.w(TAG, "cannot compile with optimization level " + rhino.getOptimizationLevel() + ", using the interpreter");
+            rhino.setOptimizationLevel(-1);
+            return mScriptCache.getOrCompile(rhino, jscode, origin);
+        }
+    }
+
+    public static ScriptCache getScriptCache() {
+        return mScriptCache;
+    }
+
     public void processResult(int resultType, String message) {
-        MLog.d(TAG, "processResult: " + resultType + " " + message);
+        MLog.d(TAG, "processResult: %d %s", resultType, message);
         String resultClean = "";
         switch (resultType) {
             case RESULT_OK:
@@ -116,11 +182,21 @@ public class AppRunnerInterpreter {
         }
     }
 
-    public void addJavaObjectToJs(String name, Object obj) {
+    public void addJavaObjectToJs(final String name, final Object obj) {
+        if (mScriptThread != null && !mScriptThread.isCurrentThread()) {
+            mScriptThread.post(() -> addJavaObjectToJs(name, obj));
+            return;
+        }
+
         ScriptableObject.putProperty(scope, name, Context.javaToJS(obj, scope));
     }
 
-    public void callJsFunction(String name, Object... params) {
+    public void callJsFunction(final String name, final Object... params) {
+        if (mScriptThread != null && !mScriptThread.isCurrentThread()) {
+            mScriptThread.post(() -> callJsFunction(name, params));
+            return;
+        }
+
         Object obj = getJsFunction(name);
         if (obj instanceof Function) {
             Function function = (Function) obj;
@@ -146,26 +222,110 @@ public class AppRunnerInterpreter {
      * Native arrays
      */
     public Scriptable newNativeArray() {
+        if (mScriptThread != null && !mScriptThread.isCurrentThread()) {
+            return detachedArray(new NativeArray(0));
+        }
         return rhino.newArray(scope, 0);
     }
 
-    public Scriptable newNativeArrayFrom(Object[] obj) {
+    public Scriptable newNativeArrayFrom(final Object[] obj) {
+        if (mScriptThread != null && !mScriptThread.isCurrentThread()) {
+            return detachedArray(new NativeArray(obj));
+        }
         return rhino.newArray(scope, obj);
     }
 
+    // the context belongs to the script thread, other threads build the array by hand instead of waiting for it
+    private Scriptable detachedArray(NativeArray array) {
+        Scriptable currentScope = scope;
+        if (currentScope != null) {
+            ScriptRuntime.setBuiltinProtoAndParent(array, currentScope, TopLevel.Builtins.Array);
+        }
+        return array;
+    }
+
     public void addListener(InterpreterInfo listener) {
         this.mInterpreterListener = listener;
     }
 
-    // TODO not ready yet
-    public void addDebugger(Debugger debugger) {
+    // debuggers are attached to the context of the thread running the script
+    public void addDebugger(final Debugger debugger) {
+        if (mScriptThread != null && !mScriptThread.isCurrentThread()) {
+            mScriptThread.post(() -> addDebugger(debugger));
+            return;
+        }
         rhino.setDebugger(debugger, scope);
     }
 
+    /**
+     * Remembers the running source so the next versions can be hot swapped against it
+     */
+    public void setHotSwapSource(final String source, final String origin) {
+        if (mScriptThread != null && !mScriptThread.isCurrentThread()) {
+            mScriptThread.post(() -> setHotSwapSource(source, origin));
+            return;
+        }
+        mHotSwap.setSource(source, origin);
+    }
+
+    /**
+     * Rebinds the top level functions that changed in source without running the script again
+     */
+    public void hotSwap(final String source, final HotSwap.HotSwapListener listener) {
+        if (mScriptThread != null && !mScriptThread.isCurrentThread()) {
+            mScriptThread.post(() -> hotSwap(source, listener));
+            return;
+        }
+
+        HotSwap.Result result = mHotSwap.swap(rhino, scope, source);
+        MLog.d(TAG, "%s", result);
+        if (listener != null) listener.onHotSwap(result);
+    }
+
+    /**
+     * Samples the running script and sends a flame graph report to the listener every reportIntervalMs
+     * and once more when it stops
+     */
+    public void startProfiler(float intervalMs, int reportIntervalMs, ScriptProfiler.ProfilerListener listener) {
+        stopProfiler();
+
+        if (rhino.getOptimizationLevel() != -1) {
+            MLog.w(TAG, "profiling compiled code is not possible, set the optimization level to -1");
+        }
+
+        mProfiler = new ScriptProfiler(intervalMs, reportIntervalMs, listener);
+        mProfiler.start();
+        addDebugger(mProfiler);
+    }
+
+    public void stopProfiler() {
+        if (mProfiler == null) return;
+
+        addDebugger(null);
+        mProfiler.stop();
+        mProfiler = null;
+    }
+
+    public boolean isProfiling() {
+        return mProfiler != null;
+    }
+
     public void stop() {
+        stopProfiler();
+
+        if (mScriptThread != null) {
+            // leave the context in its own thread after the queued work and let the thread finish
+            mScriptThread.post(Context::exit);
+            mScriptThread.quit();
+            return;
+        }
         Context.exit();
     }
 
+    public boolean isThreaded() {
+        return mScriptThread != null;
+    }
+
     /*
      *   Errors and misc
      */
@@ -173,6 +333,23 @@ public class AppRunnerInterpreter {
         void onError(int resultType, Object message);
     }
 
+    // set while the caller needs the function result right away, see runInPlace
+    private static final ThreadLocal<Boolean> sInPlace = new ThreadLocal<>();
+
+    /**
+     * Runs script functions called from the task in the current thread even when the script has its own thread.
+     * Only for callers that need the result synchronously (drawing, list items, ui.run)
+     */
+    public static void runInPlace(Runnable task) {
+        Boolean previous = sInPlace.get();
+        sInPlace.set(Boolean.TRUE);
+        try {
+            task.run();
+        } finally {
+            sInPlace.set(previous);
+        }
+    }
+
     public static class ScriptContextFactory extends ContextFactory {
         private AppRunnerInterpreter mAppRunnerInterpretter;
 
@@ -195,6 +372,14 @@ public class AppRunnerInterpreter {
 
         @Override
         protected Object doTopCall(Callable callable, Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            // Rhino scopes are not thread safe, functions called from other threads (widget listeners, sensors...)
+            // are queued in the script thread instead of running next to it
+            ScriptThread scriptThread = mAppRunnerInterpretter != null ? mAppRunnerInterpretter.mScriptThread : null;
+            if (scriptThread != null && !scriptThread.isCurrentThread() && sInPlace.get() == null) {
+                scriptThread.post(() -> callable.call(Context.getCurrentContext(), scope, thisObj, args));
+                return Undefined.instance;
+            }
+
             try {
                 return super.doTopCall(callable, cx, scope, thisObj, args);
             } catch (WrappedException e) {
@@ -204,28 +389,33 @@ public class AppRunnerInterpreter {
                     String message = ((Throwable) e).getMessage();
                     message = message.replace("io.phonk.runner.apprunner.api.PermissionNotGrantedException:", "");
 
-                    mAppRunnerInterpretter.processResult(RESULT_PERMISSION_ERROR, message);
+                    processResult(RESULT_PERMISSION_ERROR, message);
                 } else {
                     String message = ((Throwable) e).getMessage();
                     message = message.replace("io.phonk.runner.apprunner.api.P", "");
 
-                    mAppRunnerInterpretter.processResult(RESULT_ERROR, message);
+                    processResult(RESULT_ERROR, message);
                 }
                 return e;
             } catch (org.mozilla.javascript.EcmaError e) {
                 String message = ((Throwable) e).getMessage();
                 message = message.replace("io.phonk.runner.apprunner.api.P", "");
-                mAppRunnerInterpretter.processResult(RESULT_ERROR, message);
+                processResult(RESULT_ERROR, message);
                 return e;
             } catch (org.mozilla.javascript.EvaluatorException e) {
-                mAppRunnerInterpretter.processResult(RESULT_ERROR, e.getMessage());
+                processResult(RESULT_ERROR, e.getMessage());
 
                 return e;
             } finally {
-                MLog.e("finally", "bye bye");
+                MLog.v("finally", "bye bye");
             }
         }
 
+        private void processResult(int resultType, String message) {
+            // the standby runtime uses the factory before any interpreter exists
+            if (mAppRunnerInterpretter != null) mAppRunnerInterpretter.processResult(resultType, message);
+        }
+
         public void setInterpreter(AppRunnerInterpreter appRunnerInterpreter) {
             mAppRunnerInterpretter = appRunnerInterpreter;
         }
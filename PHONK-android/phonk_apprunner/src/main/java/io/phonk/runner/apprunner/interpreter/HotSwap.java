@@ -0,0 +1,214 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.interpreter;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Node;
+import org.mozilla.javascript.Parser;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.FunctionNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Function level hot swap for live coding.
+ *
+ * Keeps the top level function declarations of the loaded source. When a new version arrives only the
+ * functions whose text changed are compiled and rebound in the running scope, the rest of the script
+ * (loopers, sockets, sensors...) keeps running untouched.
+ *
+ * Top level statements are never executed again, if they changed a restart is needed to apply them.
+ * Callbacks holding a reference to the old function object keep the old code, calling the function by
+ * name from the callback (util.loop(100, () => update())) picks up the new one
+ */
+public class HotSwap {
+
+    private String mPendingSource;
+    private String mOrigin = "";
+    private Map<String, Declaration> mFunctions = new LinkedHashMap<>();
+    private String mTopLevel = "";
+
+    public interface HotSwapListener {
+        void onHotSwap(Result result);
+    }
+
+    /**
+     * Summary of a hot swap
+     */
+    public static class Result {
+        public final List<String> updated = new ArrayList<>();
+        public final List<String> added = new ArrayList<>();
+        public final List<String> removed = new ArrayList<>();
+        public boolean topLevelChanged = false;
+        public String error = null;
+        public float timeMs;
+
+        @Override
+        public String toString() {
+            if (error != null) return "hot swap failed: " + error;
+
+            StringBuilder builder = new StringBuilder();
+            builder.append("hot swap in ").append(String.format(Locale.US, "%.1f", timeMs)).append(" ms");
+            if (!updated.isEmpty()) builder.append(", updated ").append(updated);
+            if (!added.isEmpty()) builder.append(", added ").append(added);
+            if (!removed.isEmpty()) builder.append(", removed ").append(removed);
+            if (updated.isEmpty() && added.isEmpty() && removed.isEmpty()) builder.append(", no function changed");
+            if (topLevelChanged) builder.append(". Top level code changed, restart the project to apply it");
+
+            return builder.toString();
+        }
+    }
+
+    private static class Declaration {
+        final String source;
+        final int line;
+
+        Declaration(String source, int line) {
+            this.source = source;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Sets the source that is currently running. It is only parsed when the first swap arrives
+     */
+    public void setSource(String source, String origin) {
+        mPendingSource = source;
+        mOrigin = origin;
+        mFunctions.clear();
+        mTopLevel = "";
+    }
+
+    /**
+     * Compiles the functions that changed since the last version and rebinds them in the scope.
+     * Nothing is rebound unless all of them compile
+     */
+    public Result swap(Context cx, Scriptable scope, String source) {
+        Result result = new Result();
+        long start = System.nanoTime();
+
+        try {
+            if (mPendingSource != null) {
+                mTopLevel = parse(cx, mPendingSource, mFunctions);
+                mPendingSource = null;
+            }
+
+            Map<String, Declaration> functions = new LinkedHashMap<>();
+            String topLevel = parse(cx, source, functions);
+
+            // everything is compiled before anything is rebound, a broken function leaves the script as it was
+            Map<String, Script> changed = new LinkedHashMap<>();
+            for (Map.Entry<String, Declaration> entry : functions.entrySet()) {
+                Declaration declaration = entry.getValue();
+                Declaration old = mFunctions.get(entry.getKey());
+
+                if (old != null && old.source.equals(declaration.source)) continue;
+                changed.put(entry.getKey(), cx.compileString(declaration.source, mOrigin, declaration.line, null));
+            }
+
+            Map<String, Object> previous = new LinkedHashMap<>();
+            try {
+                for (Map.Entry<String, Script> entry : changed.entrySet()) {
+                    String name = entry.getKey();
+                    previous.put(name, ScriptableObject.getProperty(scope, name));
+
+                    // a function declaration executed in the global scope rebinds the name
+                    entry.getValue().exec(cx, scope);
+                    if (mFunctions.containsKey(name)) result.updated.add(name);
+                    else result.added.add(name);
+                }
+            } catch (RuntimeException e) {
+                for (Map.Entry<String, Object> entry : previous.entrySet()) {
+                    if (entry.getValue() == Scriptable.NOT_FOUND) unbind(scope, entry.getKey());
+                    else ScriptableObject.putProperty(scope, entry.getKey(), entry.getValue());
+                }
+                result.updated.clear();
+                result.added.clear();
+                throw e;
+            }
+
+            for (String name : mFunctions.keySet()) {
+                if (!functions.containsKey(name) && unbind(scope, name)) result.removed.add(name);
+            }
+
+            result.topLevelChanged = !topLevel.equals(mTopLevel);
+            mFunctions = functions;
+            mTopLevel = topLevel;
+        } catch (Exception e) {
+            result.error = e.getMessage();
+        }
+
+        result.timeMs = (System.nanoTime() - start) / 1000000f;
+        return result;
+    }
+
+    /*
+     * Top level function declarations are defined as permanent and can't be deleted, those are set to
+     * undefined instead. Returns false if the name is still bound to something
+     */
+    private boolean unbind(Scriptable scope, String name) {
+        ScriptableObject.deleteProperty(scope, name);
+        if (!ScriptableObject.hasProperty(scope, name)) return true;
+
+        ScriptableObject.putProperty(scope, name, Undefined.instance);
+        return ScriptableObject.getProperty(scope, name) == Undefined.instance;
+    }
+
+    /*
+     * Collects the top level function declarations and returns the rest of the top level code
+     * without whitespace, so we can tell if it changed
+     */
+    private String parse(Context cx, String source, Map<String, Declaration> functions) {
+        CompilerEnvirons env = new CompilerEnvirons();
+        env.initFromContext(cx);
+        AstRoot root = new Parser(env).parse(source, mOrigin, 1);
+
+        StringBuilder topLevel = new StringBuilder();
+        int last = 0;
+
+        for (Node node : root) {
+            if (!(node instanceof FunctionNode)) continue;
+            FunctionNode fn = (FunctionNode) node;
+            if (fn.getFunctionType() != FunctionNode.FUNCTION_STATEMENT || fn.getFunctionName() == null) continue;
+
+            int from = fn.getAbsolutePosition();
+            int to = from + fn.getLength();
+            functions.put(fn.getName(), new Declaration(source.substring(from, to), fn.getLineno()));
+
+            topLevel.append(source, last, from);
+            last = to;
+        }
+        topLevel.append(source.substring(last));
+
+        return topLevel.toString().replaceAll("\\s+", "");
+    }
+}
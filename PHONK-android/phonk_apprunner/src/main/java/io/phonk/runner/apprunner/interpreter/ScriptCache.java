@@ -0,0 +1,128 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.interpreter;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of compiled scripts keyed by origin, source hash and optimization level.
+ * Compiled scripts are not tied to a scope so they can be executed again in a new interpreter
+ * without paying the parsing cost
+ */
+public class ScriptCache {
+
+    private final LinkedHashMap<Key, Script> mScripts;
+    private int mMaxEntries;
+    private int mHits = 0;
+    private int mMisses = 0;
+
+    public ScriptCache(int maxEntries) {
+        mMaxEntries = maxEntries;
+        mScripts = new LinkedHashMap<Key, Script>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Script> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled script for the given source, compiling and storing it if needed.
+     * Compilation errors are thrown as usual so they can be reported by the interpreter
+     */
+    public synchronized Script getOrCompile(Context cx, String source, String origin) {
+        Key key = new Key(source, origin, cx.getOptimizationLevel());
+        Script script = mScripts.get(key);
+
+        if (script != null) {
+            mHits++;
+            return script;
+        }
+
+        mMisses++;
+        script = cx.compileString(source, origin, 1, null);
+        if (mMaxEntries > 0) mScripts.put(key, script);
+
+        return script;
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        mMaxEntries = maxEntries;
+        while (mScripts.size() > mMaxEntries) {
+            Key eldest = mScripts.keySet().iterator().next();
+            mScripts.remove(eldest);
+        }
+    }
+
+    public synchronized void clear() {
+        mScripts.clear();
+    }
+
+    public synchronized int size() {
+        return mScripts.size();
+    }
+
+    public synchronized int getHits() {
+        return mHits;
+    }
+
+    public synchronized int getMisses() {
+        return mMisses;
+    }
+
+    /*
+     * the source is kept in the key so a hash collision never runs the wrong script. Interpreted and
+     * compiled versions of the same source are different entries
+     */
+    private static class Key {
+        final String source;
+        final String origin;
+        final int optimizationLevel;
+        final int hash;
+
+        Key(String source, String origin, int optimizationLevel) {
+            this.source = source;
+            this.origin = origin == null ? "" : origin;
+            this.optimizationLevel = optimizationLevel;
+            this.hash = 31 * (31 * this.origin.hashCode() + source.hashCode()) + optimizationLevel;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && optimizationLevel == other.optimizationLevel
+                    && origin.equals(other.origin) && source.equals(other.source);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.interpreter;
+
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.debug.DebugFrame;
+import org.mozilla.javascript.debug.DebuggableScript;
+import org.mozilla.javascript.debug.Debugger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import io.phonk.runner.base.utils.MLog;
+
+/**
+ * Sampling profiler for the running script.
+ *
+ * Rhino calls the debugger hooks on every function enter / exit and line change, the hooks only keep
+ * a shadow stack of the script thread. A separate thread samples that stack at a fixed interval and
+ * aggregates it in the folded format used by flame graphs ("main (main.js:1);loop (main.js:20)")
+ * together with the self time of every source line.
+ *
+ * The hooks are only called for interpreted code (optimization level -1)
+ */
+public class ScriptProfiler implements Debugger {
+    private static final String TAG = ScriptProfiler.class.getSimpleName();
+
+    private static final int MAX_DEPTH = 256;
+    private static final String IDLE = "(idle)";
+
+    private final Frame[] mStack = new Frame[MAX_DEPTH];
+    private volatile int mDepth = 0;
+    private final WeakHashMap<DebuggableScript, String> mLabels = new WeakHashMap<>();
+
+    // only touched by the sampling thread
+    private final HashMap<String, long[]> mStacks = new HashMap<>();
+    private final HashMap<String, long[]> mLines = new HashMap<>();
+    private final StringBuilder mKey = new StringBuilder();
+    private long mSamples = 0;
+    private long mIdleSamples = 0;
+
+    private final long mIntervalNs;
+    private final long mReportIntervalMs;
+    private final ProfilerListener mListener;
+    private Thread mSampler;
+    private volatile boolean mRunning = false;
+    private long mStartTime;
+
+    public interface ProfilerListener {
+        void onReport(JSONObject report);
+    }
+
+    /**
+     * @param intervalMs       time between samples
+     * @param reportIntervalMs time between the reports sent to the listener, the last one is sent on stop
+     */
+    public ScriptProfiler(float intervalMs, int reportIntervalMs, ProfilerListener listener) {
+        mIntervalNs = (long) (Math.max(0.1f, intervalMs) * 1000000);
+        mReportIntervalMs = reportIntervalMs;
+        mListener = listener;
+    }
+
+    public synchronized void start() {
+        if (mRunning) return;
+
+        mDepth = 0;
+        mStacks.clear();
+        mLines.clear();
+        mSamples = 0;
+        mIdleSamples = 0;
+        mStartTime = SystemClock.uptimeMillis();
+        mRunning = true;
+
+        mSampler = new Thread(this::sample, "PhonkProfiler");
+        mSampler.setDaemon(true);
+        mSampler.start();
+        MLog.d(TAG, "started with an interval of %d us", mIntervalNs / 1000);
+    }
+
+    /**
+     * Stops sampling and waits for the final report to be delivered
+     */
+    public synchronized void stop() {
+        if (!mRunning) return;
+        mRunning = false;
+
+        try {
+            mSampler.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mSampler = null;
+        MLog.d(TAG, "stopped");
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    private void sample() {
+        long nextReport = SystemClock.uptimeMillis() + mReportIntervalMs;
+
+        while (mRunning) {
+            LockSupport.parkNanos(mIntervalNs);
+            takeSample();
+
+            long now = SystemClock.uptimeMillis();
+            if (mReportIntervalMs > 0 && now >= nextReport) {
+                nextReport = now + mReportIntervalMs;
+                report(false);
+            }
+        }
+
+        report(true);
+    }
+
+    private void takeSample() {
+        mSamples++;
+
+        // the script thread keeps running while we read, the snapshot can be slightly off as any sample
+        int depth = Math.min(mDepth, MAX_DEPTH);
+        if (depth == 0) {
+            mIdleSamples++;
+            return;
+        }
+
+        mKey.setLength(0);
+        Frame leaf = null;
+        for (int i = 0; i < depth; i++) {
+            Frame frame = mStack[i];
+            if (frame == null) continue;
+            if (mKey.length() > 0) mKey.append(';');
+            mKey.append(frame.label);
+            leaf = frame;
+        }
+        if (leaf == null) {
+            mIdleSamples++;
+            return;
+        }
+
+        increment(mStacks, mKey.toString());
+        increment(mLines, leaf.source + ":" + leaf.line);
+    }
+
+    private static void increment(HashMap<String, long[]> map, String key) {
+        long[] count = map.get(key);
+        if (count == null) map.put(key, new long[]{1});
+        else count[0]++;
+    }
+
+    private void report(boolean isFinal) {
+        if (mListener == null) return;
+
+        JSONObject report = new JSONObject();
+        try {
+            report.put("final", isFinal);
+            report.put("interval", mIntervalNs / 1000000.0);
+            report.put("duration", SystemClock.uptimeMillis() - mStartTime);
+            report.put("samples", mSamples);
+            report.put("idle", mIdleSamples);
+            report.put("stacks", toJson(mStacks));
+            report.put("lines", toJson(mLines));
+
+            // there is no per function allocation tracking in rhino, the heap and gc trend helps to spot churn
+            Runtime runtime = Runtime.getRuntime();
+            report.put("heapUsed", runtime.totalMemory() - runtime.freeMemory());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                report.put("gcCount", Debug.getRuntimeStat("art.gc.gc-count"));
+            }
+        } catch (JSONException e) {
+            MLog.e(TAG, "cannot build the report " + e);
+            return;
+        }
+
+        mListener.onReport(report);
+    }
+
+    private static JSONObject toJson(HashMap<String, long[]> map) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, long[]> entry : map.entrySet()) {
+            json.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return json;
+    }
+
+    @Override
+    public void handleCompilationDone(Context cx, DebuggableScript fnOrScript, String source) {
+    }
+
+    @Override
+    public DebugFrame getFrame(Context cx, DebuggableScript fnOrScript) {
+        if (!mRunning) return null;
+
+        String label = mLabels.get(fnOrScript);
+        if (label == null) {
+            label = label(fnOrScript);
+            mLabels.put(fnOrScript, label);
+        }
+
+        return new Frame(label, fileName(fnOrScript.getSourceName()));
+    }
+
+    private static String label(DebuggableScript fnOrScript) {
+        String name = fnOrScript.getFunctionName();
+        if (fnOrScript.isTopLevel()) name = "(main)";
+        else if (name == null || name.isEmpty()) name = "(anonymous)";
+
+        int firstLine = Integer.MAX_VALUE;
+        int[] lines = fnOrScript.getLineNumbers();
+        if (lines != null) for (int line : lines) firstLine = Math.min(firstLine, line);
+        if (firstLine == Integer.MAX_VALUE) firstLine = 0;
+
+        return name + " (" + fileName(fnOrScript.getSourceName()) + ":" + firstLine + ")";
+    }
+
+    private static String fileName(String source) {
+        if (source == null) return "?";
+        int slash = source.lastIndexOf('/');
+        return slash >= 0 ? source.substring(slash + 1) : source;
+    }
+
+    /**
+     * One function invocation in the shadow stack
+     */
+    private class Frame implements DebugFrame {
+        final String label;
+        final String source;
+        volatile int line;
+        private int index = -1;
+
+        Frame(String label, String source) {
+            this.label = label;
+            this.source = source;
+        }
+
+        @Override
+        public void onEnter(Context cx, Scriptable activation, Scriptable thisObj, Object[] args) {
+            int depth = mDepth;
+            if (depth < MAX_DEPTH) {
+                mStack[depth] = this;
+                index = depth;
+            }
+            mDepth = depth + 1;
+        }
+
+        @Override
+        public void onLineChange(Context cx, int lineNumber) {
+            line = lineNumber;
+        }
+
+        @Override
+        public void onExceptionThrown(Context cx, Throwable ex) {
+        }
+
+        @Override
+        public void onExit(Context cx, boolean byThrow, Object resultOrException) {
+            if (index >= 0) mStack[index] = null;
+            if (mDepth > 0) mDepth--;
+        }
+
+        @Override
+        public void onDebuggerStatement(Context cx) {
+        }
+    }
+}
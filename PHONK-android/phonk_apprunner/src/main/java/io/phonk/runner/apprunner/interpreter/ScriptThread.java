@@ -0,0 +1,96 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.interpreter;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.CountDownLatch;
+
+import io.phonk.runner.base.utils.MLog;
+
+/**
+ * Thread with its own event queue where the interpreter lives when scripts run outside the main thread.
+ * Script evaluation and every callback posted to its looper run here, so script work does not block
+ * rendering or input
+ */
+public class ScriptThread {
+    private static final String TAG = ScriptThread.class.getSimpleName();
+
+    // rhino recurses on the java stack when js calls java that calls js, give it more than the default
+    private static final long STACK_SIZE = 4 * 1024 * 1024;
+
+    private final Thread mThread;
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+    private Looper mLooper;
+    private Handler mHandler;
+
+    public ScriptThread(String name) {
+        mThread = new Thread(null, () -> {
+            Looper.prepare();
+            mLooper = Looper.myLooper();
+            mHandler = new Handler(mLooper);
+            mStarted.countDown();
+            Looper.loop();
+            MLog.d(TAG, "script thread finished");
+        }, name, STACK_SIZE);
+    }
+
+    public ScriptThread start() {
+        mThread.start();
+        try {
+            mStarted.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return this;
+    }
+
+    public Looper getLooper() {
+        return mLooper;
+    }
+
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Runs the task in the script thread, right away if we are already there
+     */
+    public void post(Runnable task) {
+        if (isCurrentThread()) task.run();
+        else mHandler.post(task);
+    }
+
+    /**
+     * Stops the thread once the tasks already queued have run
+     */
+    public void quit() {
+        mHandler.post(() -> Looper.myLooper().quit());
+    }
+}
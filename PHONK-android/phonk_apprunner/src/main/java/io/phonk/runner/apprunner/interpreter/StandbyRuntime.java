@@ -0,0 +1,150 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.apprunner.interpreter;
+
+import android.os.Process;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeJavaClass;
+import org.mozilla.javascript.NativeJavaTopPackage;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import java.util.concurrent.CountDownLatch;
+
+import io.phonk.runner.apprunner.AppRunnerSettings;
+import io.phonk.runner.apprunner.api.PApp;
+import io.phonk.runner.apprunner.api.PBoards;
+import io.phonk.runner.apprunner.api.PConsole;
+import io.phonk.runner.apprunner.api.PDashboard;
+import io.phonk.runner.apprunner.api.PDevice;
+import io.phonk.runner.apprunner.api.PFileIO;
+import io.phonk.runner.apprunner.api.PMedia;
+import io.phonk.runner.apprunner.api.PNetwork;
+import io.phonk.runner.apprunner.api.PPhonk;
+import io.phonk.runner.apprunner.api.PSensors;
+import io.phonk.runner.apprunner.api.PUI;
+import io.phonk.runner.apprunner.api.PUtil;
+import io.phonk.runner.base.utils.MLog;
+
+/**
+ * Warm standby runtime shared by all the projects launched in the runner process.
+ *
+ * The standard objects are created once in a background thread and sealed so every interpreter can
+ * use them as the prototype of its own scope. The reflection of the api objects is cached in the
+ * same scope and the interpreter classes are loaded by running a small script, so launching a
+ * project only has to create an empty child scope
+ */
+public class StandbyRuntime {
+    private static final String TAG = StandbyRuntime.class.getSimpleName();
+
+    private static final Class<?>[] API_CLASSES = {
+            PApp.class, PBoards.class, PConsole.class, PDashboard.class, PDevice.class, PFileIO.class,
+            PMedia.class, PNetwork.class, PPhonk.class, PSensors.class, PUI.class, PUtil.class
+    };
+
+    private static final String WARM_UP_SCRIPT =
+            "var a = [3, 1, 2].map(function (x) { return x * 2 }).sort(); JSON.stringify({ a: a }); /a/.test('a b');";
+
+    private static CountDownLatch sReady;
+    private static volatile ScriptableObject sSharedScope;
+
+    /**
+     * Starts building the shared scope in the background, it does nothing if it was already started
+     */
+    public static synchronized void warmUp() {
+        if (sReady != null) return;
+        sReady = new CountDownLatch(1);
+
+        Thread thread = new Thread(() -> {
+            // a background pre-build, it must not compete with the UI or the activity being launched
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            long start = System.nanoTime();
+            try {
+                sSharedScope = build();
+                MLog.d(TAG, "warm runtime ready in %d ms", (System.nanoTime() - start) / 1000000);
+            } catch (Exception e) {
+                MLog.e(TAG, "cannot warm up the runtime " + e);
+            } finally {
+                sReady.countDown();
+            }
+        }, "PhonkStandbyRuntime");
+        thread.start();
+    }
+
+    /**
+     * Returns the sealed shared scope, waiting for it if it is still being built.
+     * Returns null if it could not be built so the caller can fall back to its own standard objects
+     */
+    public static ScriptableObject getSharedScope() {
+        CountDownLatch ready;
+        synchronized (StandbyRuntime.class) {
+            warmUp();
+            ready = sReady;
+        }
+
+        try {
+            ready.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        return sSharedScope;
+    }
+
+    /**
+     * Creates an empty scope for a project, global variables are defined in it while the standard
+     * objects are found in the shared prototype
+     */
+    public static Scriptable newScope(Context cx, ScriptableObject shared) {
+        Scriptable scope = cx.newObject(shared);
+        scope.setPrototype(shared);
+        scope.setParentScope(null);
+
+        // java packages cache the classes they load as properties, they cannot live in a sealed scope
+        NativeJavaTopPackage.init(cx, scope, false);
+
+        return scope;
+    }
+
+    private static ScriptableObject build() {
+        Context cx = AppRunnerInterpreter.initContextFactory().enterContext();
+        try {
+            cx.setLanguageVersion(Context.VERSION_ES6);
+            cx.setOptimizationLevel(AppRunnerSettings.SCRIPT_OPTIMIZATION_LEVEL);
+
+            // sealed, so no project can leak changes of the built-in objects into the next one
+            ScriptableObject shared = cx.initStandardObjects(null, true);
+
+            // the reflected members are cached per class in the top scope
+            for (Class<?> c : API_CLASSES) new NativeJavaClass(shared, c);
+
+            cx.evaluateString(newScope(cx, shared), WARM_UP_SCRIPT, "warmup", 1, null);
+
+            return shared;
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -22,6 +22,8 @@
 
 package io.phonk.runner.base.events;
 
+import java.util.List;
+
 import io.phonk.runner.base.models.Project;
 
 public class Events {
@@ -82,5 +84,52 @@ public class Events {
 
     }
 
+    /**
+     * Console lines coalesced during one tick
+     */
+    public static class LogBatchEvent {
+        private final List<LogEvent> logs;
+
+        public LogBatchEvent(List<LogEvent> logs) {
+            this.logs = logs;
+        }
+
+        public List<LogEvent> getLogs() {
+            return logs;
+        }
+
+        public String[] getActions() {
+            String[] actions = new String[logs.size()];
+            for (int i = 0; i < actions.length; i++) actions[i] = logs.get(i).getAction();
+            return actions;
+        }
+
+        public String[] getTimes() {
+            String[] times = new String[logs.size()];
+            for (int i = 0; i < times.length; i++) times[i] = logs.get(i).getTime();
+            return times;
+        }
+
+        public String[] getData() {
+            String[] data = new String[logs.size()];
+            for (int i = 0; i < data.length; i++) data[i] = logs.get(i).getData();
+            return data;
+        }
+    }
+
+    /**
+     * Profiler report of the running script as json
+     */
+    public static class ProfilerEvent {
+        private final String report;
+
+        public ProfilerEvent(String report) {
+            this.report = report;
+        }
+
+        public String getReport() {
+            return report;
+        }
+    }
 
-}
\ No newline at end of file
+}
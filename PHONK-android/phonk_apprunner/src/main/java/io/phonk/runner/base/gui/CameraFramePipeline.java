@@ -0,0 +1,219 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package io.phonk.runner.base.gui;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+import io.phonk.runner.apprunner.api.common.ReturnObject;
+import io.phonk.runner.apprunner.api.media.ImageUtils;
+import io.phonk.runner.base.utils.MLog;
+
+/**
+ * Preview frames of a {@link Camera} handed over to a worker thread. The camera fills a small pool of
+ * preallocated buffers and only the newest frame is kept waiting for the worker, an older one goes back
+ * to the camera, so a slow consumer skips frames instead of piling them up.
+ * <p>
+ * The worker converts the NV21 frame into a reused ARGB array when asked to and gives the buffer back
+ * to the camera once the listener returns
+ */
+class CameraFramePipeline implements Camera.PreviewCallback {
+    private static final String TAG = CameraFramePipeline.class.getSimpleName();
+    private static final int BUFFERS = 3;
+    private static final long FPS_WINDOW_NS = 1000000000L;
+
+    private final Camera mCamera;
+    private final int mWidth;
+    private final int mHeight;
+    private final FrameListener mListener;
+    private final Object mLock = new Object();
+    private volatile boolean mConvert = false;
+    private volatile int mStep = 1;
+    private int[] mArgb;
+    private Thread mWorker;
+
+    // guarded by mLock
+    private boolean mRunning = false;
+    private byte[] mPending;
+    private long mPendingTime;
+    private long mReceived = 0;
+    private long mDelivered = 0;
+    private long mDropped = 0;
+    private long mLatencyTotal = 0;
+    private long mLatencyMax = 0;
+    private long mConvertTotal = 0;
+    private long mWindowStart = 0;
+    private int mWindowFrames = 0;
+    private float mFps = 0;
+
+    CameraFramePipeline(Camera camera, int width, int height, FrameListener listener) {
+        mCamera = camera;
+        mWidth = width;
+        mHeight = height;
+        mListener = listener;
+    }
+
+    /**
+     * The preview format has to be NV21 before starting, it is the one every camera supports
+     */
+    void start() {
+        int size = mWidth * mHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+
+        synchronized (mLock) {
+            mRunning = true;
+            mWindowStart = System.nanoTime();
+        }
+
+        mCamera.setPreviewCallbackWithBuffer(this);
+        for (int i = 0; i < BUFFERS; i++) mCamera.addCallbackBuffer(new byte[size]);
+
+        mWorker = new Thread(this::work, "PhonkCameraFrames");
+        mWorker.start();
+    }
+
+    /**
+     * Must be called before releasing the camera
+     */
+    void stop() {
+        synchronized (mLock) {
+            if (!mRunning) return;
+            mRunning = false;
+            mPending = null;
+            mLock.notifyAll();
+        }
+
+        mCamera.setPreviewCallbackWithBuffer(null);
+        if (mWorker != null) mWorker.interrupt();
+    }
+
+    void convert(boolean convert) {
+        mConvert = convert;
+    }
+
+    void step(int step) {
+        mStep = Math.max(1, step);
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        if (data == null) return;
+
+        synchronized (mLock) {
+            if (!mRunning) return;
+            mReceived++;
+
+            // the worker is still busy, the waiting frame is replaced by the newest one
+            if (mPending != null) {
+                mCamera.addCallbackBuffer(mPending);
+                mDropped++;
+            }
+            mPending = data;
+            mPendingTime = System.nanoTime();
+            mLock.notifyAll();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            byte[] data;
+            long arrived;
+
+            synchronized (mLock) {
+                try {
+                    while (mRunning && mPending == null) mLock.wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!mRunning) return;
+
+                data = mPending;
+                arrived = mPendingTime;
+                mPending = null;
+            }
+
+            long start = System.nanoTime();
+            int[] argb = null;
+            int step = mStep;
+            int width = mWidth / step;
+            int height = mHeight / step;
+            if (mConvert) {
+                if (mArgb == null || mArgb.length != width * height) mArgb = new int[width * height];
+                ImageUtils.convertYUV420SPToARGB8888(data, mWidth, mHeight, mArgb, step);
+                argb = mArgb;
+            }
+            long converted = System.nanoTime();
+
+            try {
+                mListener.onFrame(data, argb, width, height);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                MLog.e(TAG, "frame listener failed: " + e.toString());
+            }
+            long done = System.nanoTime();
+
+            synchronized (mLock) {
+                if (!mRunning) return;
+
+                mCamera.addCallbackBuffer(data);
+
+                long latency = done - arrived;
+                mDelivered++;
+                mLatencyTotal += latency;
+                if (latency > mLatencyMax) mLatencyMax = latency;
+                mConvertTotal += converted - start;
+
+                mWindowFrames++;
+                if (done - mWindowStart >= FPS_WINDOW_NS) {
+                    mFps = mWindowFrames * 1e9f / (done - mWindowStart);
+                    mWindowFrames = 0;
+                    mWindowStart = done;
+                }
+            }
+        }
+    }
+
+    ReturnObject stats() {
+        ReturnObject ret = new ReturnObject();
+
+        synchronized (mLock) {
+            ret.put("width", mWidth);
+            ret.put("height", mHeight);
+            ret.put("received", mReceived);
+            ret.put("delivered", mDelivered);
+            ret.put("dropped", mDropped);
+            ret.put("fps", mFps);
+            ret.put("latencyMs", mDelivered == 0 ? 0 : mLatencyTotal / mDelivered / 1e6);
+            ret.put("maxLatencyMs", mLatencyMax / 1e6);
+            ret.put("convertMs", mDelivered == 0 ? 0 : mConvertTotal / mDelivered / 1e6);
+        }
+
+        return ret;
+    }
+
+    interface FrameListener {
+        /**
+         * Called on the worker thread, data and argb are only valid until it returns
+         */
+        void onFrame(byte[] data, int[] argb, int width, int height) throws InterruptedException;
+    }
+}
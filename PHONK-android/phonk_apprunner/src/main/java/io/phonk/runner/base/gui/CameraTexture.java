@@ -28,6 +28,8 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
@@ -41,6 +43,7 @@ import android.media.MediaRecorder;
 import android.media.SoundPool;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
 import android.util.Base64;
 import android.util.Log;
 import android.util.Size;
@@ -56,6 +59,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.phonk.runner.apprunner.AppRunner;
 import io.phonk.runner.apprunner.api.common.ReturnInterface;
@@ -91,7 +95,28 @@ public class CameraTexture extends AutoFitTextureView implements TextureView.Sur
     private CallbackData callbackData;
     private CallbackBmp callbackBmp;
     private CallbackStream callbackStream;
+    private final CopyOnWriteArrayList<CallbackData> workerCallbacksData = new CopyOnWriteArrayList<>();
+    private CallbackBmp workerCallbackBmp;
     private boolean frameProcessing = false;
+    private CameraFramePipeline mFrames;
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private int mFrameStep = 1;
+    private int mJpegQuality = 80;
+    // reused for every frame, only touched by the frame worker
+    private Bitmap mFrameBmp;
+    private Bitmap mRotatedBmp;
+    private Canvas mRotatedCanvas;
+    private final Matrix mRotateMatrix = new Matrix();
+    private final ByteArrayOutputStream mJpegOut = new ByteArrayOutputStream();
+    private Rect mJpegRect;
+    // frame handed to the script callbacks
+    private final Handler mScriptHandler;
+    private final Runnable mScriptDelivery = this::deliverToScript;
+    private byte[] mScriptData;
+    private Bitmap mScriptBmp;
+    private String mScriptBase64;
+    private boolean mScriptDone;
     private OnReadyCallback mOnReadyCallback;
     private ReturnInterface mPictureTakenCallback;
     private ReturnInterface mVideoTakenCallback;
@@ -103,6 +128,7 @@ public class CameraTexture extends AutoFitTextureView implements TextureView.Sur
         this.mAppRunner = appRunner;
         this.modeColor = colorMode;
         this.modeCamera = camera;
+        this.mScriptHandler = new Handler(appRunner.getScriptLooper());
 
         this.setSurfaceTextureListener(this);
     }
@@ -149,8 +175,8 @@ public class CameraTexture extends AutoFitTextureView implements TextureView.Sur
 
     protected void stopCamera() {
         if (mCamera != null) {
+            stopFrames();
             mCamera.stopPreview();
-            mCamera.setPreviewCallback(null);
             mCamera.release();
             mCamera = null;
         }
@@ -185,6 +211,7 @@ public class CameraTexture extends AutoFitTextureView implements TextureView.Sur
 
         setCameraDisplayOrientation(cameraId, mCamera);
         mCamera.startPreview();
+        if (frameProcessing) startFrames();
         mOnReadyCallback.event();
     }
 
@@ -265,72 +292,167 @@ public class CameraTexture extends AutoFitTextureView implements TextureView.Sur
     public void startOnFrameProcessing() {
         if (!frameProcessing) {
             frameProcessing = true;
-            Camera.Parameters parameters = mCamera.getParameters();
-            int format = parameters.getPreviewFormat();
+            if (mCamera != null) startFrames();
+        }
+    }
 
-            mCamera.setPreviewCallback((data, camera) -> {
-                if (callbackData != null) {
-                    callbackData.event(data, camera);
-                }
-                if (callbackBmp != null) {
-                    Parameters parameters1 = camera.getParameters();
+    private void startFrames() {
+        // the preview size and format are read once, frames always come as NV21
+        if (mParameters.getPreviewFormat() != ImageFormat.NV21) {
+            mParameters.setPreviewFormat(ImageFormat.NV21);
+            applyParameters();
+        }
+        Camera.Size size = mParameters.getPreviewSize();
+        mFrameWidth = size.width;
+        mFrameHeight = size.height;
+        mJpegRect = new Rect(0, 0, mFrameWidth, mFrameHeight);
 
-                    List<Camera.Size> sizes = camera.getParameters().getSupportedPreviewSizes();
-                    for (Camera.Size size : sizes) {
-                        MLog.d("wewe", "sizes " + size.width + " " + size.height);
-                    }
+        mFrames = new CameraFramePipeline(mCamera, mFrameWidth, mFrameHeight, this::onFrame);
+        mFrames.step(mFrameStep);
+        updateFrameConversion();
+        mFrames.start();
+    }
 
-                    List<Integer> formats = camera.getParameters().getSupportedPreviewFormats();
-                    for (Integer integer : formats) {
-                        MLog.d(TAG, "formats " + integer);
-                    }
+    private void stopFrames() {
+        if (mFrames == null) return;
 
-                    int width = parameters1.getPreviewSize().width;
-                    int height = parameters1.getPreviewSize().height;
-                    // MLog.d("wewe", "-> " + width + " " + height);
+        mFrames.stop();
+        mFrames = null;
+        mScriptHandler.removeCallbacks(mScriptDelivery);
+    }
 
-                    // get support preview format
-                    YuvImage yuv = new YuvImage(data, parameters1.getPreviewFormat(), width, height, null);
-                    if (yuv == null) return;
+    private void updateFrameConversion() {
+        if (mFrames != null) mFrames.convert(callbackBmp != null || workerCallbackBmp != null);
+    }
 
-                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /**
+     * Runs on the frame worker. The worker callbacks get the frame right away, the script ones get it on
+     * the script thread while the worker waits, so the pooled buffer and the reused bitmaps stay untouched
+     * until the script returns and the frames arriving meanwhile are dropped
+     */
+    private void onFrame(byte[] data, int[] argb, int width, int height) throws InterruptedException {
+        Bitmap bmp = argb != null ? frameBitmap(argb, width, height) : null;
 
-                    // maybe pass the output to the callbacks and do each compression there?
-                    yuv.compressToJpeg(new Rect(0, 0, width, height), 100, out);
+        for (CallbackData callback : workerCallbacksData) callback.event(data, mCamera);
+        if (workerCallbackBmp != null && bmp != null) workerCallbackBmp.event(bmp);
 
-                    Matrix matrix = new Matrix();
-                    matrix.postRotate(90);
-                    matrix.postScale((float) 0.5, (float) 0.5);
-                    byte[] bytes = out.toByteArray();
+        if (callbackData == null && callbackStream == null && (callbackBmp == null || bmp == null)) return;
 
-                    BitmapFactory.Options bitmap_options = new BitmapFactory.Options();
-                    bitmap_options.inPreferredConfig = Bitmap.Config.RGB_565;
-                    final Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, bitmap_options);
-                    Bitmap fbitmap = Bitmap.createBitmap(bitmap, 0, 0, 300, 300, matrix, true);
+        synchronized (mScriptDelivery) {
+            mScriptData = data;
+            mScriptBmp = bmp;
+            mScriptBase64 = callbackStream != null ? frameBase64(data) : null;
+            mScriptDone = false;
+        }
+        mScriptHandler.post(mScriptDelivery);
 
-                    callbackBmp.event(fbitmap);
-                }
-                if (callbackStream != null) {
-                    Parameters parameters1 = camera.getParameters();
-                    int width = parameters1.getPreviewSize().width;
-                    int height = parameters1.getPreviewSize().height;
+        synchronized (mScriptDelivery) {
+            while (!mScriptDone) mScriptDelivery.wait();
+        }
+    }
 
-                    // CameraTexture.this.setAspectRatio(height, width);
+    private void deliverToScript() {
+        try {
+            if (callbackData != null) callbackData.event(mScriptData, mCamera);
+            if (callbackBmp != null && mScriptBmp != null) callbackBmp.event(mScriptBmp);
+            if (callbackStream != null && mScriptBase64 != null) callbackStream.event(mScriptBase64);
+        } finally {
+            synchronized (mScriptDelivery) {
+                mScriptData = null;
+                mScriptBmp = null;
+                mScriptBase64 = null;
+                mScriptDone = true;
+                mScriptDelivery.notifyAll();
+            }
+        }
+    }
 
+    private Bitmap frameBitmap(int[] argb, int width, int height) {
+        if (mFrameBmp == null || mFrameBmp.getWidth() != width || mFrameBmp.getHeight() != height) {
+            mFrameBmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mRotatedBmp = null;
+        }
+        mFrameBmp.setPixels(argb, 0, width, 0, 0, width, height);
 
-                    // get support preview format
-                    YuvImage yuv = new YuvImage(data, parameters1.getPreviewFormat(), width, height, null);
-                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int rotation = mCameraRotation;
+        if (rotation == 0) return mFrameBmp;
 
-                    String encodedImage = Base64.encodeToString(out.toByteArray(), Base64.DEFAULT);
-                    callbackStream.event(encodedImage);
-                }
-            });
+        boolean swap = rotation == 90 || rotation == 270;
+        int rotatedWidth = swap ? height : width;
+        int rotatedHeight = swap ? width : height;
+        if (mRotatedBmp == null || mRotatedBmp.getWidth() != rotatedWidth || mRotatedBmp.getHeight() != rotatedHeight) {
+            mRotatedBmp = Bitmap.createBitmap(rotatedWidth, rotatedHeight, Bitmap.Config.ARGB_8888);
+            mRotatedCanvas = new Canvas(mRotatedBmp);
         }
+
+        mRotateMatrix.setRotate(rotation);
+        if (rotation == 90) mRotateMatrix.postTranslate(height, 0);
+        else if (rotation == 180) mRotateMatrix.postTranslate(width, height);
+        else if (rotation == 270) mRotateMatrix.postTranslate(0, width);
+        mRotatedCanvas.drawBitmap(mFrameBmp, mRotateMatrix, null);
+
+        return mRotatedBmp;
+    }
+
+    private String frameBase64(byte[] data) {
+        mJpegOut.reset();
+        YuvImage yuv = new YuvImage(data, ImageFormat.NV21, mFrameWidth, mFrameHeight, null);
+        yuv.compressToJpeg(mJpegRect, mJpegQuality, mJpegOut);
+
+        return Base64.encodeToString(mJpegOut.toByteArray(), Base64.DEFAULT);
+    }
+
+    /**
+     * Bitmap frames only convert every step-th pixel on each axis
+     */
+    public void setFrameStep(int step) {
+        mFrameStep = Math.max(1, step);
+        if (mFrames != null) mFrames.step(mFrameStep);
+    }
+
+    public void setJpegQuality(int quality) {
+        mJpegQuality = Math.max(0, Math.min(100, quality));
+    }
+
+    public int getFrameWidth() {
+        return mFrameWidth;
+    }
+
+    public int getFrameHeight() {
+        return mFrameHeight;
+    }
+
+    public ReturnObject getFrameStats() {
+        if (mFrames == null) return new ReturnObject();
+        return mFrames.stats();
+    }
+
+    /**
+     * Same as {@link #addCallbackData(CallbackData)} but called on the frame worker, the data is only
+     * valid until the callback returns. Several can be added
+     */
+    public void addCallbackDataOnWorker(CallbackData callbackData) {
+        workerCallbacksData.add(callbackData);
+        startOnFrameProcessing();
+    }
+
+    public void removeCallbackDataOnWorker(CallbackData callbackData) {
+        workerCallbacksData.remove(callbackData);
+    }
+
+    /**
+     * Same as {@link #addCallbackBmp(CallbackBmp)} but called on the frame worker, the bitmap is reused
+     * for the next frame
+     */
+    public void addCallbackBmpOnWorker(CallbackBmp callbackBmp) {
+        this.workerCallbackBmp = callbackBmp;
+        updateFrameConversion();
+        startOnFrameProcessing();
     }
 
     public void addCallbackBmp(CallbackBmp callbackBmp) {
         this.callbackBmp = callbackBmp;
+        updateFrameConversion();
         startOnFrameProcessing();
     }
 
@@ -340,8 +462,14 @@ public class CameraTexture extends AutoFitTextureView implements TextureView.Sur
     }
 
     public void setPreviewSize(int w, int h) {
+        // the frame buffers are sized for the preview
+        boolean restartFrames = mFrames != null;
+        if (restartFrames) stopFrames();
+
         mParameters.setPreviewSize(w, h);
         applyParameters();
+
+        if (restartFrames) startFrames();
     }
 
     public void setPictureSize(int w, int h) {
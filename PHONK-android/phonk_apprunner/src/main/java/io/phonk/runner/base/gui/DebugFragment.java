@@ -38,8 +38,10 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import io.phonk.runner.R;
 import io.phonk.runner.apprunner.interpreter.AppRunnerInterpreter;
@@ -59,6 +61,21 @@ public class DebugFragment extends Fragment {
         return new DebugFragment();
     }
 
+    /**
+     * The batch that made the console appear is shown first, batches are not sticky so it would be lost otherwise
+     */
+    public static DebugFragment newInstance(List<Events.LogEvent> firstLogs) {
+        DebugFragment fragment = new DebugFragment();
+        for (Events.LogEvent e : firstLogs) fragment.mLogArray.add(new LogData(actionType(e), e.getData()));
+        return fragment;
+    }
+
+    private static int actionType(Events.LogEvent e) {
+        if (e.getAction() == "log_error") return AppRunnerInterpreter.RESULT_ERROR;
+        if (e.getAction() == "log_permission_error") return AppRunnerInterpreter.RESULT_PERMISSION_ERROR;
+        return AppRunnerInterpreter.RESULT_OK;
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         super.onCreateView(inflater, container, savedInstanceState);
@@ -124,19 +141,15 @@ public class DebugFragment extends Fragment {
         return true;
     }
 
-    @Subscribe(sticky = true)
-    public void onEventMainThread(Events.LogEvent e) {
-        String logMsg = e.getData();
-
-        int actionType = AppRunnerInterpreter.RESULT_OK;
-        if (e.getAction() == "log_error") actionType = AppRunnerInterpreter.RESULT_ERROR;
-        else if (e.getAction() == "log_permission_error") actionType = AppRunnerInterpreter.RESULT_PERMISSION_ERROR;
-
-        addText(actionType, logMsg);
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onEventMainThread(Events.LogBatchEvent batch) {
+        for (Events.LogEvent e : batch.getLogs()) {
+            addText(actionType(e), e.getData());
+        }
     }
 
     public void addText(int actionType, String log) {
-        MLog.d(TAG, actionType + " " + log);
+        MLog.d(TAG, "%d %s", actionType, log);
         mLogArray.add(new LogData(actionType, log));
 
         if (!isLockPosition) {
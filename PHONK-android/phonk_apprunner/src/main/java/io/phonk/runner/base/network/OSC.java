@@ -24,14 +24,22 @@ package io.phonk.runner.base.network;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import de.sciss.net.OSCMessage;
 import de.sciss.net.OSCReceiver;
@@ -49,8 +57,14 @@ public class OSC {
         void onMessage(OSCMessage msg);
     }
 
+    /**
+     * Received messages are queued and given to the script in one go, one post per burst instead of
+     * one per packet. With latest only, a burst keeps just the last message of every address
+     */
     public static class Server {
-        public final Handler mHandler = new Handler(Looper.getMainLooper());
+        private static final int MAX_PENDING = 10000;
+
+        public final Handler mHandler;
         final Vector<OSCServerListener> listeners = new Vector<>();
         // OSC server
         OSCReceiver rcv;
@@ -58,6 +72,28 @@ public class OSC {
         DatagramChannel dch;
         SocketAddress inPort = null;
 
+        private final ArrayList<ReturnInterface> mCallbacks = new ArrayList<>();
+        private final ArrayDeque<OSCMessage> mPending = new ArrayDeque<>();
+        private final LinkedHashMap<String, OSCMessage> mLatest = new LinkedHashMap<>();
+        private final ArrayList<OSCMessage> mDelivering = new ArrayList<>();
+        private boolean mLatestOnly = false;
+        private int mDeliverEveryMs = 0;
+        private boolean mDeliveryPosted = false;
+        private long mReceived = 0;
+        private long mDelivered = 0;
+        private long mDropped = 0;
+
+        private final Runnable mDeliver = this::deliver;
+
+        public Server() {
+            this(new Handler(Looper.getMainLooper()));
+        }
+
+        // the callbacks are posted to the handler
+        public Server(Handler handler) {
+            mHandler = handler;
+        }
+
         public void start(String port) {
             rcv = null;
             dch = null;
@@ -83,20 +119,84 @@ public class OSC {
         }
 
         public void onNewData(final ReturnInterface callbackfn) {
+            synchronized (mPending) {
+                mCallbacks.add(callbackfn);
+                if (mCallbacks.size() > 1) return;
+            }
+
             this.addListener(msg -> {
-                final PhonkNativeArray valuesArray = new PhonkNativeArray(0);
+                synchronized (mPending) {
+                    mReceived++;
+                    if (mLatestOnly) {
+                        // keeps the order of the addresses by their last message
+                        mLatest.remove(msg.getName());
+                        mLatest.put(msg.getName(), msg);
+                    } else {
+                        if (mPending.size() >= MAX_PENDING) {
+                            mPending.pollFirst();
+                            mDropped++;
+                        }
+                        mPending.addLast(msg);
+                    }
+
+                    if (!mDeliveryPosted) {
+                        mDeliveryPosted = true;
+                        if (mDeliverEveryMs > 0) mHandler.postDelayed(mDeliver, mDeliverEveryMs);
+                        else mHandler.post(mDeliver);
+                    }
+                }
+            });
+        }
+
+        // only the last message of every address is delivered
+        public Server latestOnly(boolean latestOnly) {
+            synchronized (mPending) {
+                mLatestOnly = latestOnly;
+            }
+            return this;
+        }
+
+        // waits the given milliseconds after a message so the ones arriving meanwhile are delivered together
+        public Server deliverEvery(int ms) {
+            mDeliverEveryMs = Math.max(0, ms);
+            return this;
+        }
+
+        public ReturnObject stats() {
+            ReturnObject r = new ReturnObject();
+            synchronized (mPending) {
+                r.put("received", mReceived);
+                r.put("delivered", mDelivered);
+                r.put("pending", mPending.size() + mLatest.size());
+                r.put("dropped", mDropped);
+                // replaced by a newer message of the same address
+                r.put("coalesced", mReceived - mDelivered - mDropped - mPending.size() - mLatest.size());
+            }
+            return r;
+        }
+
+        private void deliver() {
+            synchronized (mPending) {
+                mDeliveryPosted = false;
+                mDelivering.addAll(mPending);
+                mDelivering.addAll(mLatest.values());
+                mPending.clear();
+                mLatest.clear();
+            }
+
+            for (OSCMessage msg : mDelivering) {
+                final PhonkNativeArray valuesArray = new PhonkNativeArray(msg.getArgCount());
                 for (int i = 0; i < msg.getArgCount(); i++) {
-                    valuesArray.put(valuesArray.size(), valuesArray, msg.getArg(i));
+                    valuesArray.addPE(i, msg.getArg(i));
                 }
 
-                mHandler.post(() -> {
-                    // MLog.d(TAG, "receiver");
-                    ReturnObject o = new ReturnObject();
-                    o.put("name", msg.getName());
-                    o.put("data", valuesArray);
-                    callbackfn.event(o);
-                });
-            });
+                ReturnObject o = new ReturnObject();
+                o.put("name", msg.getName());
+                o.put("data", valuesArray);
+                for (ReturnInterface callback : mCallbacks) callback.event(o);
+                mDelivered++;
+            }
+            mDelivering.clear();
         }
 
         public void addListener(OSCServerListener listener) {
@@ -112,6 +212,7 @@ public class OSC {
         }
 
         public void stopOSCServer() {
+            mHandler.removeCallbacks(mDeliver);
             try {
                 dch.close();
             } catch (IOException e) {
@@ -125,13 +226,45 @@ public class OSC {
         }
     }
 
+    /**
+     * Messages are queued and sent by a single thread that encodes them into a reused buffer.
+     * With bundling the messages queued during a tick go out together in as few packets as possible
+     */
     public static class Client {
+        // stays below the usual mtu so the packets are not fragmented
+        private static final int DEFAULT_MAX_PACKET = 1400;
+        private static final int MAX_UDP = 65507;
+
         // OSC client
         SocketAddress addr2;
         DatagramChannel dch2;
-        OSCTransmitter trns2;
         boolean oscConnected = false;
 
+        private static class Pending {
+            final String address;
+            final Object[] args;
+
+            Pending(String address, Object[] args) {
+                this.address = address;
+                this.args = args;
+            }
+        }
+
+        private volatile ArrayBlockingQueue<Pending> mQueue = new ArrayBlockingQueue<>(4096);
+        private final OSCEncoder mEncoder = new OSCEncoder();
+        private final ByteBuffer mPacket = ByteBuffer.allocateDirect(MAX_UDP);
+        private Thread mSender;
+        private volatile boolean mRunning = false;
+        private volatile int mBundleMs = 0;
+        private volatile int mMaxPacket = DEFAULT_MAX_PACKET;
+        private long mNextTick = 0;
+
+        // stats
+        private volatile long mMessages = 0;
+        private volatile long mPackets = 0;
+        private volatile long mDropped = 0;
+        private volatile long mErrors = 0;
+
         public Client(String address, int port) {
             connectOSC(address, port);
         }
@@ -141,8 +274,11 @@ public class OSC {
                 addr2 = new InetSocketAddress(InetAddress.getByName(address), port);
                 dch2 = DatagramChannel.open();
                 dch2.socket().bind(null);
-                trns2 = OSCTransmitter.newUsing(dch2);
                 oscConnected = true;
+
+                mRunning = true;
+                mSender = new Thread(this::senderLoop, "PhonkOSCSender");
+                mSender.start();
             } catch (NumberFormatException e) {
                 e.printStackTrace();
             } catch (UnknownHostException e) {
@@ -157,20 +293,120 @@ public class OSC {
         }
 
         public void send(final String msg, final Object[] o) {
+            if (!oscConnected) return;
+
+            Pending pending = new Pending(msg, o);
+            // when the queue is full the oldest message is the least useful one
+            while (!mQueue.offer(pending)) {
+                if (mQueue.poll() != null) mDropped++;
+            }
+        }
+
+        // sends the messages queued during every tick in bundles, 0 sends every message in its own packet
+        public Client bundle(int tickMs) {
+            mBundleMs = Math.max(0, tickMs);
+            return this;
+        }
+
+        public Client maxPacketSize(int bytes) {
+            mMaxPacket = Math.max(64, Math.min(MAX_UDP, bytes));
+            return this;
+        }
+
+        // messages waiting to be sent, the oldest are dropped when it is full. Call it before sending
+        public Client queueSize(int messages) {
+            mQueue = new ArrayBlockingQueue<>(Math.max(16, messages));
+            return this;
+        }
+
+        public ReturnObject stats() {
+            ReturnObject r = new ReturnObject();
+            r.put("messages", mMessages);
+            r.put("packets", mPackets);
+            r.put("queued", mQueue.size());
+            r.put("dropped", mDropped);
+            r.put("errors", mErrors);
+            return r;
+        }
 
-            if (oscConnected) {
-                Thread t = new Thread(() -> {
-                    MLog.d(TAG, "sending");
-                    try {
-                        MLog.d(TAG, "sent");
-                        trns2.send(new OSCMessage(msg, o), addr2);
-                    } catch (IOException e) {
-                        MLog.d(TAG, "not sent");
-                        e.printStackTrace();
+        private void senderLoop() {
+            // plain priority, the sender must not compete with audio or rendering threads
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+
+            while (mRunning) {
+                Pending first;
+                try {
+                    first = mQueue.poll(500, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+
+                    int tick = mBundleMs;
+                    if (tick > 0) {
+                        // wait for the end of the tick so everything sent meanwhile goes together
+                        long now = System.nanoTime();
+                        if (mNextTick - now > 0) TimeUnit.NANOSECONDS.sleep(mNextTick - now);
+                        mNextTick = Math.max(mNextTick, now) + TimeUnit.MILLISECONDS.toNanos(tick);
+                        sendBundles(first);
+                    } else {
+                        Pending p = first;
+                        while (p != null) {
+                            sendMessage(p);
+                            p = mQueue.poll();
+                        }
                     }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
 
-                });
-                t.start();
+        private void sendMessage(Pending p) {
+            mPacket.clear();
+            try {
+                mEncoder.message(mPacket, p.address, p.args);
+            } catch (BufferOverflowException e) {
+                MLog.e(TAG, "message too big " + p.address);
+                mErrors++;
+                return;
+            }
+            transmit(1);
+        }
+
+        private void sendBundles(Pending first) {
+            int max = mMaxPacket;
+            int count = 0;
+            mPacket.clear();
+            mEncoder.beginBundle(mPacket);
+
+            Pending p = first;
+            while (p != null) {
+                if (mEncoder.bundleMessage(mPacket, p.address, p.args, max)) {
+                    count++;
+                    p = mQueue.poll();
+                } else if (count > 0) {
+                    // the bundle is full, send it and start the next one with this message
+                    transmit(count);
+                    count = 0;
+                    mPacket.clear();
+                    mEncoder.beginBundle(mPacket);
+                } else {
+                    // a single message bigger than the packet size goes alone
+                    sendMessage(p);
+                    mPacket.clear();
+                    mEncoder.beginBundle(mPacket);
+                    p = mQueue.poll();
+                }
+            }
+            if (count > 0) transmit(count);
+        }
+
+        private void transmit(int messages) {
+            mPacket.flip();
+            try {
+                dch2.send(mPacket, addr2);
+                mPackets++;
+                mMessages += messages;
+            } catch (IOException e) {
+                mErrors++;
             }
         }
 
@@ -183,12 +419,14 @@ public class OSC {
         }
 
         public void disconnectOSC() {
+            mRunning = false;
+            oscConnected = false;
+            if (mSender != null) mSender.interrupt();
             try {
-                dch2.close();
+                if (dch2 != null) dch2.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
-            trns2.dispose();
         }
 
     }
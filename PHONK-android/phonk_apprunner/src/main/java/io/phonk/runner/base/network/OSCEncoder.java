@@ -0,0 +1,128 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.base.network;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes OSC messages and bundles straight into a ByteBuffer that is reused for every packet.
+ * Numbers with decimals are sent as float32 and integers as int32, like the default codec of NetUtil
+ */
+public class OSCEncoder {
+
+    private static final byte[] BUNDLE = {'#', 'b', 'u', 'n', 'd', 'l', 'e', 0};
+    // timetag 1 means immediately
+    private static final long IMMEDIATELY = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Encodes a message at the current position. Throws BufferOverflowException if it does not fit,
+     * the position is then undefined
+     */
+    public void message(ByteBuffer out, String address, Object[] args) {
+        string(out, address);
+
+        int count = args == null ? 0 : args.length;
+        out.put((byte) ',');
+        for (int i = 0; i < count; i++) out.put(tag(args[i]));
+        out.put((byte) 0);
+        pad(out, count + 2);
+
+        for (int i = 0; i < count; i++) {
+            Object arg = args[i];
+            if (arg instanceof Double || arg instanceof Float) {
+                out.putFloat(((Number) arg).floatValue());
+            } else if (arg instanceof Number) {
+                out.putInt(((Number) arg).intValue());
+            } else if (arg instanceof Boolean || arg == null) {
+                // the value is in the tag
+            } else if (arg instanceof byte[]) {
+                byte[] blob = (byte[]) arg;
+                out.putInt(blob.length);
+                out.put(blob);
+                pad(out, blob.length);
+            } else {
+                string(out, arg.toString());
+            }
+        }
+    }
+
+    public void beginBundle(ByteBuffer out) {
+        out.put(BUNDLE);
+        out.putLong(IMMEDIATELY);
+    }
+
+    /**
+     * Adds a message to the bundle started with beginBundle. Returns false and leaves the buffer as
+     * it was if the bundle would get bigger than maxSize
+     */
+    public boolean bundleMessage(ByteBuffer out, String address, Object[] args, int maxSize) {
+        int start = out.position();
+        try {
+            out.putInt(0);
+            message(out, address, args);
+        } catch (BufferOverflowException e) {
+            out.position(start);
+            return false;
+        }
+
+        if (out.position() > maxSize) {
+            out.position(start);
+            return false;
+        }
+        out.putInt(start, out.position() - start - 4);
+        return true;
+    }
+
+    private static byte tag(Object arg) {
+        if (arg instanceof Double || arg instanceof Float) return 'f';
+        if (arg instanceof Number) return 'i';
+        if (arg instanceof Boolean) return (byte) ((Boolean) arg ? 'T' : 'F');
+        if (arg == null) return 'N';
+        if (arg instanceof byte[]) return 'b';
+        return 's';
+    }
+
+    // ascii strings are written without creating a byte array
+    private static void string(ByteBuffer out, String s) {
+        int length = s.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) ascii = s.charAt(i) < 128;
+
+        if (ascii) {
+            for (int i = 0; i < length; i++) out.put((byte) s.charAt(i));
+        } else {
+            byte[] bytes = s.getBytes(UTF8);
+            out.put(bytes);
+            length = bytes.length;
+        }
+        out.put((byte) 0);
+        pad(out, length + 1);
+    }
+
+    private static void pad(ByteBuffer out, int length) {
+        for (int i = length; (i & 3) != 0; i++) out.put((byte) 0);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.base.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import io.phonk.runner.apprunner.interpreter.StandbyRuntime;
+
+/*
+ * Receiving this broadcast starts the runner process ahead of time, so the next project launch
+ * finds the javascript runtime already warm
+ */
+
+public class StandbyReceiver extends BroadcastReceiver {
+
+    public static void wakeUp(Context context) {
+        context.sendBroadcast(new Intent(context, StandbyReceiver.class));
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        StandbyRuntime.warmUp();
+    }
+}
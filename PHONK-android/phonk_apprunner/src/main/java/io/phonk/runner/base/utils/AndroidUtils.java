@@ -23,6 +23,8 @@
 package io.phonk.runner.base.utils;
 
 import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.app.Application;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
@@ -54,6 +56,7 @@ import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import java.util.Map;
 
 import io.phonk.runner.AppRunnerActivity;
@@ -298,6 +301,21 @@ public class AndroidUtils {
         );
     }
 
+    public static String getProcessName(Context c) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) return Application.getProcessName();
+
+        int pid = android.os.Process.myPid();
+        ActivityManager am = (ActivityManager) c.getSystemService(Context.ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes = am.getRunningAppProcesses();
+        if (processes != null) {
+            for (ActivityManager.RunningAppProcessInfo process : processes) {
+                if (process.pid == pid) return process.processName;
+            }
+        }
+
+        return "";
+    }
+
     public static boolean isScreenOn(Context c) {
         PowerManager pm = (PowerManager) c.getSystemService(Context.POWER_SERVICE);
         return pm.isScreenOn();
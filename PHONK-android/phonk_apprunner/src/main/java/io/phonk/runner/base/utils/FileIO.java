@@ -36,7 +36,6 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -44,7 +43,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.zip.ZipEntry;
@@ -52,6 +54,8 @@ import java.util.zip.ZipInputStream;
 
 public class FileIO {
     private static final String TAG = FileIO.class.getSimpleName();
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final Charset UTF8 = Charset.forName("UTF-8");
 
     public static boolean copyAssetFolder(AssetManager assetManager, String fromAssetPath, String toPath) {
         try {
@@ -91,7 +95,7 @@ public class FileIO {
     }
 
     private static void copyFile(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[1024];
+        byte[] buffer = new byte[BUFFER_SIZE];
         int read;
         while ((read = in.read(buffer)) != -1) {
             out.write(buffer, 0, read);
@@ -146,27 +150,26 @@ public class FileIO {
     }
 
     public static String loadStringFromFile(String path) {
-        String out = null;
-        File f = new File(path);
+        byte[] data = loadBytesFromFile(path);
+        if (data == null) return null;
+        return new String(data, UTF8);
+    }
 
-        try {
-            InputStream in = new FileInputStream(f);
-            ByteArrayOutputStream buf = new ByteArrayOutputStream();
-            int i;
-            try {
-                i = in.read();
-                while (i != -1) {
-                    buf.write(i);
-                    i = in.read();
-                }
+    // reads the whole file in one go through its channel
+    public static byte[] loadBytesFromFile(String path) {
+        try (FileChannel channel = new FileInputStream(path).getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) return null;
 
-                in.close();
-            } catch (IOException ignored) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) break;
             }
-            out = buf.toString();
+            if (buffer.hasRemaining()) return Arrays.copyOf(buffer.array(), buffer.position());
+            return buffer.array();
         } catch (IOException ignored) {
+            return null;
         }
-        return out;
     }
 
     static public void zipFolder(String src, String dst) throws Exception {
@@ -268,21 +271,25 @@ public class FileIO {
 
     public static void appendString(String fileUrl, String line) {
         try {
-            File f = new File(fileUrl);
-            if (!f.exists()) {
-                f.createNewFile();
-            }
-            FileOutputStream fo = new FileOutputStream(f, true);
-            fo.write(line.getBytes());
-            fo.flush();
-            fo.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            writeString(fileUrl, line, true);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Writes or appends the text, unlike saveStringToFile and appendString the errors reach the caller
+     */
+    public static void writeString(String filepath, String text, boolean append) throws IOException {
+        FileOutputStream fo = new FileOutputStream(new File(filepath), append);
+        try {
+            fo.write(text.getBytes(UTF8));
+            fo.flush();
+        } finally {
+            fo.close();
+        }
+    }
+
 
     public static String[] listFilesInAssets(Context c, String path) {
         String[] ret = null;
@@ -303,7 +310,7 @@ public class FileIO {
                 f.createNewFile();
             }
             FileOutputStream fo = new FileOutputStream(f);
-            byte[] data = code.getBytes();
+            byte[] data = code.getBytes(UTF8);
             fo.write(data);
             fo.flush();
             fo.close();
@@ -30,10 +30,11 @@ import java.util.Map;
 
 /**
  * A simple class for measuring execution time in various contexts.
+ * <p>
+ * Safe to use from several threads, every image keeps its stages until {@link #finish(String)} and the
+ * average time of each stage is kept for {@link #averages()}
  */
 public class LoggingBenchmark {
-    private static final boolean ENABLED = false;
-
     private final String tag;
 
     private final Map<String, Long> totalImageTime = new HashMap<>();
@@ -41,12 +42,33 @@ public class LoggingBenchmark {
 
     private final Map<String, Map<String, Long>> stageStartTime = new HashMap<>();
 
+    private final Map<String, long[]> stageTotals = new HashMap<>();
+    private boolean enabled = false;
+    private boolean logging = false;
+
     public LoggingBenchmark(String tag) {
         this.tag = tag;
     }
 
-    public void startStage(String imageId, String stageName) {
-        if (!ENABLED) {
+    /**
+     * Measure the stages, when logging also writes every finished image to the log
+     */
+    public synchronized void setEnabled(boolean enabled, boolean logging) {
+        this.enabled = enabled;
+        this.logging = logging;
+        if (!enabled) {
+            stageStartTime.clear();
+            stageTime.clear();
+            totalImageTime.clear();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void startStage(String imageId, String stageName) {
+        if (!enabled) {
             return;
         }
 
@@ -62,13 +84,18 @@ public class LoggingBenchmark {
         stageStartTimeForImage.put(stageName, timeNs);
     }
 
-    public void endStage(String imageId, String stageName) {
-        if (!ENABLED) {
+    public synchronized void endStage(String imageId, String stageName) {
+        if (!enabled) {
             return;
         }
 
         long endTime = System.nanoTime();
-        long startTime = stageStartTime.get(imageId).get(stageName);
+        Map<String, Long> stageStartTimeForImage = stageStartTime.get(imageId);
+        // enabled while the stage was running
+        if (stageStartTimeForImage == null || !stageStartTimeForImage.containsKey(stageName)) {
+            return;
+        }
+        long startTime = stageStartTimeForImage.get(stageName);
         long duration = endTime - startTime;
 
         if (!stageTime.containsKey(imageId)) {
@@ -80,19 +107,47 @@ public class LoggingBenchmark {
             totalImageTime.put(imageId, 0L);
         }
         totalImageTime.put(imageId, totalImageTime.get(imageId) + duration);
+
+        long[] totals = stageTotals.get(stageName);
+        if (totals == null) {
+            totals = new long[2];
+            stageTotals.put(stageName, totals);
+        }
+        totals[0] += duration;
+        totals[1]++;
     }
 
-    public void finish(String imageId) {
-        if (!ENABLED) {
+    public synchronized void finish(String imageId) {
+        stageStartTime.remove(imageId);
+        Map<String, Long> stages = stageTime.remove(imageId);
+        Long total = totalImageTime.remove(imageId);
+
+        if (!enabled || !logging || stages == null) {
             return;
         }
 
         StringBuilder msg = new StringBuilder();
-        for (Map.Entry<String, Long> entry : stageTime.get(imageId).entrySet()) {
+        for (Map.Entry<String, Long> entry : stages.entrySet()) {
             msg.append(String.format(Locale.getDefault(), "%s: %.2fms | ", entry.getKey(), entry.getValue() / 1.0e6));
         }
 
-        msg.append(String.format(Locale.getDefault(), "TOTAL: %.2fms", totalImageTime.get(imageId) / 1.0e6));
+        msg.append(String.format(Locale.getDefault(), "TOTAL: %.2fms", total / 1.0e6));
         Log.d(tag, msg.toString());
     }
+
+    /**
+     * Average duration in ms of every stage measured so far
+     */
+    public synchronized Map<String, Double> averages() {
+        Map<String, Double> ret = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : stageTotals.entrySet()) {
+            long[] totals = entry.getValue();
+            ret.put(entry.getKey(), totals[0] / 1.0e6 / totals[1]);
+        }
+        return ret;
+    }
+
+    public synchronized void reset() {
+        stageTotals.clear();
+    }
 }
@@ -28,28 +28,136 @@ import android.util.Log;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Locale;
+
 public class MLog {
+    // levels use the same values as android.util.Log
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+
+    // compile-time level, calls below it are removed by the compiler when guarded with the flags below
+    public static final int LEVEL = DEBUG;
+    public static final boolean LOGV = LEVEL <= VERBOSE;
+    public static final boolean LOGD = LEVEL <= DEBUG;
+
     public static final boolean showClass = false;
     public static final boolean showMethod = true;
     public static final boolean network = false;
     public static final boolean device = true;
-    public static final boolean verbose = true;
+    // walking the stack to get the caller is expensive, only enable it when debugging the runner itself
+    public static final boolean verbose = false;
     private static final String TAG = "MLog";
-    private static final int LOG_D = 0;
-    private static final int LOG_E = 1;
-    private static final int LOG_I = 2;
-    private static final int LOG_W = 3;
-    private static final int LOG_V = 4;
+
+    // runtime level, can only be stricter than LEVEL
+    private static volatile int mLevel = LEVEL;
+    private static volatile MLogRingBuffer mRingBuffer;
+
+    public static void setLevel(int level) {
+        mLevel = Math.max(level, LEVEL);
+    }
+
+    public static int getLevel() {
+        return mLevel;
+    }
+
+    public static boolean isLoggable(int level) {
+        return level >= LEVEL && level >= mLevel;
+    }
+
+    /**
+     * Keeps the last messages in memory so they can be dumped on demand, null disables it
+     */
+    public static void setRingBuffer(MLogRingBuffer ringBuffer) {
+        mRingBuffer = ringBuffer;
+    }
+
+    public static MLogRingBuffer getRingBuffer() {
+        return mRingBuffer;
+    }
+
+    public static String dump() {
+        MLogRingBuffer ringBuffer = mRingBuffer;
+        if (ringBuffer == null) return "";
+
+        StringBuilder builder = new StringBuilder();
+        ringBuffer.dump(builder);
+        return builder.toString();
+    }
 
     public static void d(String msg) {
         d(msg, "");
     }
 
     public static void d(final String tag, final String msg) {
-        generic(LOG_D, tag, msg);
+        generic(DEBUG, tag, msg);
+    }
+
+    /*
+     * The formatted variants only build the message when the level is enabled
+     */
+    public static void d(String tag, String format, Object arg) {
+        if (isLoggable(DEBUG)) log(DEBUG, tag, format, new Object[]{arg});
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(DEBUG)) log(DEBUG, tag, format, new Object[]{arg1, arg2});
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(DEBUG)) log(DEBUG, tag, format, new Object[]{arg1, arg2, arg3});
+    }
+
+    public static void v(String tag, String format, Object arg) {
+        if (isLoggable(VERBOSE)) log(VERBOSE, tag, format, new Object[]{arg});
+    }
+
+    public static void v(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(VERBOSE)) log(VERBOSE, tag, format, new Object[]{arg1, arg2});
+    }
+
+    public static void i(String tag, String format, Object... args) {
+        if (isLoggable(INFO)) log(INFO, tag, format, args);
+    }
+
+    public static void w(String tag, String format, Object... args) {
+        if (isLoggable(WARN)) log(WARN, tag, format, args);
+    }
+
+    public static void e(String tag, String format, Object... args) {
+        if (isLoggable(ERROR)) log(ERROR, tag, format, args);
     }
 
     public static void generic(int type, final String tag, final String msg) {
+        if (!isLoggable(type)) return;
+
+        MLogRingBuffer ringBuffer = mRingBuffer;
+        if (ringBuffer != null) ringBuffer.add(type, tag, msg);
+        if (device) print(type, tag, msg);
+    }
+
+    private static void log(int type, String tag, String format, Object[] args) {
+        MLogRingBuffer ringBuffer = mRingBuffer;
+        if (ringBuffer == null && !device) return;
+
+        // formatted now, the arguments can change or be script objects we should not keep alive
+        String msg = format(format, args);
+        if (ringBuffer != null) ringBuffer.add(type, tag, msg);
+        if (device) print(type, tag, msg);
+    }
+
+    static String format(String format, Object[] args) {
+        if (args == null || args.length == 0) return format;
+        try {
+            return String.format(Locale.US, format, args);
+        } catch (RuntimeException e) {
+            return format;
+        }
+    }
+
+    private static void print(int type, String tag, String msg) {
         String callerClassName = "";
         String callerMethodName = "";
 
@@ -57,32 +165,35 @@ public class MLog {
             final Throwable th = new Throwable();
             final StackTraceElement[] elements = th.getStackTrace();
 
-            if (showClass) callerClassName = elements[2].getClassName();
-            if (showMethod) callerMethodName = elements[2].getMethodName();
+            // skip print and generic / log plus the public entry point
+            if (showClass) callerClassName = elements[3].getClassName();
+            if (showMethod) callerMethodName = elements[3].getMethodName();
         }
 
-        if (device) {
-            String logMsg = "[" + tag + " (" + callerMethodName + ")] " + msg;
-            switch (type) {
-                case LOG_D:
-                    Log.d(tag, logMsg);
-                    break;
+        String logMsg = "[" + tag + " (" + callerMethodName + ")] " + msg;
+        switch (type) {
+            case DEBUG:
+                Log.d(tag, logMsg);
+                break;
+
+            case ERROR:
+                Log.e(tag, logMsg);
+                break;
 
-                case LOG_E:
-                    Log.e(tag, logMsg);
-                    break;
+            case INFO:
+                Log.i(tag, logMsg);
+                break;
 
-                case LOG_I:
-                    Log.i(tag, logMsg);
-                    break;
+            case WARN:
+                Log.w(tag, logMsg);
+                break;
 
-                case LOG_W:
-                    Log.w(tag, logMsg);
-                    break;
+            case VERBOSE:
+                Log.v(tag, logMsg);
+                break;
 
-                default:
-                    break;
-            }
+            default:
+                break;
         }
 
         if (network) {
@@ -94,19 +205,19 @@ public class MLog {
     }
 
     public static void e(String tag, String msg) {
-        generic(LOG_E, tag, msg);
+        generic(ERROR, tag, msg);
     }
 
     public static void i(String tag, String msg) {
-        generic(LOG_I, tag, msg);
+        generic(INFO, tag, msg);
     }
 
     public static void w(String tag, String msg) {
-        generic(LOG_W, tag, msg);
+        generic(WARN, tag, msg);
     }
 
     public static void v(String tag, String msg) {
-        generic(LOG_V, tag, msg);
+        generic(VERBOSE, tag, msg);
     }
 
     public static void network(Context c, String TAG, String msg) {
@@ -0,0 +1,119 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.base.utils;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size in-memory log sink. Writers never block, each one claims a slot with an atomic
+ * counter and the oldest messages are overwritten
+ */
+public class MLogRingBuffer {
+
+    private final int mMask;
+    private final AtomicLong mCursor = new AtomicLong();
+    // entries are immutable and published with an ordered write, readers always see a complete one
+    private final AtomicReferenceArray<Entry> mEntries;
+
+    /**
+     * @param capacity number of messages kept, rounded up to a power of two
+     */
+    public MLogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mMask = size - 1;
+        mEntries = new AtomicReferenceArray<>(size);
+    }
+
+    public void add(int level, String tag, String message) {
+        long seq = mCursor.getAndIncrement();
+        mEntries.lazySet((int) (seq & mMask), new Entry(seq, System.currentTimeMillis(), level, tag, message));
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Total number of messages written, including the ones already overwritten
+     */
+    public long count() {
+        return mCursor.get();
+    }
+
+    public void clear() {
+        for (int i = 0; i <= mMask; i++) mEntries.set(i, null);
+    }
+
+    /**
+     * Appends the messages currently stored, oldest first. Slots that are rewritten while dumping are skipped
+     */
+    public void dump(StringBuilder out) {
+        long end = mCursor.get();
+        long start = Math.max(0, end - capacity());
+
+        for (long seq = start; seq < end; seq++) {
+            Entry entry = mEntries.get((int) (seq & mMask));
+            // not written yet or already overwritten by a newer message
+            if (entry == null || entry.seq != seq) continue;
+
+            out.append(entry.time).append(' ').append(levelName(entry.level)).append(' ').append(entry.tag).append(": ");
+            out.append(entry.message).append('\n');
+        }
+    }
+
+    private static char levelName(int level) {
+        switch (level) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            case Log.ERROR:
+                return 'E';
+            default:
+                return '?';
+        }
+    }
+
+    private static final class Entry {
+        final long seq;
+        final long time;
+        final int level;
+        final String tag;
+        final String message;
+
+        Entry(long seq, long time, int level, String tag, String message) {
+            this.seq = seq;
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.base.utils;
+
+/**
+ * FFT of real input using a complex FFT of half the size. All the work buffers and tables
+ * are allocated once in the constructor so transforms do not allocate.
+ * <p/>
+ * The spectrum has n / 2 + 1 bins, from DC to Nyquist, and it is not normalized
+ * (same convention as {@link FFT}). Instances are not thread safe
+ */
+public class RealFFT {
+    public static final String WINDOW_RECTANGULAR = "rectangular";
+    public static final String WINDOW_HANN = "hann";
+    public static final String WINDOW_HAMMING = "hamming";
+    public static final String WINDOW_BLACKMAN = "blackman";
+
+    final int n;
+    final int half;
+    final int m;
+
+    // half size complex fft tables
+    private final float[] cos;
+    private final float[] sin;
+    private final int[] bitReverse;
+
+    // twiddles to split the half size result into the real spectrum
+    private final float[] splitCos;
+    private final float[] splitSin;
+
+    // work buffers
+    private final float[] re;
+    private final float[] im;
+    private final float[] outRe;
+    private final float[] outIm;
+    private float[] window;
+
+    public RealFFT(int n) {
+        this.n = n;
+        this.half = n / 2;
+        this.m = (int) Math.round(Math.log(half) / Math.log(2));
+
+        // n = 2 has no butterflies, the split step alone gives x0 + x1 and x0 - x1
+        if (n < 2 || n != (1 << (m + 1))) {
+            throw new RuntimeException("FFT length must be a power of 2 and at least 2");
+        }
+
+        cos = new float[half / 2];
+        sin = new float[half / 2];
+        for (int i = 0; i < half / 2; i++) {
+            cos[i] = (float) Math.cos(-2 * Math.PI * i / half);
+            sin[i] = (float) Math.sin(-2 * Math.PI * i / half);
+        }
+
+        bitReverse = new int[half];
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - m);
+        }
+
+        splitCos = new float[half + 1];
+        splitSin = new float[half + 1];
+        for (int k = 0; k <= half; k++) {
+            splitCos[k] = (float) Math.cos(2 * Math.PI * k / n);
+            splitSin[k] = (float) -Math.sin(2 * Math.PI * k / n);
+        }
+
+        re = new float[half];
+        im = new float[half];
+        outRe = new float[half + 1];
+        outIm = new float[half + 1];
+        window = null;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public int bins() {
+        return half + 1;
+    }
+
+    /**
+     * Window applied to the input before every transform, null or "rectangular" disables it
+     */
+    public RealFFT window(String type) {
+        if (type == null || WINDOW_RECTANGULAR.equals(type)) window = null;
+        else window = createWindow(type, n);
+
+        return this;
+    }
+
+    public static float[] createWindow(String type, int n) {
+        float[] w = new float[n];
+        double k = 2 * Math.PI / (n - 1);
+
+        for (int i = 0; i < n; i++) {
+            switch (type) {
+                case WINDOW_HANN:
+                    w[i] = (float) (0.5 - 0.5 * Math.cos(k * i));
+                    break;
+                case WINDOW_HAMMING:
+                    w[i] = (float) (0.54 - 0.46 * Math.cos(k * i));
+                    break;
+                case WINDOW_BLACKMAN:
+                    w[i] = (float) (0.42 - 0.5 * Math.cos(k * i) + 0.08 * Math.cos(2 * k * i));
+                    break;
+                case WINDOW_RECTANGULAR:
+                    w[i] = 1;
+                    break;
+                default:
+                    throw new RuntimeException("Unknown window " + type);
+            }
+        }
+
+        return w;
+    }
+
+    /**
+     * Computes the spectrum of n samples starting at offset. Results are read with {@link #real(int)},
+     * {@link #imag(int)} or copied with {@link #spectrum(float[], float[])}
+     */
+    public void forward(float[] input, int offset) {
+        // pack even samples as real and odd samples as imaginary part, in bit reversed order
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            int idx = offset + 2 * i;
+            if (window == null) {
+                re[j] = input[idx];
+                im[j] = input[idx + 1];
+            } else {
+                re[j] = input[idx] * window[2 * i];
+                im[j] = input[idx + 1] * window[2 * i + 1];
+            }
+        }
+        transform();
+    }
+
+    public void forward(double[] input, int offset) {
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            int idx = offset + 2 * i;
+            if (window == null) {
+                re[j] = (float) input[idx];
+                im[j] = (float) input[idx + 1];
+            } else {
+                re[j] = (float) input[idx] * window[2 * i];
+                im[j] = (float) input[idx + 1] * window[2 * i + 1];
+            }
+        }
+        transform();
+    }
+
+    public void forward(float[] input) {
+        forward(input, 0);
+    }
+
+    public void forward(double[] input) {
+        forward(input, 0);
+    }
+
+    private void transform() {
+        // in-place radix-2 DIT on the already bit reversed data
+        for (int size = 2, step = half / 2; size <= half; size <<= 1, step >>= 1) {
+            int halfSize = size >> 1;
+            for (int start = 0; start < half; start += size) {
+                for (int j = 0, a = 0; j < halfSize; j++, a += step) {
+                    float c = cos[a];
+                    float s = sin[a];
+                    int k = start + j;
+                    int l = k + halfSize;
+                    float t1 = c * re[l] - s * im[l];
+                    float t2 = s * re[l] + c * im[l];
+                    re[l] = re[k] - t1;
+                    im[l] = im[k] - t2;
+                    re[k] += t1;
+                    im[k] += t2;
+                }
+            }
+        }
+
+        // split the half size spectrum into the spectrum of the real signal
+        for (int k = 0; k <= half; k++) {
+            int a = k == half ? 0 : k;
+            int b = k == 0 ? 0 : half - k;
+
+            float er = (re[a] + re[b]) * 0.5f;
+            float ei = (im[a] - im[b]) * 0.5f;
+            float or = (im[a] + im[b]) * 0.5f;
+            float oi = (re[b] - re[a]) * 0.5f;
+
+            float wr = splitCos[k];
+            float wi = splitSin[k];
+
+            outRe[k] = er + wr * or - wi * oi;
+            outIm[k] = ei + wr * oi + wi * or;
+        }
+    }
+
+    public float real(int bin) {
+        return outRe[bin];
+    }
+
+    public float imag(int bin) {
+        return outIm[bin];
+    }
+
+    /**
+     * Copies the last spectrum into caller supplied arrays of at least n / 2 + 1 elements
+     */
+    public void spectrum(float[] real, float[] imag) {
+        System.arraycopy(outRe, 0, real, 0, half + 1);
+        System.arraycopy(outIm, 0, imag, 0, half + 1);
+    }
+
+    /**
+     * Writes the magnitude of the last spectrum into out (n / 2 + 1 elements)
+     */
+    public float[] magnitude(float[] out) {
+        for (int k = 0; k <= half; k++) {
+            out[k] = (float) Math.sqrt(outRe[k] * outRe[k] + outIm[k] * outIm[k]);
+        }
+        return out;
+    }
+
+    /**
+     * Writes the power (squared magnitude) of the last spectrum into out (n / 2 + 1 elements)
+     */
+    public float[] power(float[] out) {
+        for (int k = 0; k <= half; k++) {
+            out[k] = outRe[k] * outRe[k] + outIm[k] * outIm[k];
+        }
+        return out;
+    }
+
+    public float[] magnitude(float[] input, float[] out) {
+        forward(input, 0);
+        return magnitude(out);
+    }
+
+    public float[] magnitude(double[] input, float[] out) {
+        forward(input, 0);
+        return magnitude(out);
+    }
+
+    public float[] power(float[] input, float[] out) {
+        forward(input, 0);
+        return power(out);
+    }
+
+    public float[] power(double[] input, float[] out) {
+        forward(input, 0);
+        return power(out);
+    }
+}
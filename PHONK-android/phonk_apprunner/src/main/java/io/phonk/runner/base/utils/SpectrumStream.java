@@ -0,0 +1,111 @@
+/*
+ * Part of Phonk http://www.phonk.io
+ * A prototyping platform for Android devices
+ *
+ * Copyright (C) 2013 - 2017 Victor Diaz Barrales @victordiaz (Protocoder)
+ * Copyright (C) 2017 - Victor Diaz Barrales @victordiaz (Phonk)
+ *
+ * Phonk is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Phonk is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Phonk. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.phonk.runner.base.utils;
+
+/**
+ * Sliding window spectrum over a stream of samples. Samples are pushed one by one or in blocks
+ * (audio buffers, sensor values...) and every 'hop' samples the magnitude spectrum of the last
+ * n samples is computed into a reused array and delivered to the listener
+ */
+public class SpectrumStream {
+    private final RealFFT fft;
+    private final int n;
+    private final int hop;
+    private final float[] history;
+    private final float[] frame;
+    private final float[] magnitudes;
+    private int writePos = 0;
+    private int filled = 0;
+    private int sinceLast = 0;
+    private SpectrumListener listener;
+
+    public SpectrumStream(int n, int hop, String window) {
+        this.n = n;
+        this.hop = Math.max(1, hop);
+        fft = new RealFFT(n).window(window);
+        history = new float[n];
+        frame = new float[n];
+        magnitudes = new float[fft.bins()];
+    }
+
+    public SpectrumStream onSpectrum(SpectrumListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public void push(float sample) {
+        history[writePos] = sample;
+        writePos = (writePos + 1) % n;
+        if (filled < n) filled++;
+
+        if (++sinceLast >= hop && filled == n) {
+            sinceLast = 0;
+            compute();
+        }
+    }
+
+    public void push(float[] samples, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) push(samples[i]);
+    }
+
+    public void push(float[] samples) {
+        push(samples, 0, samples.length);
+    }
+
+    public void push(double[] samples) {
+        for (double sample : samples) push((float) sample);
+    }
+
+    public void push(short[] samples, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) push(samples[i] / 32768f);
+    }
+
+    private void compute() {
+        // unroll the ring so the frame is ordered from oldest to newest
+        int tail = n - writePos;
+        System.arraycopy(history, writePos, frame, 0, tail);
+        System.arraycopy(history, 0, frame, tail, writePos);
+
+        fft.forward(frame, 0);
+        fft.magnitude(magnitudes);
+
+        if (listener != null) listener.onSpectrum(magnitudes);
+    }
+
+    /**
+     * Last computed magnitudes, the array is reused between updates
+     */
+    public float[] magnitudes() {
+        return magnitudes;
+    }
+
+    public void reset() {
+        writePos = 0;
+        filled = 0;
+        sinceLast = 0;
+    }
+
+    public interface SpectrumListener {
+        void onSpectrum(float[] magnitudes);
+    }
+}
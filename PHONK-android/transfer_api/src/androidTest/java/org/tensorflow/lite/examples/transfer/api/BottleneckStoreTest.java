@@ -0,0 +1,91 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+
+/** Unit tests for {@link BottleneckStore}. */
+@RunWith(AndroidJUnit4.class)
+public class BottleneckStoreTest {
+  private static final int NUM_FEATURES = 1000;
+  private static final int NUM_SAMPLES = 40;
+
+  @Test
+  public void reopenedStoreShouldReturnAppendedBottlenecks() throws IOException {
+    File directory = Files.createTempDirectory("tflite-tl-store").toFile();
+
+    BottleneckStore store = new BottleneckStore(directory, NUM_FEATURES);
+    for (int sampleIdx = 0; sampleIdx < NUM_SAMPLES; sampleIdx++) {
+      store.append(sampleIdx % 2 == 0 ? "a" : "b/c", bottleneck(sampleIdx));
+    }
+    store.close();
+
+    store = new BottleneckStore(directory, NUM_FEATURES);
+    List<ByteBuffer> first = store.load("a");
+    List<ByteBuffer> second = store.load("b/c");
+    Assert.assertEquals(NUM_SAMPLES / 2, first.size());
+    Assert.assertEquals(NUM_SAMPLES / 2, second.size());
+    for (int idx = 0; idx < NUM_SAMPLES / 2; idx++) {
+      Assert.assertEquals(bottleneck(idx * 2), first.get(idx));
+      Assert.assertEquals(bottleneck(idx * 2 + 1), second.get(idx));
+    }
+    store.close();
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test(expected = IOException.class)
+  public void storeShouldRejectOtherFeatureCounts() throws IOException {
+    File directory = Files.createTempDirectory("tflite-tl-store").toFile();
+
+    BottleneckStore store = new BottleneckStore(directory, NUM_FEATURES);
+    store.append("a", bottleneck(0));
+    store.close();
+
+    try {
+      new BottleneckStore(directory, NUM_FEATURES + 1).load("a");
+    } finally {
+      for (File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  private static ByteBuffer bottleneck(int seed) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(NUM_FEATURES * 4);
+    buffer.order(ByteOrder.nativeOrder());
+    for (int idx = 0; idx < NUM_FEATURES; idx++) {
+      buffer.putFloat(seed * NUM_FEATURES + idx);
+    }
+    buffer.rewind();
+    return buffer;
+  }
+}
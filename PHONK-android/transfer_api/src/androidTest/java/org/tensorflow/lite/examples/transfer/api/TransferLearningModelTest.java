@@ -69,4 +69,42 @@ public class TransferLearningModelTest {
 
     Files.delete(tempFilePath);
   }
+
+  @Test
+  public void checkpointShouldRestoreParameters() throws IOException {
+    TransferLearningModel model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model") {
+              @Override
+              public LiteModelWrapper loadInitializeModel() throws IOException {
+                return new LiteModelWrapper(this.loadMappedFile("softmax_initialize_ones.tflite"));
+              }
+            },
+            Arrays.asList("1", "2", "3", "4", "5"));
+
+    Path checkpointPath = Files.createTempFile("tflite-tl-test", ".ckpt");
+    Path tempFilePath = Files.createTempFile("tflite-tl-test", ".bin");
+
+    model.saveCheckpoint(checkpointPath.toFile());
+    model.saveParameters(FileChannel.open(tempFilePath, StandardOpenOption.WRITE));
+    byte[] firstContents = Files.readAllBytes(tempFilePath);
+
+    model.close();
+    model =
+        new TransferLearningModel(
+            new AssetModelLoader(
+                InstrumentationRegistry.getInstrumentation().getContext(), "model"),
+            Arrays.asList("1", "2", "3", "4", "5"));
+
+    Assert.assertTrue(model.loadCheckpoint(checkpointPath.toFile()));
+    model.saveParameters(FileChannel.open(tempFilePath, StandardOpenOption.WRITE));
+    byte[] secondContents = Files.readAllBytes(tempFilePath);
+
+    Assert.assertArrayEquals(firstContents, secondContents);
+
+    model.close();
+    Files.delete(checkpointPath);
+    Files.delete(tempFilePath);
+  }
 }
@@ -26,7 +26,6 @@ import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
-import android.util.Log;
 
 import org.tensorflow.lite.Interpreter;
 
@@ -53,8 +52,8 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
   // Only return this many results.
   private static final int NUM_DETECTIONS = 10;
   // Float model
-  private static final float IMAGE_MEAN = 128.0f;
-  private static final float IMAGE_STD = 128.0f;
+  public static final float IMAGE_MEAN = 128.0f;
+  public static final float IMAGE_STD = 128.0f;
   // Number of threads in the java app
   private static final int NUM_THREADS = 4;
   private boolean isModelQuantized;
@@ -78,6 +77,10 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
 
   private ByteBuffer imgData;
 
+  // The outputs are reused for every inference.
+  private final Object[] inputArray = new Object[1];
+  private final Map<Integer, Object> outputMap = new HashMap<>();
+
   private Interpreter tfLite;
 
   private TFLiteObjectDetectionAPIModel() {}
@@ -102,7 +105,7 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
    * @param inputSize The size of image input
    * @param isQuantized Boolean representing model is quantized or not
    */
-  public static Classifier create(
+  public static TFLiteObjectDetectionAPIModel create(
       final AssetManager assetManager,
       final String modelFilename,
       final String labelFilename,
@@ -147,54 +150,61 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     d.outputClasses = new float[1][NUM_DETECTIONS];
     d.outputScores = new float[1][NUM_DETECTIONS];
     d.numDetections = new float[1];
+    d.outputMap.put(0, d.outputLocations);
+    d.outputMap.put(1, d.outputClasses);
+    d.outputMap.put(2, d.outputScores);
+    d.outputMap.put(3, d.numDetections);
     return d;
   }
 
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
-    // Log this method so that it can be analyzed with systrace.
-    // Preprocess the image data from 0-255 int to normalized float based
-    // on the provided parameters.
-    Log.d("qq", "bitmap: " + bitmap.getWidth() + " " + bitmap.getHeight());
-    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-    imgData.rewind();
-    for (int i = 0; i < inputSize; ++i) {
-      for (int j = 0; j < inputSize; ++j) {
-        int pixelValue = intValues[i * inputSize + j];
+    preprocess(bitmap, imgData);
+    return recognize(imgData);
+  }
+
+  /**
+   * Fills a buffer from {@link #allocateInput()} with a inputSize x inputSize bitmap. Can run on
+   * another thread while {@link #recognize(ByteBuffer)} runs on a different buffer.
+   */
+  public void preprocess(final Bitmap bitmap, final ByteBuffer input) {
+    synchronized (intValues) {
+      bitmap.getPixels(intValues, 0, inputSize, 0, 0, inputSize, inputSize);
+
+      input.rewind();
+      for (int i = 0; i < inputSize * inputSize; ++i) {
+        int pixelValue = intValues[i];
         if (isModelQuantized) {
           // Quantized model
-          imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-          imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-          imgData.put((byte) (pixelValue & 0xFF));
+          input.put((byte) ((pixelValue >> 16) & 0xFF));
+          input.put((byte) ((pixelValue >> 8) & 0xFF));
+          input.put((byte) (pixelValue & 0xFF));
         } else { // Float model
-          imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          input.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          input.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          input.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
         }
       }
+      input.rewind();
     }
+  }
 
-    // Copy the input data into TensorFlow.
-    outputLocations = new float[1][NUM_DETECTIONS][4];
-    outputClasses = new float[1][NUM_DETECTIONS];
-    outputScores = new float[1][NUM_DETECTIONS];
-    numDetections = new float[1];
-
-    Object[] inputArray = {imgData};
-    Map<Integer, Object> outputMap = new HashMap<>();
-    outputMap.put(0, outputLocations);
-    outputMap.put(1, outputClasses);
-    outputMap.put(2, outputScores);
-    outputMap.put(3, numDetections);
+  /**
+   * Runs the model on an already filled input buffer. Not thread safe, only one thread should
+   * call it at a time.
+   */
+  public List<Recognition> recognize(final ByteBuffer input) {
+    input.rewind();
+    inputArray[0] = input;
 
     // Run the inference call.
     tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
 
     // Show the best detections.
     // after scaling them back to the input size.
-    final ArrayList<Recognition> recognitions = new ArrayList<>(NUM_DETECTIONS);
-    for (int i = 0; i < NUM_DETECTIONS; ++i) {
+    final int detections = Math.min(NUM_DETECTIONS, (int) numDetections[0]);
+    final ArrayList<Recognition> recognitions = new ArrayList<>(detections);
+    for (int i = 0; i < detections; ++i) {
       final RectF detection =
           new RectF(
               outputLocations[0][i][1] * inputSize,
@@ -215,6 +225,21 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     return recognitions;
   }
 
+  /** Allocates a buffer that fits one input image of the model. */
+  public ByteBuffer allocateInput() {
+    ByteBuffer input = ByteBuffer.allocateDirect(imgData.capacity());
+    input.order(ByteOrder.nativeOrder());
+    return input;
+  }
+
+  public int getInputSize() {
+    return inputSize;
+  }
+
+  public boolean isQuantized() {
+    return isModelQuantized;
+  }
+
   @Override
   public void enableStatLogging(final boolean logStats) {}
 
@@ -224,7 +249,10 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    if (tfLite != null) tfLite.close();
+    tfLite = null;
+  }
 
   public void setNumThreads(int num_threads) {
     if (tfLite != null) tfLite.setNumThreads(num_threads);
@@ -0,0 +1,231 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.transfer.api;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only on-disk store of training bottlenecks, one file per class.
+ *
+ * <p>Each file starts with a header holding the number of features per bottleneck and the number
+ * of stored bottlenecks, followed by the bottlenecks. Files are memory-mapped in segments, so the
+ * stored bottlenecks live in the page cache instead of the Java heap and the returned buffers stay
+ * valid until the store is closed.
+ */
+public final class BottleneckStore implements Closeable {
+  private static final int MAGIC = 0x544c4253; // "TLBS"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+  private static final int COUNT_OFFSET = 12;
+  private static final int FLOAT_BYTES = 4;
+  private static final String EXTENSION = ".bottlenecks";
+
+  // Bottlenecks per mapped segment.
+  private static final int SEGMENT_RECORDS = 16;
+
+  private final File directory;
+  private final int numFeatures;
+  private final int recordBytes;
+  private final Map<String, ClassFile> files = new HashMap<>();
+
+  /**
+   * Opens or creates a store.
+   *
+   * @param directory where the class files are kept, created if missing.
+   * @param numFeatures number of float features of every bottleneck.
+   * @throws IOException if the directory can't be created.
+   */
+  public BottleneckStore(File directory, int numFeatures) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create bottleneck store in " + directory);
+    }
+    this.directory = directory;
+    this.numFeatures = numFeatures;
+    this.recordBytes = numFeatures * FLOAT_BYTES;
+  }
+
+  /**
+   * Appends a bottleneck of a class.
+   *
+   * @return a read-only view of the stored copy.
+   */
+  public synchronized ByteBuffer append(String className, ByteBuffer bottleneck) throws IOException {
+    if (bottleneck.remaining() != recordBytes) {
+      throw new IllegalArgumentException(String.format(
+          "Bottleneck has %d bytes, expected %d", bottleneck.remaining(), recordBytes));
+    }
+
+    ClassFile file = open(className);
+    int index = file.count;
+    MappedByteBuffer segment = file.segment(index / SEGMENT_RECORDS);
+
+    ByteBuffer record = segment.duplicate();
+    record.position((index % SEGMENT_RECORDS) * recordBytes);
+    record.put(bottleneck.duplicate());
+
+    // The count is written after the data, so an interrupted append is ignored on load.
+    file.count++;
+    file.header.putInt(COUNT_OFFSET, file.count);
+
+    return file.record(index);
+  }
+
+  /** Returns read-only views of all the stored bottlenecks of a class. */
+  public synchronized List<ByteBuffer> load(String className) throws IOException {
+    ClassFile file = open(className);
+    List<ByteBuffer> records = new ArrayList<>(file.count);
+    for (int index = 0; index < file.count; index++) {
+      records.add(file.record(index));
+    }
+    return records;
+  }
+
+  public synchronized int count(String className) throws IOException {
+    return open(className).count;
+  }
+
+  /** Writes the appended bottlenecks to storage. */
+  public synchronized void flush() {
+    for (ClassFile file : files.values()) {
+      file.flush();
+    }
+  }
+
+  /** Removes all the bottlenecks of a class. */
+  public synchronized void clear(String className) throws IOException {
+    ClassFile file = files.remove(className);
+    if (file != null) {
+      file.close();
+    }
+    File path = fileFor(className);
+    if (path.exists() && !path.delete()) {
+      throw new IOException("Cannot delete " + path);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    for (ClassFile file : files.values()) {
+      file.flush();
+      file.close();
+    }
+    files.clear();
+  }
+
+  private ClassFile open(String className) throws IOException {
+    ClassFile file = files.get(className);
+    if (file == null) {
+      file = new ClassFile(fileFor(className));
+      files.put(className, file);
+    }
+    return file;
+  }
+
+  private File fileFor(String className) {
+    // Class names are user-provided, keep file names portable.
+    StringBuilder name = new StringBuilder();
+    for (char c : className.toCharArray()) {
+      boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+          || c == '-' || c == '_';
+      name.append(safe ? String.valueOf(c) : String.format("%%%04x", (int) c));
+    }
+    return new File(directory, name + EXTENSION);
+  }
+
+  private final class ClassFile {
+    final RandomAccessFile file;
+    final FileChannel channel;
+    final MappedByteBuffer header;
+    final List<MappedByteBuffer> segments = new ArrayList<>();
+    int count;
+
+    ClassFile(File path) throws IOException {
+      boolean exists = path.exists() && path.length() >= HEADER_BYTES;
+      file = new RandomAccessFile(path, "rw");
+      channel = file.getChannel();
+      header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+
+      if (exists) {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+          close();
+          throw new IOException("Not a bottleneck store file: " + path);
+        }
+        if (header.getInt(8) != numFeatures) {
+          close();
+          throw new IOException(String.format(
+              "%s holds bottlenecks of %d features, expected %d",
+              path, header.getInt(8), numFeatures));
+        }
+        count = header.getInt(COUNT_OFFSET);
+      } else {
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, numFeatures);
+        header.putInt(COUNT_OFFSET, 0);
+        count = 0;
+      }
+    }
+
+    MappedByteBuffer segment(int segmentIndex) throws IOException {
+      while (segments.size() <= segmentIndex) {
+        long position = HEADER_BYTES + (long) segments.size() * SEGMENT_RECORDS * recordBytes;
+        // Mapping past the end grows the file.
+        MappedByteBuffer segment = channel.map(
+            FileChannel.MapMode.READ_WRITE, position, (long) SEGMENT_RECORDS * recordBytes);
+        segment.order(ByteOrder.nativeOrder());
+        segments.add(segment);
+      }
+      return segments.get(segmentIndex);
+    }
+
+    ByteBuffer record(int index) throws IOException {
+      ByteBuffer record = segment(index / SEGMENT_RECORDS).duplicate();
+      record.position((index % SEGMENT_RECORDS) * recordBytes);
+      record.limit(record.position() + recordBytes);
+      ByteBuffer slice = record.slice().asReadOnlyBuffer();
+      slice.order(ByteOrder.nativeOrder());
+      return slice;
+    }
+
+    void flush() {
+      for (MappedByteBuffer segment : segments) {
+        segment.force();
+      }
+      header.force();
+    }
+
+    void close() {
+      try {
+        channel.close();
+        file.close();
+      } catch (IOException e) {
+        // no-op
+      }
+    }
+  }
+}
@@ -16,9 +16,13 @@ limitations under the License.
 package org.tensorflow.lite.examples.transfer.api;
 
 import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ScatteringByteChannel;
 import java.util.ArrayList;
@@ -84,6 +88,10 @@ public final class TransferLearningModel implements Closeable {
 
   private static final int FLOAT_BYTES = 4;
 
+  private static final int CHECKPOINT_MAGIC = 0x544c434b; // "TLCK"
+  private static final int CHECKPOINT_VERSION = 1;
+  private static final int CHECKPOINT_HEADER_BYTES = 16;
+
   // Setting this to a higher value allows to calculate bottlenecks for more samples while
   // adding them to the bottleneck collection is blocked by an active training thread.
   private static final int NUM_THREADS =
@@ -125,6 +133,9 @@ public final class TransferLearningModel implements Closeable {
   // Where to store bottlenecks produced during inference.
   private final ByteBuffer inferenceBottleneck;
 
+  // Where predict(float[]) copies the image, guarded by inferenceLock.
+  private ByteBuffer inferenceImage;
+
   // Used to spawn background threads.
   private final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
 
@@ -139,6 +150,24 @@ public final class TransferLearningModel implements Closeable {
   // This lock allows [close] method to assure that no threads are performing inference.
   private final Lock inferenceLock = new ReentrantLock();
 
+  // Where new bottlenecks are kept when a store is attached, guarded by trainingLock.
+  private BottleneckStore bottleneckStore;
+
+  // Number of optimizer steps taken, guarded by trainingLock.
+  private long trainingStep = 0;
+
+  // Checkpoints are written by their own thread so training doesn't wait for storage.
+  private final ExecutorService checkpointExecutor = Executors.newSingleThreadExecutor();
+  private volatile File checkpointFile;
+  private volatile int checkpointEveryBatches;
+  private volatile IOException lastCheckpointError;
+  private volatile long lastCheckpointStep = -1;
+
+  // Copies of the parameters and optimizer state being written, guarded by trainingLock.
+  private ByteBuffer[] checkpointParameters;
+  private ByteBuffer[] checkpointOptimizerState;
+  private Future<?> pendingCheckpoint;
+
   // Set to true when [close] has been called.
   private volatile boolean isTerminating = false;
 
@@ -210,11 +239,7 @@ public final class TransferLearningModel implements Closeable {
    */
   public Future<Void> addSample(float[] image, String className) {
     checkNotTerminating();
-
-    if (!classes.containsKey(className)) {
-      throw new IllegalArgumentException(String.format(
-          "Class \"%s\" is not one of the classes recognized by the model", className));
-    }
+    checkClass(className);
 
     return executor.submit(() -> {
       ByteBuffer imageBuffer = allocateBuffer(image.length * FLOAT_BYTES);
@@ -223,22 +248,56 @@ public final class TransferLearningModel implements Closeable {
       }
       imageBuffer.rewind();
 
-      if (Thread.interrupted()) {
-        return null;
-      }
-      ByteBuffer bottleneck = bottleneckModel.generateBottleneck(imageBuffer, null);
+      return addBottleneck(imageBuffer, className);
+    });
+  }
 
-      trainingLock.lockInterruptibly();
-      try {
-        trainingSamples.add(new TrainingSample(bottleneck, className));
-      } finally {
-        trainingLock.unlock();
-      }
+  /**
+   * Adds a new sample for training from an image that is already in a direct buffer.
+   *
+   * The buffer is read in a background thread, so it must not be modified until the returned
+   * Future is resolved.
+   *
+   * @param image image RGB data as native order floats, see {@link #allocateImageBuffer(int)}.
+   * @param className ground truth label for image.
+   */
+  public Future<Void> addSample(ByteBuffer image, String className) {
+    checkNotTerminating();
+    checkClass(className);
 
-      return null;
+    return executor.submit(() -> {
+      image.rewind();
+      return addBottleneck(image, className);
     });
   }
 
+  private Void addBottleneck(ByteBuffer imageBuffer, String className)
+      throws InterruptedException, IOException {
+    if (Thread.interrupted()) {
+      return null;
+    }
+    ByteBuffer bottleneck = bottleneckModel.generateBottleneck(imageBuffer, null);
+
+    trainingLock.lockInterruptibly();
+    try {
+      if (bottleneckStore != null) {
+        bottleneck = bottleneckStore.append(className, bottleneck);
+      }
+      trainingSamples.add(new TrainingSample(bottleneck, className));
+    } finally {
+      trainingLock.unlock();
+    }
+
+    return null;
+  }
+
+  private void checkClass(String className) {
+    if (!classes.containsKey(className)) {
+      throw new IllegalArgumentException(String.format(
+          "Class \"%s\" is not one of the classes recognized by the model", className));
+    }
+  }
+
   /**
    * Trains the model on the previously added data samples.
    *
@@ -318,6 +377,12 @@ public final class TransferLearningModel implements Closeable {
                 } finally {
                   parameterLock.writeLock().unlock();
                 }
+
+                trainingStep++;
+                int every = checkpointEveryBatches;
+                if (every > 0 && trainingStep % every == 0) {
+                  scheduleCheckpoint();
+                }
               }
 
               float avgLoss = totalLoss / numBatchesProcessed;
@@ -333,6 +398,282 @@ public final class TransferLearningModel implements Closeable {
         });
   }
 
+  /**
+   * Keeps training samples in an on-disk store instead of memory.
+   *
+   * Samples already in the store are loaded, so the model can train on them right away without
+   * generating their bottlenecks again. Samples added before are moved to the store. Can only be
+   * attached once.
+   *
+   * @param directory where the store keeps one file per class.
+   * @throws IOException if the store can't be opened or holds bottlenecks of another model.
+   */
+  public void attachBottleneckStore(File directory) throws IOException {
+    checkNotTerminating();
+
+    trainingLock.lock();
+    try {
+      if (bottleneckStore != null) {
+        throw new IllegalStateException("A bottleneck store is already attached");
+      }
+
+      BottleneckStore store = new BottleneckStore(directory, numBottleneckFeatures());
+      try {
+        List<TrainingSample> samples = new ArrayList<>();
+        for (String className : classesByIdx) {
+          for (ByteBuffer bottleneck : store.load(className)) {
+            samples.add(new TrainingSample(bottleneck, className));
+          }
+        }
+        for (TrainingSample sample : trainingSamples) {
+          samples.add(
+              new TrainingSample(store.append(sample.className, sample.bottleneck), sample.className));
+          sample.bottleneck.rewind();
+        }
+        store.flush();
+
+        trainingSamples.clear();
+        trainingSamples.addAll(samples);
+      } catch (IOException e) {
+        store.close();
+        throw e;
+      }
+      bottleneckStore = store;
+    } finally {
+      trainingLock.unlock();
+    }
+  }
+
+  /**
+   * Writes the model parameters and optimizer state in the background while training.
+   *
+   * Training keeps going while a checkpoint is written, if the previous one is still being written
+   * when the next is due that one is skipped. The file is replaced atomically, so it always holds a
+   * complete checkpoint that {@link #loadCheckpoint(File)} can resume from.
+   *
+   * @param file where to write the checkpoints, null to stop.
+   * @param everyBatches number of training batches between checkpoints.
+   */
+  public void enableCheckpoints(File file, int everyBatches) {
+    checkpointEveryBatches = file == null ? 0 : Math.max(1, everyBatches);
+    checkpointFile = file;
+  }
+
+  /**
+   * Writes a checkpoint right away, waiting for any training in progress to finish.
+   *
+   * @param file where to write the checkpoint.
+   * @throws IOException if an I/O error occurs.
+   */
+  public void saveCheckpoint(File file) throws IOException {
+    checkNotTerminating();
+
+    // Holding the training lock keeps the optimizer state still while writing.
+    trainingLock.lock();
+    parameterLock.readLock().lock();
+    try {
+      writeCheckpoint(file, trainingStep, modelParameters, optimizerState);
+    } finally {
+      parameterLock.readLock().unlock();
+      trainingLock.unlock();
+    }
+  }
+
+  /**
+   * Restores the model parameters and optimizer state from a checkpoint of the same underlying
+   * model.
+   *
+   * @param file checkpoint written by {@link #saveCheckpoint(File)} or while training.
+   * @return false if the file doesn't exist.
+   * @throws IOException if the file can't be read or belongs to another model.
+   */
+  public boolean loadCheckpoint(File file) throws IOException {
+    checkNotTerminating();
+    if (!file.exists()) {
+      return false;
+    }
+
+    trainingLock.lock();
+    parameterLock.writeLock().lock();
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      FileChannel channel = input.getChannel();
+
+      ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER_BYTES);
+      readFully(channel, header);
+      header.flip();
+      if (header.getInt() != CHECKPOINT_MAGIC || header.getInt() != CHECKPOINT_VERSION) {
+        throw new IOException("Not a checkpoint: " + file);
+      }
+      long step = header.getLong();
+
+      ByteBuffer sizes = ByteBuffer.allocate((modelParameters.length + optimizerState.length + 2) * 4);
+      readFully(channel, sizes);
+      sizes.flip();
+      checkSizes(sizes, modelParameters, file);
+      checkSizes(sizes, optimizerState, file);
+
+      // Check the length before overwriting anything.
+      long expected = channel.position();
+      for (ByteBuffer buffer : modelParameters) {
+        expected += buffer.capacity();
+      }
+      for (ByteBuffer buffer : optimizerState) {
+        expected += buffer.capacity();
+      }
+      if (channel.size() != expected) {
+        throw new IOException("Checkpoint is truncated: " + file);
+      }
+
+      for (ByteBuffer buffer : modelParameters) {
+        readFully(channel, buffer);
+        buffer.rewind();
+      }
+      for (ByteBuffer buffer : optimizerState) {
+        readFully(channel, buffer);
+        buffer.rewind();
+      }
+      trainingStep = step;
+    } finally {
+      parameterLock.writeLock().unlock();
+      trainingLock.unlock();
+    }
+
+    return true;
+  }
+
+  /** Training step of the last checkpoint written in the background, -1 if none. */
+  public long getLastCheckpointStep() {
+    return lastCheckpointStep;
+  }
+
+  /** Error of the last checkpoint written in the background, null if it succeeded. */
+  public IOException getLastCheckpointError() {
+    return lastCheckpointError;
+  }
+
+  // Must be called with trainingLock held.
+  private void scheduleCheckpoint() {
+    File file = checkpointFile;
+    if (file == null || (pendingCheckpoint != null && !pendingCheckpoint.isDone())) {
+      return;
+    }
+
+    snapshotCheckpoint();
+    long step = trainingStep;
+    ByteBuffer[] parameters = checkpointParameters;
+    ByteBuffer[] state = checkpointOptimizerState;
+    BottleneckStore store = bottleneckStore;
+
+    pendingCheckpoint = checkpointExecutor.submit(() -> {
+      try {
+        if (store != null) {
+          store.flush();
+        }
+        writeCheckpoint(file, step, parameters, state);
+        lastCheckpointStep = step;
+        lastCheckpointError = null;
+      } catch (IOException e) {
+        lastCheckpointError = e;
+      }
+    });
+  }
+
+  // Must be called with trainingLock held, copies the current values so training can go on.
+  private void snapshotCheckpoint() {
+    if (checkpointParameters == null) {
+      checkpointParameters = allocateLike(modelParameters);
+      checkpointOptimizerState = allocateLike(optimizerState);
+    }
+
+    parameterLock.readLock().lock();
+    try {
+      copyBuffers(modelParameters, checkpointParameters);
+    } finally {
+      parameterLock.readLock().unlock();
+    }
+    copyBuffers(optimizerState, checkpointOptimizerState);
+  }
+
+  private static void writeCheckpoint(
+      File file, long step, ByteBuffer[] parameters, ByteBuffer[] state) throws IOException {
+    ByteBuffer header =
+        ByteBuffer.allocate(CHECKPOINT_HEADER_BYTES + (parameters.length + state.length + 2) * 4);
+    header.putInt(CHECKPOINT_MAGIC);
+    header.putInt(CHECKPOINT_VERSION);
+    header.putLong(step);
+    header.putInt(parameters.length);
+    for (ByteBuffer buffer : parameters) {
+      header.putInt(buffer.capacity());
+    }
+    header.putInt(state.length);
+    for (ByteBuffer buffer : state) {
+      header.putInt(buffer.capacity());
+    }
+    header.flip();
+
+    File temp = new File(file.getPath() + ".tmp");
+    try (RandomAccessFile output = new RandomAccessFile(temp, "rw")) {
+      output.setLength(0);
+      FileChannel channel = output.getChannel();
+      writeFully(channel, header);
+      for (ByteBuffer buffer : parameters) {
+        writeFully(channel, buffer.duplicate());
+      }
+      for (ByteBuffer buffer : state) {
+        writeFully(channel, buffer.duplicate());
+      }
+      channel.force(true);
+    }
+
+    if (!temp.renameTo(file)) {
+      throw new IOException("Cannot replace checkpoint " + file);
+    }
+  }
+
+  private static void checkSizes(ByteBuffer sizes, ByteBuffer[] buffers, File file)
+      throws IOException {
+    if (sizes.getInt() != buffers.length) {
+      throw new IOException("Checkpoint belongs to another model: " + file);
+    }
+    for (ByteBuffer buffer : buffers) {
+      if (sizes.getInt() != buffer.capacity()) {
+        throw new IOException("Checkpoint belongs to another model: " + file);
+      }
+    }
+  }
+
+  private static ByteBuffer[] allocateLike(ByteBuffer[] buffers) {
+    ByteBuffer[] copies = new ByteBuffer[buffers.length];
+    for (int idx = 0; idx < buffers.length; idx++) {
+      copies[idx] = allocateBuffer(buffers[idx].capacity());
+    }
+    return copies;
+  }
+
+  private static void copyBuffers(ByteBuffer[] from, ByteBuffer[] to) {
+    for (int idx = 0; idx < from.length; idx++) {
+      ByteBuffer source = from[idx].duplicate();
+      source.rewind();
+      to[idx].rewind();
+      to[idx].put(source);
+      to[idx].rewind();
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Checkpoint is truncated");
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
   /**
    * Runs model inference on a given image.
    * @param image image RGB data.
@@ -347,34 +688,70 @@ public final class TransferLearningModel implements Closeable {
         return null;
       }
 
-      ByteBuffer imageBuffer = allocateBuffer(image.length * FLOAT_BYTES);
-      for (float f : image) {
-        imageBuffer.putFloat(f);
+      if (inferenceImage == null || inferenceImage.capacity() != image.length * FLOAT_BYTES) {
+        inferenceImage = allocateBuffer(image.length * FLOAT_BYTES);
       }
-      imageBuffer.rewind();
+      inferenceImage.rewind();
+      inferenceImage.asFloatBuffer().put(image);
 
-      ByteBuffer bottleneck = bottleneckModel.generateBottleneck(imageBuffer, inferenceBottleneck);
+      return runInference(inferenceImage);
+    } finally {
+      inferenceLock.unlock();
+    }
+  }
 
-      float[] confidences;
-      parameterLock.readLock().lock();
-      try {
-        confidences = inferenceModel.runInference(bottleneck, modelParameters);
-      } finally {
-        parameterLock.readLock().unlock();
-      }
+  /**
+   * Runs model inference on an image that is already in a direct buffer.
+   * @param image image RGB data as native order floats, see {@link #allocateImageBuffer(int)}.
+   * @return predictions sorted by confidence decreasing. Can be null if model is terminating.
+   */
+  public Prediction[] predict(ByteBuffer image) {
+    checkNotTerminating();
+    inferenceLock.lock();
 
-      Prediction[] predictions = new Prediction[classes.size()];
-      for (int classIdx = 0; classIdx < classes.size(); classIdx++) {
-        predictions[classIdx] = new Prediction(classesByIdx[classIdx], confidences[classIdx]);
+    try {
+      if (isTerminating) {
+        return null;
       }
 
-      Arrays.sort(predictions, (a, b) -> -Float.compare(a.confidence, b.confidence));
-      return predictions;
+      image.rewind();
+      return runInference(image);
     } finally {
       inferenceLock.unlock();
     }
   }
 
+  // Must be called with inferenceLock held.
+  private Prediction[] runInference(ByteBuffer imageBuffer) {
+    ByteBuffer bottleneck = bottleneckModel.generateBottleneck(imageBuffer, inferenceBottleneck);
+
+    float[] confidences;
+    parameterLock.readLock().lock();
+    try {
+      confidences = inferenceModel.runInference(bottleneck, modelParameters);
+    } finally {
+      parameterLock.readLock().unlock();
+    }
+
+    Prediction[] predictions = new Prediction[classes.size()];
+    for (int classIdx = 0; classIdx < classes.size(); classIdx++) {
+      predictions[classIdx] = new Prediction(classesByIdx[classIdx], confidences[classIdx]);
+    }
+
+    Arrays.sort(predictions, (a, b) -> -Float.compare(a.confidence, b.confidence));
+    return predictions;
+  }
+
+  /**
+   * Allocates a buffer that can be filled with image RGB data and passed to
+   * {@link #predict(ByteBuffer)} or {@link #addSample(ByteBuffer, String)}.
+   *
+   * @param numFloats number of float values in the image, width * height * 3.
+   */
+  public static ByteBuffer allocateImageBuffer(int numFloats) {
+    return allocateBuffer(numFloats * FLOAT_BYTES);
+  }
+
   /**
    * Writes the current values of the model parameters to a writable channel.
    *
@@ -488,6 +865,7 @@ public final class TransferLearningModel implements Closeable {
   public void close() {
     isTerminating = true;
     executor.shutdownNow();
+    checkpointExecutor.shutdown();
 
     // Make sure that all threads doing inference are finished.
     inferenceLock.lock();
@@ -498,6 +876,12 @@ public final class TransferLearningModel implements Closeable {
         throw new RuntimeException("Model thread pool failed to terminate");
       }
 
+      // Let the last checkpoint finish writing.
+      checkpointExecutor.awaitTermination(5, TimeUnit.SECONDS);
+      if (bottleneckStore != null) {
+        bottleneckStore.close();
+      }
+
       initializeModel.close();
       bottleneckModel.close();
       trainHeadModel.close();
@@ -336,6 +336,12 @@ store.project_save = function (files) {
     if (store.state.current_project.conf.execute_on_save) {
       store.execute_code(store.state.current_project.conf.execute_on_save)
     }
+
+    // live coding, the running script gets the functions that changed without restarting
+    if (store.state.current_project.conf.hot_swap_on_save) {
+      let main = files.find(file => file.name === 'main.js')
+      if (main && main.code) store.hot_swap(main.code)
+    }
   }, function (response) {
     console.error('project_save(status) NOP > ' + response.status)
     if (!response.status) {
@@ -397,6 +403,42 @@ store.execute_code = function (code) {
   })
 }
 
+/*
+ * Updates the changed functions of the running script
+ */
+store.hot_swap = function (code) {
+  let id = store.state.lastNotificationId++
+
+  var query = { code: code }
+  store.emit('show_info', { id: id, icon: 'autorenew', text: 'Hot swap...', status: 'progress' })
+
+  Vue.axios.post(getUrlWebapp('/api/project/hot_swap'), query).then(function (response) {
+    store.emit('show_info', { id: id, icon: 'autorenew', text: 'Hot swap...', status: 'done' })
+  }, function (response) {
+    store.emit('show_info', { id: id, icon: 'autorenew', text: 'Hot swap...', status: 'error' })
+    console.error(response.status)
+  })
+}
+
+/*
+ * Profiler, the reports arrive through the websocket as 'profiler' events
+ * stacks are in the folded format used by flame graphs
+ */
+store.profiler_start = function (interval) {
+  var query = interval ? '?interval=' + interval : ''
+  Vue.axios.get(getUrlWebapp('/api/project/profiler_start' + query)).then(function (response) {
+  }, function (response) {
+    console.error(response.status)
+  })
+}
+
+store.profiler_stop = function () {
+  Vue.axios.get(getUrlWebapp('/api/project/profiler_stop')).then(function (response) {
+  }, function (response) {
+    console.error(response.status)
+  })
+}
+
 store.uploadFile = function (file, folder) {
   var formData = new FormData()
   // formData.append('_token', this.token) // just the csrf token
@@ -545,7 +587,16 @@ store.websockets_init = function () {
         break
 
       case 'console':
-        store.emit('console', data)
+        // console lines arrive in batches, one frame per tick
+        if (data.action === 'batch') {
+          data.logs.forEach(log => store.emit('console', log))
+        } else {
+          store.emit('console', data)
+        }
+        break
+
+      case 'profiler':
+        store.emit('profiler', data.report)
         break
 
       // getting device data